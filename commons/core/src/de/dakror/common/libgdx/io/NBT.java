@@ -16,7 +16,10 @@
 
 package de.dakror.common.libgdx.io;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
@@ -26,12 +29,15 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -41,8 +47,10 @@ import com.badlogic.gdx.Application.ApplicationType;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.Pool;
 import com.badlogic.gdx.utils.Pool.Poolable;
-import com.badlogic.gdx.utils.Pools;
+import com.badlogic.gdx.utils.ReflectionPool;
+import com.badlogic.gdx.utils.StreamUtils;
 
 import net.jpountz.lz4.LZ4FrameInputStream;
 import net.jpountz.lz4.LZ4FrameOutputStream;
@@ -113,15 +121,17 @@ public class NBT {
     }
 
     public static abstract class Tag implements Poolable {
-        static int idCounter = 0;
+        static final AtomicInteger idCounter = new AtomicInteger();
         public final int id;
         public final TagType type;
         public String name;
         public CollectionTag parent;
+        // pool of the thread that obtained the tag, null if it was created directly
+        Pool<?> pool;
 
         public Tag(TagType type) {
             this.type = type;
-            this.id = idCounter++;
+            this.id = idCounter.getAndIncrement();
         }
 
         @Override
@@ -130,7 +140,7 @@ public class NBT {
         }
 
         public void free() {
-            Pools.free(this);
+            recycle(this);
         }
 
         @Override
@@ -1123,97 +1133,195 @@ public class NBT {
     //////////////////////////////////////////
     //////////////////////////////////////////
 
-    public static class Builder {
+    /**
+     * Fluent writer for tags. {@link TreeBuilder} builds a tag tree, {@link StreamBuilder} writes the tags straight
+     * into a stream, so code that saves its state does not need to know where it goes.
+     *
+     * @author Maximilian Stark | Dakror
+     */
+    public static abstract class Builder {
+        public abstract Builder Byte(String name, byte value);
+
+        public abstract Builder Byte(byte value);
+
+        public abstract Builder Short(String name, short value);
+
+        public abstract Builder Short(short value);
+
+        public abstract Builder Int(String name, int value);
+
+        public abstract Builder Int(int value);
+
+        public abstract Builder Long(String name, long value);
+
+        public abstract Builder Long(long value);
+
+        public abstract Builder Float(String name, float value);
+
+        public abstract Builder Float(float value);
+
+        public abstract Builder Double(String name, double value);
+
+        public abstract Builder Double(double value);
+
+        public abstract Builder ByteArray(String name, byte[] value);
+
+        public abstract Builder ByteArray(byte[] value);
+
+        public abstract Builder String(String name, String value);
+
+        public abstract Builder String(String value);
+
+        public abstract Builder List(String name, TagType type);
+
+        public abstract Builder List(TagType type);
+
+        public abstract Builder Compound(String name);
+
+        public abstract Builder Compound();
+
+        public abstract Builder IntArray(String name, int[] value);
+
+        public abstract Builder IntArray(int[] value);
+
+        public abstract Builder LongArray(String name, long[] value);
+
+        public abstract Builder LongArray(long[] value);
+
+        public abstract Builder ShortArray(String name, short[] value);
+
+        public abstract Builder ShortArray(short[] value);
+
+        public abstract Builder FloatArray(String name, float[] value);
+
+        public abstract Builder FloatArray(float[] value);
+
+        public abstract Builder add(Tag tag);
+
+        public abstract Builder End();
+
+        /**
+         * Same as {@link #List(String, TagType)}, but lets a {@link StreamBuilder} write the list without buffering it
+         * @param size the exact number of elements that will be added
+         */
+        public Builder List(String name, TagType type, int size) {
+            return List(name, type);
+        }
+    }
+
+    /**
+     * Builds a tag tree, which {@link #Get()} returns
+     *
+     * @author Maximilian Stark | Dakror
+     */
+    public static class TreeBuilder extends Builder {
         protected CompoundTag root;
 
         protected CollectionTag current;
 
-        public Builder(String name) {
+        public TreeBuilder(String name) {
             root = new CompoundTag(name);
             current = root;
         }
 
-        public Builder Byte(String name, byte value) {
+        @Override
+        public TreeBuilder Byte(String name, byte value) {
             current.add(new ByteTag(name, value));
             return this;
         }
 
-        public Builder Byte(byte value) {
+        @Override
+        public TreeBuilder Byte(byte value) {
             current.add(new ByteTag(null, value));
             return this;
         }
 
-        public Builder Short(String name, short value) {
+        @Override
+        public TreeBuilder Short(String name, short value) {
             current.add(new ShortTag(name, value));
             return this;
         }
 
-        public Builder Short(short value) {
+        @Override
+        public TreeBuilder Short(short value) {
             current.add(new ShortTag(null, value));
             return this;
         }
 
-        public Builder Int(String name, int value) {
+        @Override
+        public TreeBuilder Int(String name, int value) {
             current.add(new IntTag(name, value));
             return this;
         }
 
-        public Builder Int(int value) {
+        @Override
+        public TreeBuilder Int(int value) {
             current.add(new IntTag(null, value));
             return this;
         }
 
-        public Builder Long(String name, long value) {
+        @Override
+        public TreeBuilder Long(String name, long value) {
             current.add(new LongTag(name, value));
             return this;
         }
 
-        public Builder Long(long value) {
+        @Override
+        public TreeBuilder Long(long value) {
             current.add(new LongTag(null, value));
             return this;
         }
 
-        public Builder Float(String name, float value) {
+        @Override
+        public TreeBuilder Float(String name, float value) {
             current.add(new FloatTag(name, value));
             return this;
         }
 
-        public Builder Float(float value) {
+        @Override
+        public TreeBuilder Float(float value) {
             current.add(new FloatTag(null, value));
             return this;
         }
 
-        public Builder Double(String name, double value) {
+        @Override
+        public TreeBuilder Double(String name, double value) {
             current.add(new DoubleTag(name, value));
             return this;
         }
 
-        public Builder Double(double value) {
+        @Override
+        public TreeBuilder Double(double value) {
             current.add(new DoubleTag(null, value));
             return this;
         }
 
-        public Builder ByteArray(String name, byte[] value) {
+        @Override
+        public TreeBuilder ByteArray(String name, byte[] value) {
             current.add(new ByteArrayTag(name, value));
             return this;
         }
 
-        public Builder ByteArray(byte[] value) {
+        @Override
+        public TreeBuilder ByteArray(byte[] value) {
             current.add(new ByteArrayTag(null, value));
             return this;
         }
 
-        public Builder String(String name, String value) {
+        @Override
+        public TreeBuilder String(String name, String value) {
             current.add(new StringTag(name, value));
             return this;
         }
 
-        public Builder String(String value) {
+        @Override
+        public TreeBuilder String(String value) {
             current.add(new StringTag(null, value));
             return this;
         }
 
-        public Builder List(String name, TagType type) {
+        @Override
+        public TreeBuilder List(String name, TagType type) {
             CollectionTag prev = current;
             current = new ListTag(name, type);
             current.parent = prev;
@@ -1221,7 +1329,13 @@ public class NBT {
             return this;
         }
 
-        public Builder List(TagType type) {
+        @Override
+        public TreeBuilder List(String name, TagType type, int size) {
+            return List(name, type);
+        }
+
+        @Override
+        public TreeBuilder List(TagType type) {
             CollectionTag prev = current;
             current = new ListTag(null, type);
             current.parent = prev;
@@ -1229,7 +1343,8 @@ public class NBT {
             return this;
         }
 
-        public Builder Compound(String name) {
+        @Override
+        public TreeBuilder Compound(String name) {
             CollectionTag prev = current;
             current = new CompoundTag(name);
             current.parent = prev;
@@ -1237,7 +1352,8 @@ public class NBT {
             return this;
         }
 
-        public Builder Compound() {
+        @Override
+        public TreeBuilder Compound() {
             CollectionTag prev = current;
             current = new CompoundTag();
             current.parent = prev;
@@ -1245,73 +1361,834 @@ public class NBT {
             return this;
         }
 
-        public Builder IntArray(String name, int[] value) {
+        @Override
+        public TreeBuilder IntArray(String name, int[] value) {
             current.add(new IntArrayTag(name, value));
             return this;
         }
 
-        public Builder IntArray(int[] value) {
+        @Override
+        public TreeBuilder IntArray(int[] value) {
             current.add(new IntArrayTag(null, value));
             return this;
         }
 
-        public Builder LongArray(String name, long[] value) {
+        @Override
+        public TreeBuilder LongArray(String name, long[] value) {
             current.add(new LongArrayTag(name, value));
             return this;
         }
 
-        public Builder LongArray(long[] value) {
+        @Override
+        public TreeBuilder LongArray(long[] value) {
             current.add(new LongArrayTag(null, value));
             return this;
         }
 
-        public Builder ShortArray(String name, short[] value) {
+        @Override
+        public TreeBuilder ShortArray(String name, short[] value) {
             current.add(new ShortArrayTag(name, value));
             return this;
         }
 
-        public Builder ShortArray(short[] value) {
+        @Override
+        public TreeBuilder ShortArray(short[] value) {
             current.add(new ShortArrayTag(null, value));
             return this;
         }
 
-        public Builder FloatArray(String name, float[] value) {
+        @Override
+        public TreeBuilder FloatArray(String name, float[] value) {
             current.add(new FloatArrayTag(name, value));
             return this;
         }
 
-        public Builder FloatArray(float[] value) {
+        @Override
+        public TreeBuilder FloatArray(float[] value) {
             current.add(new FloatArrayTag(null, value));
             return this;
         }
 
-        public Builder add(Tag tag) {
+        @Override
+        public TreeBuilder add(Tag tag) {
             current.add(tag);
             return this;
         }
 
-        public Builder End() {
-            current = current.parent;
-            return this;
+        @Override
+        public TreeBuilder End() {
+            current = current.parent;
+            return this;
+        }
+
+        public CompoundTag Get() {
+            while (current != null)
+                End();
+            return root;
+        }
+    }
+
+    /**
+     * Writes tags straight into the (compressed) output stream as they are added, instead of building a tag tree.
+     * Produces the same format as {@link NBT#write(OutputStream, CompoundTag, CompressionType)}.
+     * Lists need their size in front, so lists opened without one are buffered until their {@link #End()}.
+     * Write errors are kept and thrown by {@link #close()}, after the first one all further calls are ignored.
+     *
+     * @author Maximilian Stark | Dakror
+     */
+    public static class StreamBuilder extends Builder {
+        static class Frame {
+            TagType type;
+            TagType elementType;
+            int size, count;
+            DataOutputStream parentOutput;
+            ByteArrayOutputStream buffer;
+        }
+
+        protected final NBT writer = new NBT();
+        protected final OutputStream stream;
+
+        final Array<Frame> frames = new Array<>();
+        final Array<Frame> framePool = new Array<>();
+
+        IOException error;
+
+        public StreamBuilder(OutputStream os, CompressionType compression, String name) throws IOException {
+            stream = compress(os, compression);
+            writer.output = new DataOutputStream(stream);
+
+            writeHeader(TagType.Compound, name);
+            push(TagType.Compound, null, -1);
+        }
+
+        protected void writeHeader(TagType type, String name) throws IOException {
+            if (frames.size > 0) {
+                Frame f = frames.peek();
+                if (f.type == TagType.List) {
+                    if (f.elementType != type)
+                        throw new IOException("Invalid Tag Type! Expected \"" + f.elementType + "\", got \"" + type + "\"");
+                    f.count++;
+                    return;
+                }
+                if (name == null)
+                    throw new IOException("Compound Tag expects named tags, got no name");
+            }
+
+            writer.output.writeByte(type.value);
+            if (name != null) {
+                writer.output.writeShort(name.length());
+                writer.output.write(name.getBytes("UTF-8"));
+            }
+        }
+
+        protected void push(TagType type, TagType elementType, int size) throws IOException {
+            Frame f = framePool.size > 0 ? framePool.pop() : new Frame();
+            f.type = type;
+            f.elementType = elementType;
+            f.size = size;
+            f.count = 0;
+            f.parentOutput = (DataOutputStream) writer.output;
+            f.buffer = null;
+
+            if (type == TagType.List) {
+                if (size > -1) {
+                    writer.output.writeByte(elementType.value);
+                    writer.output.writeInt(size);
+                } else {
+                    f.buffer = new ByteArrayOutputStream();
+                    writer.output = new DataOutputStream(f.buffer);
+                }
+            }
+            frames.add(f);
+        }
+
+        protected void pop() throws IOException {
+            Frame f = frames.pop();
+            if (f.type == TagType.Compound) {
+                writer.output.writeByte(0);
+            } else if (f.buffer != null) {
+                writer.output = f.parentOutput;
+                writer.output.writeByte(f.elementType.value);
+                writer.output.writeInt(f.count);
+                f.buffer.writeTo(f.parentOutput);
+            } else if (f.count != f.size) {
+                throw new IOException("List expected " + f.size + " entries, got " + f.count);
+            }
+            f.buffer = null;
+            f.parentOutput = null;
+            framePool.add(f);
+        }
+
+        protected void failed(IOException e) {
+            if (error == null) error = e;
+        }
+
+        @Override
+        public Builder Byte(String name, byte value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.Byte, name);
+                writer.output.writeByte(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder Byte(byte value) {
+            return Byte(null, value);
+        }
+
+        @Override
+        public Builder Short(String name, short value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.Short, name);
+                writer.output.writeShort(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder Short(short value) {
+            return Short(null, value);
+        }
+
+        @Override
+        public Builder Int(String name, int value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.Int, name);
+                writer.output.writeInt(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder Int(int value) {
+            return Int(null, value);
+        }
+
+        @Override
+        public Builder Long(String name, long value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.Long, name);
+                writer.output.writeLong(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder Long(long value) {
+            return Long(null, value);
+        }
+
+        @Override
+        public Builder Float(String name, float value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.Float, name);
+                writer.output.writeFloat(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder Float(float value) {
+            return Float(null, value);
+        }
+
+        @Override
+        public Builder Double(String name, double value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.Double, name);
+                writer.output.writeDouble(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder Double(double value) {
+            return Double(null, value);
+        }
+
+        @Override
+        public Builder String(String name, String value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.String, name);
+                byte[] bytes = value.getBytes();
+                writer.output.writeShort(bytes.length);
+                writer.output.write(bytes);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder String(String value) {
+            return String(null, value);
+        }
+
+        @Override
+        public Builder ByteArray(String name, byte[] value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.ByteArray, name);
+                writer.writeArray(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder ByteArray(byte[] value) {
+            return ByteArray(null, value);
+        }
+
+        @Override
+        public Builder IntArray(String name, int[] value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.IntArray, name);
+                writer.writeArray(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder IntArray(int[] value) {
+            return IntArray(null, value);
+        }
+
+        @Override
+        public Builder LongArray(String name, long[] value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.LongArray, name);
+                writer.writeArray(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder LongArray(long[] value) {
+            return LongArray(null, value);
+        }
+
+        @Override
+        public Builder ShortArray(String name, short[] value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.ShortArray, name);
+                writer.writeArray(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder ShortArray(short[] value) {
+            return ShortArray(null, value);
+        }
+
+        @Override
+        public Builder FloatArray(String name, float[] value) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.FloatArray, name);
+                writer.writeArray(value);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder FloatArray(float[] value) {
+            return FloatArray(null, value);
+        }
+
+        @Override
+        public Builder List(String name, TagType type) {
+            return List(name, type, -1);
+        }
+
+        @Override
+        public Builder List(TagType type) {
+            return List(null, type, -1);
+        }
+
+        @Override
+        public Builder List(String name, TagType type, int size) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.List, name);
+                push(TagType.List, type, size);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder Compound(String name) {
+            if (error != null) return this;
+            try {
+                writeHeader(TagType.Compound, name);
+                push(TagType.Compound, null, -1);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder Compound() {
+            return Compound(null);
+        }
+
+        /**
+         * Writes the tag as is, it is not freed
+         */
+        @Override
+        public Builder add(Tag tag) {
+            if (error != null) return this;
+            try {
+                writeHeader(tag.type, tag.name);
+                writer.writeTag(tag, false);
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder End() {
+            if (error != null) return this;
+            try {
+                pop();
+            } catch (IOException e) {
+                failed(e);
+            }
+            return this;
+        }
+
+        /**
+         * Ends all open tags and closes the stream
+         * @throws IOException the first error that happened while writing
+         */
+        public void close() throws IOException {
+            try {
+                while (error == null && frames.size > 0)
+                    End();
+                if (error == null) stream.flush();
+            } finally {
+                writer.output = null;
+                stream.close();
+            }
+            if (error != null) throw error;
+        }
+    }
+
+    /**
+     * Pull reader that walks the tags of a (compressed) input stream one by one, without building a tag tree.
+     * Starts positioned on the root compound. {@link #enter()} steps into the current compound or list,
+     * {@link #next()} moves to its next entry and returns false once the collection is done.
+     * Values can be read with the typed getters, as a whole with {@link #readTag()}, or skipped by just calling {@link #next()} again.
+     *
+     * @author Maximilian Stark | Dakror
+     */
+    public static class StreamReader {
+        static class Frame {
+            // null for compounds
+            TagType elementType;
+            int remaining;
+        }
+
+        protected final NBT reader = new NBT();
+        protected final InputStream stream;
+
+        final Array<Frame> frames = new Array<>();
+        final Array<Frame> framePool = new Array<>();
+
+        TagType type;
+        String name;
+        boolean pending;
+
+        public StreamReader(InputStream is, CompressionType compression) throws IOException {
+            stream = decompress(is, compression);
+            reader.input = new DataInputStream(stream);
+
+            type = reverseTags[reader.input.readByte() & 0xff];
+            if (type != TagType.Compound)
+                throw new IOException("Invalid Tag Type! Expected \"Compound\", got \"" + type + "\"");
+            name = readName();
+            pending = true;
+        }
+
+        public TagType type() {
+            return type;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return the number of entries left in the list that was entered last
+         */
+        public int remaining() {
+            return frames.size > 0 ? frames.peek().remaining : 0;
+        }
+
+        public boolean next() throws IOException {
+            if (pending) skip();
+            if (frames.size == 0) return false;
+
+            Frame f = frames.peek();
+            if (f.elementType == null) {
+                byte t = reader.input.readByte();
+                if (t == 0) {
+                    framePool.add(frames.pop());
+                    return false;
+                }
+                type = reverseTags[t & 0xff];
+                name = readName();
+            } else {
+                if (f.remaining == 0) {
+                    framePool.add(frames.pop());
+                    return false;
+                }
+                f.remaining--;
+                type = f.elementType;
+                name = null;
+            }
+            pending = true;
+            return true;
+        }
+
+        public void enter() throws IOException {
+            if (!pending || (type != TagType.Compound && type != TagType.List))
+                throw new IOException("Can only enter compound or list tags, current is \"" + type + "\"");
+
+            Frame f = framePool.size > 0 ? framePool.pop() : new Frame();
+            if (type == TagType.List) {
+                f.elementType = reverseTags[reader.input.readByte() & 0xff];
+                f.remaining = reader.input.readInt();
+            } else {
+                f.elementType = null;
+                f.remaining = 0;
+            }
+            frames.add(f);
+            pending = false;
+        }
+
+        /**
+         * Reads the current value with all its children as a tag
+         */
+        public Tag readTag() throws IOException {
+            if (!pending) throw new IOException("No tag to read");
+            pending = false;
+            Tag t = reader.readPayload(type, null);
+            t.name = name;
+            return t;
+        }
+
+        public void skip() throws IOException {
+            if (!pending) return;
+            pending = false;
+            skipPayload(type);
+        }
+
+        protected void expect(TagType expected) throws IOException {
+            if (!pending || type != expected)
+                throw new IOException("Invalid Tag Type! Expected \"" + expected + "\", got \"" + (pending ? type : null) + "\"");
+            pending = false;
+        }
+
+        public byte Byte() throws IOException {
+            expect(TagType.Byte);
+            return reader.input.readByte();
+        }
+
+        public short Short() throws IOException {
+            expect(TagType.Short);
+            return reader.input.readShort();
+        }
+
+        public int Int() throws IOException {
+            expect(TagType.Int);
+            return reader.input.readInt();
+        }
+
+        public long Long() throws IOException {
+            expect(TagType.Long);
+            return reader.input.readLong();
+        }
+
+        public float Float() throws IOException {
+            expect(TagType.Float);
+            return reader.input.readFloat();
+        }
+
+        public double Double() throws IOException {
+            expect(TagType.Double);
+            return reader.input.readDouble();
+        }
+
+        public String String() throws IOException {
+            expect(TagType.String);
+            byte[] data = new byte[reader.input.readShort()];
+            reader.input.readFully(data);
+            return new String(data, "UTF-8");
+        }
+
+        public byte[] ByteArray() throws IOException {
+            expect(TagType.ByteArray);
+            ByteArrayTag t = reader.readPayload(TagType.ByteArray, ByteArrayTag.class);
+            byte[] data = t.data;
+            t.free();
+            return data;
+        }
+
+        public int[] IntArray() throws IOException {
+            expect(TagType.IntArray);
+            IntArrayTag t = reader.readPayload(TagType.IntArray, IntArrayTag.class);
+            int[] data = t.data;
+            t.free();
+            return data;
+        }
+
+        public long[] LongArray() throws IOException {
+            expect(TagType.LongArray);
+            LongArrayTag t = reader.readPayload(TagType.LongArray, LongArrayTag.class);
+            long[] data = t.data;
+            t.free();
+            return data;
+        }
+
+        public short[] ShortArray() throws IOException {
+            expect(TagType.ShortArray);
+            ShortArrayTag t = reader.readPayload(TagType.ShortArray, ShortArrayTag.class);
+            short[] data = t.data;
+            t.free();
+            return data;
+        }
+
+        public float[] FloatArray() throws IOException {
+            expect(TagType.FloatArray);
+            FloatArrayTag t = reader.readPayload(TagType.FloatArray, FloatArrayTag.class);
+            float[] data = t.data;
+            t.free();
+            return data;
+        }
+
+        public void close() throws IOException {
+            reader.input = null;
+            stream.close();
+        }
+
+        protected String readName() throws IOException {
+            byte[] data = new byte[reader.input.readShort()];
+            reader.input.readFully(data);
+            return new String(data, "UTF-8");
+        }
+
+        protected void skipPayload(TagType type) throws IOException {
+            switch (type) {
+                case End:
+                    break;
+                case Byte:
+                case Short:
+                case Int:
+                case Long:
+                case Float:
+                case Double:
+                    skipFully(type.width);
+                    break;
+                case String:
+                    skipFully(reader.input.readShort());
+                    break;
+                case ByteArray:
+                case IntArray:
+                case LongArray:
+                case ShortArray:
+                case FloatArray:
+                    skipFully(reader.input.readInt() * type.width);
+                    break;
+                case List:
+                    TagType elementType = reverseTags[reader.input.readByte() & 0xff];
+                    int length = reader.input.readInt();
+                    for (int i = 0; i < length; i++)
+                        skipPayload(elementType);
+                    break;
+                case Compound:
+                    while (true) {
+                        byte t = reader.input.readByte();
+                        if (t == 0) break;
+                        skipFully(reader.input.readShort());
+                        skipPayload(reverseTags[t & 0xff]);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown Tag Type: " + type);
+            }
+        }
+
+        protected void skipFully(int n) throws IOException {
+            while (n > 0) {
+                int skipped = reader.input.skipBytes(n);
+                if (skipped == 0) {
+                    // some streams refuse to skip, reading forces progress or ends with EOFException
+                    reader.input.readByte();
+                    skipped = 1;
+                }
+                n -= skipped;
+            }
+        }
+    }
+
+    //////////////////////////////////////////
+    //////////////////////////////////////////
+
+    // libGDX pools are not thread safe, so every thread pools its own tags. That way any number of codec instances can run in parallel
+    static final ThreadLocal<ObjectMap<Class<?>, Pool<?>>> pools = new ThreadLocal<ObjectMap<Class<?>, Pool<?>>>() {
+        @Override
+        protected ObjectMap<Class<?>, Pool<?>> initialValue() {
+            return new ObjectMap<>();
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    static <T> Pool<T> pool(Class<T> type) {
+        ObjectMap<Class<?>, Pool<?>> map = pools.get();
+        Pool<T> pool = (Pool<T>) map.get(type);
+        if (pool == null) {
+            pool = new ReflectionPool<>(type, 4, 100);
+            map.put(type, pool);
+        }
+        return pool;
+    }
+
+    static <T extends Tag> T obtain(Class<T> type) {
+        Pool<T> pool = pool(type);
+        T tag = pool.obtain();
+        tag.pool = pool;
+        return tag;
+    }
+
+    @SuppressWarnings("unchecked")
+    static void recycle(Tag tag) {
+        Pool<Tag> pool = (Pool<Tag>) pool(tag.getClass());
+        // tags obtained by another thread, e.g. while decoding on a worker, are left to the GC instead of
+        // piling up in this thread's pool while the other one keeps allocating
+        if (tag.pool == null || tag.pool == pool)
+            pool.free(tag);
+    }
+
+    // one codec per thread, so its buffers are reused from call to call
+    static final ThreadLocal<NBT> codecs = new ThreadLocal<NBT>() {
+        @Override
+        protected NBT initialValue() {
+            return new NBT();
+        }
+    };
+
+    // for the buffered stream layers and the chunks array payloads get converted in
+    static final int BUFFER_SIZE = 1 << 16;
+
+    protected DataInput input;
+    protected DataOutput output;
+    ByteBuffer scratch;
+
+    // created on the first read, then kept for all further reads of this codec
+    ReusableBufferedInputStream buffered;
+    DataInputStream bufferedInput;
+
+    protected NBT() {}
+
+    /**
+     * Buffered input that can be pointed at another stream, so a codec does not allocate a new buffer for each read
+     */
+    static class ReusableBufferedInputStream extends InputStream {
+        final byte[] buf;
+        int pos, count;
+        InputStream in;
+
+        ReusableBufferedInputStream(int size) {
+            buf = new byte[size];
+        }
+
+        void set(InputStream in) {
+            this.in = in;
+            pos = 0;
+            count = 0;
+        }
+
+        boolean fill() throws IOException {
+            int n = in.read(buf, 0, buf.length);
+            if (n <= 0) return false;
+            pos = 0;
+            count = n;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= count && !fill()) return -1;
+            return buf[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (pos >= count) {
+                // reads larger than the buffer go straight through
+                if (len >= buf.length) return in.read(b, off, len);
+                if (!fill()) return -1;
+            }
+            int n = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return count - pos + in.available();
         }
+    }
 
-        public CompoundTag Get() {
-            while (current != null)
-                End();
-            return root;
+    protected DataInput buffer(InputStream stream) {
+        if (buffered == null) {
+            buffered = new ReusableBufferedInputStream(BUFFER_SIZE);
+            bufferedInput = new DataInputStream(buffered);
         }
+        buffered.set(stream);
+        return bufferedInput;
     }
 
-    //////////////////////////////////////////
-    //////////////////////////////////////////
-
-    protected static final NBT nbt = new NBT();
-
-    protected DataInput input;
-    protected DataOutput output;
-
-    protected NBT() {}
-
     protected String readName() throws IOException {
         StringTag tag = readTag(TagType.String);
         return tag.data;
@@ -1327,48 +2204,48 @@ public class NBT {
         Tag tag = null;
         switch (type) {
             case End:
-                tag = Pools.obtain(EndTag.class);
+                tag = obtain(EndTag.class);
                 break;
             case Byte:
-                tag = Pools.obtain(ByteTag.class);
+                tag = obtain(ByteTag.class);
                 ((ByteTag) tag).data = input.readByte();
                 break;
             case Short:
-                tag = Pools.obtain(ShortTag.class);
+                tag = obtain(ShortTag.class);
                 ((ShortTag) tag).data = input.readShort();
                 break;
             case Int:
-                tag = Pools.obtain(IntTag.class);
+                tag = obtain(IntTag.class);
                 ((IntTag) tag).data = input.readInt();
                 break;
             case Long:
-                tag = Pools.obtain(LongTag.class);
+                tag = obtain(LongTag.class);
                 ((LongTag) tag).data = input.readLong();
                 break;
             case Float:
-                tag = Pools.obtain(FloatTag.class);
+                tag = obtain(FloatTag.class);
                 ((FloatTag) tag).data = input.readFloat();
                 break;
             case Double:
-                tag = Pools.obtain(DoubleTag.class);
+                tag = obtain(DoubleTag.class);
                 ((DoubleTag) tag).data = input.readDouble();
                 break;
             case ByteArray:
-                tag = Pools.obtain(ByteArrayTag.class);
+                tag = obtain(ByteArrayTag.class);
                 IntTag length7 = readTag(TagType.Int);
                 byte[] data7 = new byte[length7.data];
                 input.readFully(data7);
                 ((ByteArrayTag) tag).data = data7;
                 break;
             case String:
-                tag = Pools.obtain(StringTag.class);
+                tag = obtain(StringTag.class);
                 ShortTag length8 = readTag(TagType.Short);
                 byte[] data8 = new byte[length8.data];
                 input.readFully(data8);
                 ((StringTag) tag).data = new String(data8, "UTF-8");
                 break;
             case List:
-                tag = Pools.obtain(ListTag.class);
+                tag = obtain(ListTag.class);
                 ByteTag type9 = readTag(TagType.Byte);
                 IntTag length9 = readTag(TagType.Int);
                 TagType tagtype9 = TagType.values()[type9.data];
@@ -1377,7 +2254,7 @@ public class NBT {
                     ((ListTag) tag).add(readTag(tagtype9));
                 break;
             case Compound:
-                tag = Pools.obtain(CompoundTag.class);
+                tag = obtain(CompoundTag.class);
 
                 while (true) {
                     Tag t = readTag(true, null);
@@ -1388,40 +2265,24 @@ public class NBT {
                 }
                 break;
             case IntArray:
-                tag = Pools.obtain(IntArrayTag.class);
+                tag = obtain(IntArrayTag.class);
                 IntTag length11 = readTag(TagType.Int);
-                int[] data11 = new int[length11.data];
-                for (int i = 0; i < data11.length; i++) {
-                    data11[i] = input.readInt();
-                }
-                ((IntArrayTag) tag).data = data11;
+                ((IntArrayTag) tag).data = readIntArray(length11.data);
                 break;
             case LongArray:
-                tag = Pools.obtain(LongArrayTag.class);
+                tag = obtain(LongArrayTag.class);
                 IntTag length12 = readTag(TagType.Int);
-                long[] data12 = new long[length12.data];
-                for (int i = 0; i < data12.length; i++) {
-                    data12[i] = input.readLong();
-                }
-                ((LongArrayTag) tag).data = data12;
+                ((LongArrayTag) tag).data = readLongArray(length12.data);
                 break;
             case ShortArray:
-                tag = Pools.obtain(ShortArrayTag.class);
+                tag = obtain(ShortArrayTag.class);
                 IntTag length13 = readTag(TagType.Int);
-                short[] data13 = new short[length13.data];
-                for (int i = 0; i < data13.length; i++) {
-                    data13[i] = input.readShort();
-                }
-                ((ShortArrayTag) tag).data = data13;
+                ((ShortArrayTag) tag).data = readShortArray(length13.data);
                 break;
             case FloatArray:
-                tag = Pools.obtain(FloatArrayTag.class);
+                tag = obtain(FloatArrayTag.class);
                 IntTag length14 = readTag(TagType.Int);
-                float[] data14 = new float[length14.data];
-                for (int i = 0; i < data14.length; i++) {
-                    data14[i] = input.readFloat();
-                }
-                ((FloatArrayTag) tag).data = data14;
+                ((FloatArrayTag) tag).data = readFloatArray(length14.data);
                 break;
             default:
                 throw new IOException("Unknown Tag Type: " + type);
@@ -1445,197 +2306,454 @@ public class NBT {
         return tag;
     }
 
+    /**
+     * Read only view on an uncompressed NBT encoding, without building the tag tree.
+     * Compounds and lists only index their direct entries once they are first accessed, all values are read
+     * straight from the buffer. Meant for looking at a few tags of a large file.
+     * Getters behave like the ones of {@link CompoundTag}.
+     *
+     * @author Maximilian Stark | Dakror
+     */
     public static class LazyTagContainer {
-        public static class RawTag implements Poolable {
-            int position;
-            TagType type;
-            int size;
-            LazyTagContainer container;
+        public static class RawTag {
+            public final TagType type;
+            public final String name;
+            final LazyTagContainer container;
+            // start of the payload
+            final int position;
+
+            RawTag(LazyTagContainer container, TagType type, String name, int position) {
+                this.container = container;
+                this.type = type;
+                this.name = name;
+                this.position = position;
+            }
+
+            /**
+             * @return a read only view on the payload of an array tag, without its length
+             */
+            public ByteBuffer view() throws NBTException {
+                switch (type) {
+                    case ByteArray:
+                    case ShortArray:
+                    case IntArray:
+                    case LongArray:
+                    case FloatArray:
+                        break;
+                    default:
+                        throw new NBTException("Not an array tag: " + type);
+                }
+                return payload();
+            }
 
-            @Override
-            public void reset() {
-                position = 0;
-                size = 0;
-                type = null;
-                container = null;
+            ByteBuffer payload() {
+                ByteBuffer b = container.buf.duplicate();
+                b.position(position + 4);
+                b.limit(position + 4 + b.getInt(position) * type.width);
+                return b.slice().asReadOnlyBuffer();
+            }
+
+            public Object value() {
+                ByteBuffer buf = container.buf;
+                switch (type) {
+                    case Byte:
+                        return buf.get(position);
+                    case Short:
+                        return buf.getShort(position);
+                    case Int:
+                        return buf.getInt(position);
+                    case Long:
+                        return buf.getLong(position);
+                    case Float:
+                        return buf.getFloat(position);
+                    case Double:
+                        return buf.getDouble(position);
+                    case String:
+                        return container.readString(position);
+                    case ByteArray: {
+                        byte[] data = new byte[buf.getInt(position)];
+                        payload().get(data);
+                        return data;
+                    }
+                    case ShortArray: {
+                        short[] data = new short[buf.getInt(position)];
+                        payload().asShortBuffer().get(data);
+                        return data;
+                    }
+                    case IntArray: {
+                        int[] data = new int[buf.getInt(position)];
+                        payload().asIntBuffer().get(data);
+                        return data;
+                    }
+                    case LongArray: {
+                        long[] data = new long[buf.getInt(position)];
+                        payload().asLongBuffer().get(data);
+                        return data;
+                    }
+                    case FloatArray: {
+                        float[] data = new float[buf.getInt(position)];
+                        payload().asFloatBuffer().get(data);
+                        return data;
+                    }
+                    default:
+                        return this;
+                }
             }
         }
 
         public static class RawCompoundTag extends RawTag {
-            ObjectMap<String, RawTag> children = new ObjectMap<>();
+            // null until first accessed
+            ObjectMap<String, RawTag> children;
 
-            @Override
-            public void reset() {
-                children.clear();
+            RawCompoundTag(LazyTagContainer container, String name, int position) {
+                super(container, TagType.Compound, name, position);
+            }
+
+            public ObjectMap<String, RawTag> children() {
+                if (children == null) {
+                    ObjectMap<String, RawTag> map = new ObjectMap<>();
+                    ByteBuffer buf = container.buf;
+                    int pos = position;
+                    while (true) {
+                        TagType t = container.type(pos);
+                        if (t == TagType.End) break;
+
+                        int len = buf.getShort(pos + 1) & 0xffff;
+                        String n = container.readUtf8(pos + 3, len);
+                        pos += 3 + len;
+                        map.put(n, container.create(t, n, pos));
+                        pos = container.skip(t, pos);
+                    }
+                    children = map;
+                }
+                return children;
+            }
+
+            public boolean has(String name) {
+                return children().containsKey(name);
+            }
+
+            public RawTag get(String name) {
+                return children().get(name);
+            }
+
+            public RawTag get(String name, TagType type) {
+                RawTag tag = children().get(name);
+                if (tag == null || tag.type != type) return null;
+                return tag;
+            }
+
+            public RawTag getWithException(String name, TagType type) throws NBTException {
+                RawTag tag = children().get(name);
+                if (tag == null) throw new NBTException("No tag found with name \"" + name + "\"");
+                if (tag.type != type)
+                    throw new NBTException("Invalid tag type! Expected \"" + type + "\", got \"" + tag.type + "\"");
+                return tag;
+            }
+
+            /////////////////////////////////////////
+
+            public byte Byte(String name) throws NBTException {
+                return (Byte) getWithException(name, TagType.Byte).value();
+            }
+
+            public byte Byte(String name, byte defaultValue) {
+                RawTag tag = get(name, TagType.Byte);
+                return tag == null ? defaultValue : (Byte) tag.value();
+            }
+
+            public short Short(String name) throws NBTException {
+                return (Short) getWithException(name, TagType.Short).value();
+            }
+
+            public short Short(String name, short defaultValue) {
+                RawTag tag = get(name, TagType.Short);
+                return tag == null ? defaultValue : (Short) tag.value();
+            }
+
+            public int Int(String name) throws NBTException {
+                return (Integer) getWithException(name, TagType.Int).value();
+            }
+
+            public int Int(String name, int defaultValue) {
+                RawTag tag = get(name, TagType.Int);
+                return tag == null ? defaultValue : (Integer) tag.value();
+            }
+
+            public long Long(String name) throws NBTException {
+                return (Long) getWithException(name, TagType.Long).value();
+            }
+
+            public long Long(String name, long defaultValue) {
+                RawTag tag = get(name, TagType.Long);
+                return tag == null ? defaultValue : (Long) tag.value();
+            }
+
+            public float Float(String name) throws NBTException {
+                return (Float) getWithException(name, TagType.Float).value();
+            }
+
+            public float Float(String name, float defaultValue) {
+                RawTag tag = get(name, TagType.Float);
+                return tag == null ? defaultValue : (Float) tag.value();
+            }
+
+            public double Double(String name) throws NBTException {
+                return (Double) getWithException(name, TagType.Double).value();
+            }
+
+            public double Double(String name, double defaultValue) {
+                RawTag tag = get(name, TagType.Double);
+                return tag == null ? defaultValue : (Double) tag.value();
+            }
+
+            public String String(String name) throws NBTException {
+                return (String) getWithException(name, TagType.String).value();
+            }
+
+            public String String(String name, String defaultValue) {
+                RawTag tag = get(name, TagType.String);
+                return tag == null ? defaultValue : (String) tag.value();
+            }
+
+            public byte[] ByteArray(String name) throws NBTException {
+                return (byte[]) getWithException(name, TagType.ByteArray).value();
+            }
+
+            public byte[] ByteArray(String name, byte[] defaultValue) {
+                RawTag tag = get(name, TagType.ByteArray);
+                return tag == null ? defaultValue : (byte[]) tag.value();
+            }
+
+            public short[] ShortArray(String name) throws NBTException {
+                return (short[]) getWithException(name, TagType.ShortArray).value();
+            }
+
+            public int[] IntArray(String name) throws NBTException {
+                return (int[]) getWithException(name, TagType.IntArray).value();
+            }
+
+            public long[] LongArray(String name) throws NBTException {
+                return (long[]) getWithException(name, TagType.LongArray).value();
+            }
+
+            public float[] FloatArray(String name) throws NBTException {
+                return (float[]) getWithException(name, TagType.FloatArray).value();
+            }
+
+            public RawCompoundTag Compound(String name) throws NBTException {
+                return (RawCompoundTag) getWithException(name, TagType.Compound);
+            }
+
+            public RawListTag List(String name) throws NBTException {
+                return (RawListTag) getWithException(name, TagType.List);
+            }
+
+            public RawListTag List(String name, TagType elementType) throws NBTException {
+                RawListTag tag = List(name);
+                if (tag.elementType != elementType)
+                    throw new NBTException("Invalid element tag type! Expected \"" + elementType + "\", got \"" + tag.elementType + "\"");
+                return tag;
             }
-        }
 
-        public static class RawListTag extends RawTag {
             /**
-             * offsets for basic types, tags for compound & list
+             * Builds the regular tag tree of this compound
              */
-            Object[] children;
-            TagType childrenType;
+            public CompoundTag materialize() throws NBTException {
+                return (CompoundTag) container.materialize(this);
+            }
+        }
+
+        public static class RawListTag extends RawTag {
+            public final TagType elementType;
+            public final int size;
+            // null until first accessed
+            RawTag[] children;
+
+            RawListTag(LazyTagContainer container, String name, int position) {
+                super(container, TagType.List, name, position);
+                elementType = container.type(position);
+                size = container.buf.getInt(position + 1);
+            }
+
+            public RawTag get(int index) {
+                if (children == null) {
+                    RawTag[] tags = new RawTag[size];
+                    int pos = position + 5;
+                    for (int i = 0; i < size; i++) {
+                        tags[i] = container.create(elementType, null, pos);
+                        pos = container.skip(elementType, pos);
+                    }
+                    children = tags;
+                }
+                return children[index];
+            }
+
+            public RawCompoundTag Compound(int index) throws NBTException {
+                if (elementType != TagType.Compound)
+                    throw new NBTException("Invalid element tag type! Expected \"Compound\", got \"" + elementType + "\"");
+                return (RawCompoundTag) get(index);
+            }
 
-            @Override
-            public void reset() {
-                children = null;
-                childrenType = null;
+            public RawListTag List(int index) throws NBTException {
+                if (elementType != TagType.List)
+                    throw new NBTException("Invalid element tag type! Expected \"List\", got \"" + elementType + "\"");
+                return (RawListTag) get(index);
             }
         }
 
-        ByteBuffer buf;
+        final ByteBuffer buf;
 
         public final RawCompoundTag root;
         public final String rootName;
 
         public LazyTagContainer(byte[] data) throws IOException {
-            buf = ByteBuffer.wrap(data);
-
-            buf.position(0);
-            TagType type = reverseTags[buf.get()];
-            if (type == null || type != TagType.Compound) throw new IOException("Unknown Tag Type: " + type);
-
-            short len = buf.getShort();
-            byte[] str = new byte[len];
-            buf.get(str);
-            rootName = new String(str, "UTF-8");
-            root = readCompound();
-        }
-
-        private RawCompoundTag readCompound() throws IOException {
-            RawCompoundTag compound = Pools.obtain(RawCompoundTag.class);
-            compound.position = buf.position();
-            compound.container = this;
-            while (buf.position() < buf.capacity()) {
-                short len = buf.getShort();
-                byte[] str = new byte[len];
-                buf.get(str);
-                String name = new String(str, "UTF-8");
-                TagType type = reverseTags[buf.get()];
-                if (type == null) throw new IOException("Unknown Tag Type: " + type);
+            this(ByteBuffer.wrap(data));
+        }
 
-                switch (type) {
-                    case Byte:
-                    case Short:
-                    case Int:
-                    case Long:
-                    case Float:
-                    case Double: {
-                        RawTag tag = Pools.obtain(RawTag.class);
-                        tag.container = this;
-                        tag.position = buf.position();
-                        tag.type = type;
-                        buf.position(buf.position() + type.width);
-                        root.children.put(name, tag);
-                        break;
-                    }
-                    case String: {
-                        RawTag tag = Pools.obtain(RawTag.class);
-                        tag.container = this;
-                        tag.position = buf.position();
-                        tag.type = type;
-                        tag.size = buf.getShort();
-                        root.children.put(name, tag);
-                        buf.position(buf.position() + tag.size);
-                        break;
-                    }
-                    case ByteArray:
-                    case ShortArray:
-                    case IntArray:
-                    case LongArray:
-                    case FloatArray: {
-                        RawTag tag = Pools.obtain(RawTag.class);
-                        tag.container = this;
-                        tag.position = buf.position();
-                        tag.type = type;
-                        tag.size = buf.getInt();
-                        buf.position(buf.position() + tag.size * type.width);
-                        break;
-                    }
-                    case Compound:
-                        root.children.put(name, readCompound());
-                        break;
-                    case List: {
-                        root.children.put(name, readList());
-                        break;
-                    }
-                    case End:
-                    default:
-                        break;
-                }
+        public LazyTagContainer(ByteBuffer data) throws IOException {
+            buf = data.duplicate();
+            if (buf.capacity() < 3) throw new IOException("Not enough data for a root tag");
+
+            TagType type = reverseTags[buf.get(0) & 0xff];
+            if (type != TagType.Compound)
+                throw new IOException("Invalid Tag Type! Expected \"Compound\", got \"" + type + "\"");
+
+            int len = buf.getShort(1) & 0xffff;
+            rootName = readUtf8(3, len);
+            root = new RawCompoundTag(this, rootName, 3 + len);
+        }
+
+        TagType type(int position) {
+            TagType t = reverseTags[buf.get(position) & 0xff];
+            if (t == null) throw new IllegalStateException("Unknown Tag Type: " + buf.get(position));
+            return t;
+        }
+
+        RawTag create(TagType type, String name, int position) {
+            switch (type) {
+                case Compound:
+                    return new RawCompoundTag(this, name, position);
+                case List:
+                    return new RawListTag(this, name, position);
+                default:
+                    return new RawTag(this, type, name, position);
+            }
+        }
 
-                // end tag
-                if (buf.get(buf.position()) == 0) break;
+        /**
+         * @return the position after the payload of the given type
+         */
+        int skip(TagType type, int position) {
+            switch (type) {
+                case End:
+                    return position;
+                case String:
+                    return position + 2 + (buf.getShort(position) & 0xffff);
+                case ByteArray:
+                case ShortArray:
+                case IntArray:
+                case LongArray:
+                case FloatArray:
+                    return position + 4 + buf.getInt(position) * type.width;
+                case List: {
+                    TagType elementType = type(position);
+                    int size = buf.getInt(position + 1);
+                    position += 5;
+                    if (elementType.width > 0 && elementType.ordinal() <= TagType.Double.ordinal())
+                        return position + size * elementType.width;
+                    for (int i = 0; i < size; i++)
+                        position = skip(elementType, position);
+                    return position;
+                }
+                case Compound:
+                    while (true) {
+                        TagType t = type(position);
+                        if (t == TagType.End) return position + 1;
+                        position = skip(t, position + 3 + (buf.getShort(position + 1) & 0xffff));
+                    }
+                default:
+                    return position + type.width;
             }
+        }
 
-            return compound;
+        String readString(int position) {
+            return readUtf8(position + 2, buf.getShort(position) & 0xffff);
         }
 
-        private RawListTag readList() throws IOException {
-            RawListTag tag = Pools.obtain(RawListTag.class);
-            tag.container = this;
-            tag.childrenType = reverseTags[buf.get()];
+        String readUtf8(int position, int length) {
+            if (buf.hasArray())
+                return new String(buf.array(), buf.arrayOffset() + position, length, StandardCharsets.UTF_8);
 
-            int pos = buf.position();
-            switch (tag.childrenType) {
+            byte[] data = new byte[length];
+            ByteBuffer b = buf.duplicate();
+            b.position(position);
+            b.get(data);
+            return new String(data, StandardCharsets.UTF_8);
+        }
+
+        Tag materialize(RawTag raw) throws NBTException {
+            Tag tag;
+            switch (raw.type) {
                 case Byte:
+                    tag = new ByteTag(raw.name, (Byte) raw.value());
+                    break;
                 case Short:
+                    tag = new ShortTag(raw.name, (Short) raw.value());
+                    break;
                 case Int:
-                case Float:
+                    tag = new IntTag(raw.name, (Integer) raw.value());
+                    break;
                 case Long:
+                    tag = new LongTag(raw.name, (Long) raw.value());
+                    break;
+                case Float:
+                    tag = new FloatTag(raw.name, (Float) raw.value());
+                    break;
                 case Double:
-                    buf.position(pos + tag.children.length * tag.childrenType.width);
+                    tag = new DoubleTag(raw.name, (Double) raw.value());
+                    break;
+                case String:
+                    tag = new StringTag(raw.name, (String) raw.value());
                     break;
                 case ByteArray:
+                    tag = new ByteArrayTag(raw.name, (byte[]) raw.value());
+                    break;
                 case ShortArray:
+                    tag = new ShortArrayTag(raw.name, (short[]) raw.value());
+                    break;
                 case IntArray:
-                case FloatArray:
+                    tag = new IntArrayTag(raw.name, (int[]) raw.value());
+                    break;
                 case LongArray:
-                    tag.children = new Object[buf.getInt()];
-                    for (int i = 0; i < tag.children.length; i++) {
-                        int elems = buf.getInt();
-                        pos += elems * tag.childrenType.width;
-                        buf.position(pos);
-                        tag.size = elems;
-                        tag.children[i] = pos;
-                    }
+                    tag = new LongArrayTag(raw.name, (long[]) raw.value());
                     break;
-                case String:
-                    tag.children = new Object[buf.getInt()];
-                    for (int i = 0; i < tag.children.length; i++) {
-                        int elems = buf.getShort();
-                        pos += elems;
-                        buf.position(pos);
-                        tag.children[i] = pos;
-                    }
+                case FloatArray:
+                    tag = new FloatArrayTag(raw.name, (float[]) raw.value());
                     break;
-                case Compound: {
-                    tag.children = new Object[buf.getInt()];
-                    for (int i = 0; i < tag.children.length; i++) {
-                        tag.children[i] = readCompound();
-                    }
+                case List: {
+                    RawListTag list = (RawListTag) raw;
+                    ListTag t = new ListTag(raw.name, list.elementType);
+                    for (int i = 0; i < list.size; i++)
+                        t.add(materialize(list.get(i)));
+                    tag = t;
                     break;
                 }
-                case List: {
-                    tag.children = new Object[buf.getInt()];
-                    for (int i = 0; i < tag.children.length; i++) {
-                        tag.children[i] = readList();
-                    }
+                case Compound: {
+                    CompoundTag t = new CompoundTag(raw.name);
+                    for (RawTag c : ((RawCompoundTag) raw).children().values())
+                        t.add(materialize(c));
+                    tag = t;
                     break;
                 }
-                case End:
                 default:
-                    break;
+                    throw new NBTException("Unknown Tag Type: " + raw.type);
             }
-
             return tag;
         }
-
     }
 
     protected CompoundTag readFile(InputStream is, CompressionType compression) throws IOException {
-        Tag.idCounter = 0;
         InputStream stream = is;
         is.mark(Integer.MAX_VALUE);
         try {
@@ -1649,7 +2767,7 @@ public class NBT {
                 stream = new GZIPInputStream(is);
             }
 
-            input = new DataInputStream(stream);
+            input = buffer(stream);
             CompoundTag t = readTag(true, CompoundTag.class);
             return t;
         } catch (IOException e) {
@@ -1662,12 +2780,13 @@ public class NBT {
                 stream = new GZIPInputStream(is);
             }
 
-            input = new DataInputStream(stream);
+            input = buffer(stream);
             CompoundTag t = readTag(true, CompoundTag.class);
             return t;
         } finally {
+            input = null;
+            if (buffered != null) buffered.set(null);
             stream.close();
-            Tag.idCounter = 0;
         }
     }
 
@@ -1705,8 +2824,7 @@ public class NBT {
                 output.writeDouble(((DoubleTag) tag).data);
                 break;
             case ByteArray:
-                output.writeInt(((ByteArrayTag) tag).data.length);
-                output.write(((ByteArrayTag) tag).data);
+                writeArray(((ByteArrayTag) tag).data);
                 break;
             case String:
                 byte[] bytes = ((StringTag) tag).data.getBytes();
@@ -1728,32 +2846,155 @@ public class NBT {
                 output.writeByte(0);
                 break;
             case IntArray:
-                output.writeInt(((IntArrayTag) tag).data.length);
-                for (int i : ((IntArrayTag) tag).data)
-                    output.writeInt(i);
+                writeArray(((IntArrayTag) tag).data);
                 break;
             case LongArray:
-                output.writeInt(((LongArrayTag) tag).data.length);
-                for (long i : ((LongArrayTag) tag).data)
-                    output.writeLong(i);
+                writeArray(((LongArrayTag) tag).data);
                 break;
             case ShortArray:
-                output.writeInt(((ShortArrayTag) tag).data.length);
-                for (short i : ((ShortArrayTag) tag).data)
-                    output.writeShort(i);
+                writeArray(((ShortArrayTag) tag).data);
                 break;
             case FloatArray:
-                output.writeInt(((FloatArrayTag) tag).data.length);
-                for (float i : ((FloatArrayTag) tag).data)
-                    output.writeFloat(i);
+                writeArray(((FloatArrayTag) tag).data);
                 break;
             default:
                 throw new IOException("Unknown Tag Type: " + tag.type);
         }
     }
 
-    protected void writeFile(OutputStream os, CompoundTag data, CompressionType compression) throws IOException {
-        Tag.idCounter = 0;
+    protected void writeArray(byte[] data) throws IOException {
+        output.writeInt(data.length);
+        output.write(data);
+    }
+
+    protected void writeArray(int[] data) throws IOException {
+        output.writeInt(data.length);
+        for (int i = 0; i < data.length;) {
+            int n = Math.min(data.length - i, BUFFER_SIZE / 4);
+            ByteBuffer b = scratch(n * 4);
+            b.asIntBuffer().put(data, i, n);
+            output.write(b.array(), 0, n * 4);
+            i += n;
+        }
+    }
+
+    protected void writeArray(long[] data) throws IOException {
+        output.writeInt(data.length);
+        for (int i = 0; i < data.length;) {
+            int n = Math.min(data.length - i, BUFFER_SIZE / 8);
+            ByteBuffer b = scratch(n * 8);
+            b.asLongBuffer().put(data, i, n);
+            output.write(b.array(), 0, n * 8);
+            i += n;
+        }
+    }
+
+    protected void writeArray(short[] data) throws IOException {
+        output.writeInt(data.length);
+        for (int i = 0; i < data.length;) {
+            int n = Math.min(data.length - i, BUFFER_SIZE / 2);
+            ByteBuffer b = scratch(n * 2);
+            b.asShortBuffer().put(data, i, n);
+            output.write(b.array(), 0, n * 2);
+            i += n;
+        }
+    }
+
+    protected void writeArray(float[] data) throws IOException {
+        output.writeInt(data.length);
+        for (int i = 0; i < data.length;) {
+            int n = Math.min(data.length - i, BUFFER_SIZE / 4);
+            ByteBuffer b = scratch(n * 4);
+            // same as DataOutput#writeFloat, which collapses all NaNs into one, unlike FloatBuffer#put
+            IntBuffer ib = b.asIntBuffer();
+            for (int j = 0; j < n; j++)
+                ib.put(Float.floatToIntBits(data[i + j]));
+            output.write(b.array(), 0, n * 4);
+            i += n;
+        }
+    }
+
+    protected int[] readIntArray(int length) throws IOException {
+        int[] data = new int[length];
+        for (int i = 0; i < length;) {
+            int n = Math.min(length - i, BUFFER_SIZE / 4);
+            ByteBuffer b = scratch(n * 4);
+            input.readFully(b.array(), 0, n * 4);
+            b.asIntBuffer().get(data, i, n);
+            i += n;
+        }
+        return data;
+    }
+
+    protected long[] readLongArray(int length) throws IOException {
+        long[] data = new long[length];
+        for (int i = 0; i < length;) {
+            int n = Math.min(length - i, BUFFER_SIZE / 8);
+            ByteBuffer b = scratch(n * 8);
+            input.readFully(b.array(), 0, n * 8);
+            b.asLongBuffer().get(data, i, n);
+            i += n;
+        }
+        return data;
+    }
+
+    protected short[] readShortArray(int length) throws IOException {
+        short[] data = new short[length];
+        for (int i = 0; i < length;) {
+            int n = Math.min(length - i, BUFFER_SIZE / 2);
+            ByteBuffer b = scratch(n * 2);
+            input.readFully(b.array(), 0, n * 2);
+            b.asShortBuffer().get(data, i, n);
+            i += n;
+        }
+        return data;
+    }
+
+    protected float[] readFloatArray(int length) throws IOException {
+        float[] data = new float[length];
+        for (int i = 0; i < length;) {
+            int n = Math.min(length - i, BUFFER_SIZE / 4);
+            ByteBuffer b = scratch(n * 4);
+            input.readFully(b.array(), 0, n * 4);
+            b.asFloatBuffer().get(data, i, n);
+            i += n;
+        }
+        return data;
+    }
+
+    /**
+     * @return the reused buffer for converting array payloads, big endian like DataInput and DataOutput
+     */
+    protected ByteBuffer scratch(int bytes) {
+        if (scratch == null || scratch.capacity() < bytes)
+            scratch = ByteBuffer.allocate(Math.max(bytes, 256));
+        scratch.clear();
+        return scratch;
+    }
+
+    /**
+     * Falls back to gzip for old files, so the stream has to support mark and reset for {@link CompressionType#Fast}
+     */
+    protected static InputStream decompress(InputStream is, CompressionType compression) throws IOException {
+        if (compression == CompressionType.Fast) {
+            is.mark(1024);
+            try {
+                if (Gdx.app == null || Gdx.app.getType() == ApplicationType.Desktop)
+                    return new BufferedInputStream(new LZ4FrameInputStream(is), BUFFER_SIZE);
+                else
+                    return new BufferedInputStream(new LZ4FrameInputStream(is, IOUtils.getLZ4().safeDecompressor(),
+                            IOUtils.getXXHash().hash32()), BUFFER_SIZE);
+            } catch (IOException e) {
+                is.reset();
+                return new BufferedInputStream(new GZIPInputStream(is), BUFFER_SIZE);
+            }
+        } else if (compression == CompressionType.Small) {
+            return new BufferedInputStream(new GZIPInputStream(is), BUFFER_SIZE);
+        }
+        return is;
+    }
+
+    protected static OutputStream compress(OutputStream os, CompressionType compression) throws IOException {
         if (compression == CompressionType.Fast) {
             if (Gdx.app == null || Gdx.app.getType() == ApplicationType.Desktop)
                 os = new LZ4FrameOutputStream(os);
@@ -1762,21 +3003,28 @@ public class NBT {
                         IOUtils.getXXHash().hash32(), FLG.Bits.BLOCK_INDEPENDENCE);
         } else if (compression == CompressionType.Small) {
             os = new GZIPOutputStream(os);
+        } else {
+            return os;
         }
+        // the codec writes most values one by one
+        return new BufferedOutputStream(os, BUFFER_SIZE);
+    }
+
+    protected void writeFile(OutputStream os, CompoundTag data, CompressionType compression) throws IOException {
+        os = compress(os, compression);
 
         output = new DataOutputStream(os);
         writeTag(data, true);
         output = null;
         os.flush();
         os.close();
-        Tag.idCounter = 0;
     }
 
     //////////////////////////////////////////
     //////////////////////////////////////////
 
     public static CompoundTag read(InputStream is, CompressionType compression) throws IOException {
-        return nbt.readFile(is, compression);
+        return codecs.get().readFile(is, compression);
     }
 
     private static final Pattern textRegex = Pattern.compile("(?:([a-zA-Z]+)(?:\\(\"(\\w+)\"\\))?: ?(?:\\d+ entries of type ([a-zA-Z]+)|(.+)))|\\{|\\}");
@@ -1920,7 +3168,37 @@ public class NBT {
     }
 
     public static void write(OutputStream os, CompoundTag data, CompressionType compression) throws IOException {
-        nbt.writeFile(os, data, compression);
+        codecs.get().writeFile(os, data, compression);
+    }
+
+    /**
+     * Compresses data that was encoded uncompressed before, e.g. by a {@link StreamBuilder}, into the stream
+     */
+    public static void writeEncoded(OutputStream os, ByteArrayOutputStream encoded, CompressionType compression) throws IOException {
+        os = compress(os, compression);
+        encoded.writeTo(os);
+        os.flush();
+        os.close();
+    }
+
+    public static StreamBuilder stream(OutputStream os, CompressionType compression, String name) throws IOException {
+        return new StreamBuilder(os, compression, name);
+    }
+
+    public static StreamReader reader(InputStream is, CompressionType compression) throws IOException {
+        return new StreamReader(is, compression);
+    }
+
+    /**
+     * Decompresses the whole stream, but only gives a {@link LazyTagContainer} view on it instead of building the tag tree
+     */
+    public static LazyTagContainer lazy(InputStream is, CompressionType compression) throws IOException {
+        InputStream stream = decompress(is, compression);
+        try {
+            return new LazyTagContainer(StreamUtils.copyStreamToByteArray(stream));
+        } finally {
+            stream.close();
+        }
     }
 
     //////////////////////////////////////////
@@ -19,6 +19,7 @@ package de.dakror.quarry;
 import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import com.badlogic.gdx.Application;
@@ -82,6 +83,17 @@ public class Quarry extends GameBase implements PlatformInterface {
 
     public ExecutorService threadPool = Executors.newSingleThreadExecutor();//newCachedThreadPool();
 
+    // for cpu bound work that is split up, e.g. decoding saves. Tasks on it must not wait for each other
+    public final ExecutorService workerPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Worker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     public Quarry(PlatformInterface pi, boolean fullVersion, int versionNumber, String version, boolean desktop,
             boolean newAndroid, WindowMode mode) {
         super(mode, desktop, pi);
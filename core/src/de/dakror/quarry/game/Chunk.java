@@ -16,6 +16,8 @@
 
 package de.dakror.quarry.game;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
 
 import com.badlogic.gdx.Gdx;
@@ -39,9 +41,12 @@ import com.badlogic.gdx.utils.IntMap.Entry;
 import com.badlogic.gdx.utils.viewport.Viewport;
 
 import de.dakror.common.libgdx.PlatformInterface;
+import de.dakror.common.libgdx.io.NBT;
 import de.dakror.common.libgdx.io.NBT.Builder;
 import de.dakror.common.libgdx.io.NBT.CompoundTag;
+import de.dakror.common.libgdx.io.NBT.CompressionType;
 import de.dakror.common.libgdx.io.NBT.NBTException;
+import de.dakror.common.libgdx.io.NBT.StreamBuilder;
 import de.dakror.common.libgdx.io.NBT.Tag;
 import de.dakror.common.libgdx.io.NBT.TagType;
 import de.dakror.common.libgdx.render.DepthSpriter;
@@ -99,8 +104,23 @@ public class Chunk implements Disposable, FBOable, Savable {
     public boolean dirty;
     boolean dataSet, glSet;
 
+    // summary of the tiles, maintained by Layer.set
+    final int[] tileCounts = new int[TileType.values.length];
+    int tileMask;
+
+    // bumped whenever the saved state of the chunk may have changed
+    volatile int saveVersion;
+
+    // what the chunk looked like when it was last encoded for a save
+    int savedVersion = -1;
+    long savedHash;
+    int savedSize;
+
     IntMap<Structure<?>> spatial;
     Array<Structure<?>> structures;
+    // the structures that take part in the update, passive ones are simulated by someone else
+    Array<Structure<?>> updated;
+    boolean updatedDirty;
     Array<Conveyor> conveyors;
     IntMap<CopperCable> cables;
 
@@ -137,15 +157,35 @@ public class Chunk implements Disposable, FBOable, Savable {
             for (int i = 0; i < data.length; i++)
                 data[i] = val;
         }
+        recountTiles();
 
         spatial = new IntMap<>();
         structures = new Array<>(false, 100, Structure.class);
+        updated = new Array<>(false, 100, Structure.class);
         conveyors = new Array<>(false, 100, Conveyor.class);
         cables = new IntMap<>(100);
 
         dataSet = true;
     }
 
+    void recountTiles() {
+        for (int i = 0; i < tileCounts.length; i++)
+            tileCounts[i] = 0;
+        tileMask = 0;
+        for (short d : data) {
+            TileType t = Tile.tiles[(byte) (d & 0xff)];
+            if (t == null) continue;
+            tileCounts[t.ordinal()]++;
+            tileMask |= t.bit();
+        }
+    }
+
+    void changeTile(TileType from, TileType to) {
+        if (from != null && --tileCounts[from.ordinal()] == 0) tileMask &= ~from.bit();
+        tileCounts[to.ordinal()]++;
+        tileMask |= to.bit();
+    }
+
     public boolean isInit() {
         return dataSet;
     }
@@ -171,8 +211,21 @@ public class Chunk implements Disposable, FBOable, Savable {
 
         boolean hasWidth = dirtyBounds.getWidth() > 0;
 
+        // tiles and cables only change through building, but any running structure may change.
+        // building also turns the cables right next to it
+        if ((gameSpeed > 0 && structures.size > 0)
+                || (hasWidth && dirtyBounds.intersects(ax - 1, ay - 1, Const.CHUNK_SIZE + 2, Const.CHUNK_SIZE + 2)))
+            saveVersion++;
+
         synchronized (structLock) {
-            for (Structure<?> st : structures.items) {
+            if (updatedDirty) {
+                updated.clear();
+                for (Structure<?> st : structures)
+                    if (!st.isPassive()) updated.add(st);
+                updatedDirty = false;
+            }
+
+            for (Structure<?> st : updated.items) {
                 if (st == null) break;
                 if (hasWidth || st.getSchema().type != StructureType.Conveyor)
                     st.update(deltaTime, gameSpeed * st.getSpeedScale(), dirtyBounds);
@@ -530,6 +583,7 @@ public class Chunk implements Disposable, FBOable, Savable {
 
         CopperCable c = cables.remove(x * Const.CHUNK_SIZE + y);
         if (c != null) {
+            saveVersion++;
             c.onDestroy();
             layer.dirtyBounds.add(c, Flags.DESTRUCTION);
             return true;
@@ -550,6 +604,8 @@ public class Chunk implements Disposable, FBOable, Savable {
                         removeSpatial(q.x + i, q.y + j);
 
                 structures.removeValue(q, true);
+                updatedDirty = true;
+                saveVersion++;
 
                 // recalc bound box
                 maxX = ax + Const.CHUNK_SIZE;
@@ -564,10 +620,12 @@ public class Chunk implements Disposable, FBOable, Savable {
                 q.onDestroy();
                 layer.dirtyBounds.add(q, Flags.DESTRUCTION);
 
-                if (q instanceof StorageStructure)
+                if (q instanceof StorageStructure) {
                     layer.storages.removeValue((StorageStructure) q, true);
-                else if (q instanceof Conveyor)
+                    layer.storageDirectory.remove((StorageStructure) q);
+                } else if (q instanceof Conveyor) {
                     conveyors.removeValue((Conveyor) q, true);
+                }
 
                 if (q.getSchema().powerDocks > 0) {
                     if (q.getPowerNetwork() != null)
@@ -640,13 +698,18 @@ public class Chunk implements Disposable, FBOable, Savable {
                 maxY = Math.max(maxY, s.y + s.getHeight());
 
                 structures.add(s);
+                updatedDirty = true;
             }
 
             if (!(s instanceof CopperCable))
                 layer.setCollision(s, true);
+            saveVersion++;
 
             if (!fromLoading) {
-                layer.dirtyBounds.add(s, Flags.CONSTRUCTION);
+                if (layer.bulkPlacement) {
+                    layer.bulkBounds.add(s, Flags.CONSTRUCTION);
+                    if (s instanceof CopperCable) layer.bulkCables.add((CopperCable) s);
+                } else layer.dirtyBounds.add(s, Flags.CONSTRUCTION);
 
                 // notify dock spots in case they're tubes
                 for (Dock d : s.getDocks()) {
@@ -657,17 +720,22 @@ public class Chunk implements Disposable, FBOable, Savable {
             // quick access 
             if (s instanceof StorageStructure) {
                 layer.storages.add((StorageStructure) s);
+                layer.storageDirectory.add((StorageStructure) s);
             } else if (s instanceof Conveyor) {
                 conveyors.add((Conveyor) s);
             }
 
-            if (s.getSchema().powerDocks > 0) {
+            if (s.getSchema().powerDocks > 0 && layer.bulkPlacement && !fromLoading) {
+                // gets registered with the whole batch
+                layer.bulkPowerNodes.add(s);
+            } else if (s.getSchema().powerDocks > 0) {
                 PowerNetwork network = new PowerNetwork(Game.G.powerGrid);
                 Game.G.powerGrid.addNetwork(network);
                 network.addVertex(s);
             }
         }
 
+        layer.boosterIndex.onStructureAdded(s);
         s.onPlacement(fromLoading);
 
         return true;
@@ -711,28 +779,43 @@ public class Chunk implements Disposable, FBOable, Savable {
 
     @Override
     public void save(Builder b) {
+        b.Compound();
+        saveContent(b);
+        b.End();
+    }
+
+    /**
+     * Writes the chunk's tags into the compound that is currently open
+     */
+    public void saveContent(Builder b) {
         if (!dataSet) init();
 
         b
-                .Compound()
                 .Byte("x", (byte) x)
                 .Byte("y", (byte) y)
                 .ShortArray("data", data);
 
         synchronized (structLock) {
-            b.List("Structures", TagType.Compound);
+            b.List("Structures", TagType.Compound, structures.size);
             for (Structure<?> s : structures) {
                 s.save(b);
             }
             b.End();
-            b.List("Cables", TagType.Compound);
+            b.List("Cables", TagType.Compound, cables.size);
             for (CopperCable s : cables.values()) {
                 s.save(b);
             }
             b.End();
         }
+    }
 
-        b.End();
+    /**
+     * Encodes the chunk as a save record
+     */
+    public void encode(ByteArrayOutputStream out) throws IOException {
+        StreamBuilder b = NBT.stream(out, CompressionType.Uncompressed, "Chunk");
+        saveContent(b);
+        b.close();
     }
 
     public void postLoad() {
@@ -822,6 +905,7 @@ public class Chunk implements Disposable, FBOable, Savable {
         c.init();
         c.data = new short[Const.CHUNK_SIZE * Const.CHUNK_SIZE];
         System.arraycopy(tag.ShortArray("data"), 0, c.data, 0, c.data.length);
+        c.recountTiles();
 
         return c;
     }
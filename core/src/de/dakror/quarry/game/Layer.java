@@ -16,6 +16,7 @@
 
 package de.dakror.quarry.game;
 
+import java.io.IOException;
 import java.util.EnumSet;
 
 import com.badlogic.gdx.Gdx;
@@ -28,15 +29,20 @@ import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer.ShapeType;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntSet;
 import com.badlogic.gdx.utils.viewport.Viewport;
 
 import de.dakror.common.libgdx.ChangeNotifier.Event;
 import de.dakror.common.libgdx.ChangeNotifier.Listener;
 import de.dakror.common.libgdx.Pair;
 import de.dakror.common.libgdx.PlatformInterface;
+import de.dakror.common.libgdx.io.NBT;
 import de.dakror.common.libgdx.io.NBT.Builder;
 import de.dakror.common.libgdx.io.NBT.CompoundTag;
+import de.dakror.common.libgdx.io.NBT.ListTag;
 import de.dakror.common.libgdx.io.NBT.NBTException;
+import de.dakror.common.libgdx.io.NBT.StreamReader;
 import de.dakror.common.libgdx.io.NBT.Tag;
 import de.dakror.common.libgdx.io.NBT.TagType;
 import de.dakror.common.libgdx.render.DepthSpriter;
@@ -47,6 +53,7 @@ import de.dakror.quarry.game.Item.ItemType;
 import de.dakror.quarry.game.Tile.TileMeta;
 import de.dakror.quarry.game.Tile.TileType;
 import de.dakror.quarry.scenes.Game;
+import de.dakror.quarry.structure.BoosterIndex;
 import de.dakror.quarry.structure.base.Direction;
 import de.dakror.quarry.structure.base.Dock;
 import de.dakror.quarry.structure.base.Dock.DockType;
@@ -76,6 +83,8 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
 
     // fast access arrays
     public Array<StorageStructure> storages;
+    public final StorageDirectory storageDirectory = new StorageDirectory();
+    public final BoosterIndex boosterIndex = new BoosterIndex();
 
     public EnumSet<ItemType> minerals;
 
@@ -107,12 +116,32 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
 
     boolean initialized;
 
+    // empty stand-in while the real layer is still being loaded
+    boolean placeholder;
+
+    // tag and chunks of a decoded layer whose structures are not loaded yet, see #decode(int, CompoundTag)
+    CompoundTag decodedTag;
+    Array<Pair<Chunk, CompoundTag>> decodedChunks;
+
     public boolean fake;
 
     public final Bounds dirtyBounds = new Bounds();
     public final Bounds lastBounds = new Bounds();
     public final Bounds pendingBounds = new Bounds();
 
+    // set while a batch of structures is being placed, see #beginBulkPlacement()
+    boolean bulkPlacement;
+    final Bounds bulkBounds = new Bounds();
+    final Array<Structure<?>> bulkPowerNodes = new Array<>();
+    final Array<CopperCable> bulkCables = new Array<>();
+    // power nodes of finished batches, whose networks are joined in the next update
+    final Array<Structure<?>> pendingPowerNodes = new Array<>();
+    // version of the dirty bounds for which all cable facings in them are up to date already
+    int settledFacingsVersion = -1;
+    // worklist of settleCableFacings, by tile index
+    final IntArray cableQueue = new IntArray();
+    final IntSet cableQueued = new IntSet();
+
     public Layer(int index, int initialWidth, int initialHeight, TileType defaultTile, boolean initChunks, boolean initGL) {
         this.width = initialWidth;
         this.height = initialHeight;
@@ -258,6 +287,13 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
         synchronized (chunkLock) {
             for (Chunk c : chunks)
                 c.update(deltaTime, gameSpeed, dirtyBounds);
+
+            // cable ends are known now, the edges get added by the post update
+            if (pendingPowerNodes.size > 0) {
+                Game.G.powerGrid.mergeConnected(pendingPowerNodes);
+                pendingPowerNodes.clear();
+            }
+
             for (Chunk c : chunks)
                 c.postUpdate(dirtyBounds);
         }
@@ -495,6 +531,118 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
         return c.addStructure(s, false);
     }
 
+    /**
+     * Starts a batch of structure placements. Until {@link #endBulkPlacement()} is called,
+     * placed structures neither mark the layer dirty nor get registered in the power grid individually.
+     */
+    public void beginBulkPlacement() {
+        bulkPlacement = true;
+        bulkBounds.clear();
+        bulkPowerNodes.clear();
+        bulkCables.clear();
+    }
+
+    /**
+     * Ends a batch of structure placements, marking the whole affected region dirty at once.
+     * The cable facings in the region are settled right away, and the networks of the placed power nodes are joined
+     * in a single pass during the next update, once the cable ends are known.
+     */
+    public void endBulkPlacement() {
+        if (!bulkPlacement) return;
+        bulkPlacement = false;
+
+        // if other changes are pending, their cables still have to update themselves
+        boolean settled = dirtyBounds.getWidth() == 0 || areCableFacingsSettled();
+
+        if (!bulkBounds.isEmpty()) {
+            if (dirtyBounds.getWidth() == 0) {
+                int flags = dirtyBounds.getFlags();
+                dirtyBounds.set(bulkBounds);
+                dirtyBounds.addFlags(flags);
+            } else {
+                dirtyBounds.add(bulkBounds);
+            }
+            bulkBounds.clear();
+        }
+
+        if (bulkCables.size > 0 || bulkPowerNodes.size > 0) {
+            settleCableFacings(settled);
+            bulkCables.clear();
+        }
+
+        if (bulkPowerNodes.size > 0) {
+            Game.G.powerGrid.addIsolatedVertices(bulkPowerNodes);
+            pendingPowerNodes.addAll(bulkPowerNodes);
+            bulkPowerNodes.clear();
+        }
+    }
+
+    /**
+     * Updates the facings of the placed cables and the cables next to the placed cables and power nodes, and keeps
+     * following the changes to neighboring cables until none change anymore. The cable updates would spread this over
+     * several ticks otherwise
+     * @param settled whether the cables in the dirty region were settled before the batch, so the next update can skip
+     *            them
+     */
+    void settleCableFacings(boolean settled) {
+        cableQueue.clear();
+        cableQueued.clear();
+        for (CopperCable c : bulkCables) {
+            queueCable(c.x, c.y);
+            queueCableNeighbors(c.x, c.y, 1, 1);
+        }
+        for (Structure<?> s : bulkPowerNodes)
+            queueCableNeighbors(s.x, s.y, s.getWidth(), s.getHeight());
+
+        // cables can take turns undoing each other, so the worklist is bounded
+        int limit = cableQueue.size * 16;
+        for (int i = 0; i < cableQueue.size && i < limit; i++) {
+            int t = cableQueue.get(i);
+            cableQueued.remove(t);
+            int x = t / height, y = t % height;
+            CopperCable c = getCable(x, y);
+            if (c == null) continue;
+
+            int version = dirtyBounds.getVersion();
+            c.updateFacing(true);
+            // changed facings mark their cables dirty, the neighbors have to follow
+            if (dirtyBounds.getVersion() != version)
+                queueCableNeighbors(x, y, 1, 1);
+        }
+        cableQueue.clear();
+
+        if (settled)
+            settledFacingsVersion = dirtyBounds.getVersion();
+    }
+
+    private void queueCableNeighbors(int x, int y, int width, int height) {
+        for (int i = 0; i < width; i++) {
+            queueCable(x + i, y - 1);
+            queueCable(x + i, y + height);
+        }
+        for (int i = 0; i < height; i++) {
+            queueCable(x - 1, y + i);
+            queueCable(x + width, y + i);
+        }
+    }
+
+    private void queueCable(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return;
+        int t = x * height + y;
+        if (!cableQueued.contains(t) && getCable(x, y) != null) {
+            cableQueued.add(t);
+            cableQueue.add(t);
+        }
+    }
+
+    public boolean areCableFacingsSettled() {
+        return settledFacingsVersion == dirtyBounds.getVersion();
+    }
+
+    public boolean isBulkPlacement() {
+        return bulkPlacement;
+    }
+
     public boolean removeStructure(int x, int y) {
         Structure<?> s = getStructure(x, y);
         if (s == null) return false;
@@ -685,6 +833,29 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
         return Tile.tiles[(byte) (c.data[addr] & 0xff)];
     }
 
+    /**
+     * Adds up the tile types in the area into counts, by ordinal, under a single lock.
+     * Chunks that hold none of the tile types in mask are skipped without looking at their tiles.
+     */
+    public synchronized void countTiles(int x, int y, int width, int height, int mask, int[] counts) {
+        int x1 = Math.max(0, x), y1 = Math.max(0, y);
+        int x2 = Math.min(this.width, x + width), y2 = Math.min(this.height, y + height);
+
+        for (int cx = x1 / Const.CHUNK_SIZE; cx <= (x2 - 1) / Const.CHUNK_SIZE; cx++) {
+            for (int cy = y1 / Const.CHUNK_SIZE; cy <= (y2 - 1) / Const.CHUNK_SIZE; cy++) {
+                Chunk c = getChunk(cx * Const.CHUNK_SIZE, cy * Const.CHUNK_SIZE);
+                if (c == null || c.data == null || (c.tileMask & mask) == 0) continue;
+
+                for (int i = Math.max(x1, c.ax); i < Math.min(x2, c.ax + Const.CHUNK_SIZE); i++) {
+                    for (int j = Math.max(y1, c.ay); j < Math.min(y2, c.ay + Const.CHUNK_SIZE); j++) {
+                        TileType t = Tile.tiles[(byte) (c.data[(i - c.ax) * Const.CHUNK_SIZE + (j - c.ay)] & 0xff)];
+                        if (t != null) counts[t.ordinal()]++;
+                    }
+                }
+            }
+        }
+    }
+
     public synchronized int getMeta(int x, int y) {
         if (x < 0 || y < 0 || x >= width || y >= height) {
             return TileMeta.NO_META;
@@ -715,6 +886,7 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
             minerals.add(tile.itemDrop);
         }
 
+        c.changeTile(Tile.tiles[(byte) (c.data[addr] & 0xff)], tile);
         c.data[addr] = tile.value;
         byte meta = tile.meta;
         if ((tile.meta & Tile.TileMeta.ALT_TEX) == Tile.TileMeta.ALT_TEX && Math.random() >= 0.5) {
@@ -734,6 +906,7 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
         }
         c.data[addr] |= meta << 8;
 
+        c.saveVersion++;
         c.dirty = true;
         markSurroundingTilesAsDirty(x, y);
     }
@@ -750,6 +923,7 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
         int addr = (x - c.ax) * Const.CHUNK_SIZE + (y - c.ay);
 
         c.data[addr] |= metaFlag << 8;
+        c.saveVersion++;
         c.dirty = true;
         markSurroundingTilesAsDirty(x, y);
     }
@@ -766,6 +940,7 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
         int addr = (x - c.ax) * Const.CHUNK_SIZE + (y - c.ay);
 
         c.data[addr] &= ~(metaFlag << 8);
+        c.saveVersion++;
         c.dirty = true;
         markSurroundingTilesAsDirty(x, y);
     }
@@ -884,6 +1059,15 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
         Game.G.layerChangeNotifier.removeListener(this);
     }
 
+    /**
+     * Disposes this layer for good, as opposed to {@link #dispose()} which only frees the GPU resources of far
+     * away layers that keep being simulated
+     */
+    public void unload() {
+        storageDirectory.detach();
+        dispose();
+    }
+
     public int getIndex() {
         return index;
     }
@@ -899,14 +1083,11 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
 
     @Override
     public void save(Builder b) {
-        b.Compound()
-                .Byte("chunksW", (byte) chunksH)
-                .Int("width", width)
-                .Int("height", height)
-                .Byte("defaultTile", defaultTile.value);
+        b.Compound();
+        saveHeader(b);
 
         synchronized (chunkLock) {
-            b.List("Chunks", TagType.Compound);
+            b.List("Chunks", TagType.Compound, chunks.length);
             for (Chunk c : chunks) {
                 c.save(b);
             }
@@ -916,6 +1097,30 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
         b.End();
     }
 
+    protected void saveHeader(Builder b) {
+        b
+                .Byte("chunksW", (byte) chunksH)
+                .Int("width", width)
+                .Int("height", height)
+                .Byte("defaultTile", defaultTile.value);
+    }
+
+    /**
+     * Has to be called whenever {@link Structure#isPassive()} of a placed structure changes
+     */
+    public void onPassiveChanged(Structure<?> s) {
+        Chunk c = getChunk(s.x, s.y);
+        if (c != null) c.updatedDirty = true;
+    }
+
+    /**
+     * Marks the chunk of the structure as changed for the next save, for changes that happen outside of the simulation
+     */
+    public void markChanged(Structure<?> s) {
+        Chunk c = getChunk(s.x, s.y);
+        if (c != null) c.saveVersion++;
+    }
+
     public void postAllLayersLoad(boolean firstCycle) {
         // call post load to re-fetch references that structures might need
         synchronized (chunkLock) {
@@ -932,32 +1137,149 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
     }
 
     public static Layer load(int index, CompoundTag tag) throws NBTException {
+        Layer l = create(index, tag);
+
+        Array<Pair<Chunk, CompoundTag>> pairs = new Array<>();
+        for (Tag t : tag.List("Chunks", TagType.Compound).data)
+            l.loadChunk((CompoundTag) t, pairs);
+
+        l.analyzeMinerals();
+        l.loadStructures(pairs);
+        return l;
+    }
+
+    /**
+     * Loads the terrain of the layer and analyzes its minerals. That touches no global state, so it can run off the
+     * render thread. The layer keeps the tag, its structures are loaded by {@link #finishDecoding()} on the render thread
+     */
+    public static Layer decode(int index, CompoundTag tag) throws NBTException {
+        Layer l = create(index, tag);
+
+        Array<Pair<Chunk, CompoundTag>> pairs = new Array<>();
+        for (Tag t : tag.List("Chunks", TagType.Compound).data)
+            l.loadChunk((CompoundTag) t, pairs);
+
+        l.analyzeMinerals();
+        l.decodedTag = tag;
+        l.decodedChunks = pairs;
+        return l;
+    }
+
+    /**
+     * Loads the structures of a layer from {@link #decode(int, CompoundTag)} and frees its tag
+     */
+    public void finishDecoding() {
+        try {
+            loadStructures(decodedChunks);
+        } finally {
+            discardDecoded();
+        }
+    }
+
+    /**
+     * Frees the tag of a decoded layer that is not going to be finished
+     */
+    public void discardDecoded() {
+        if (decodedTag != null) {
+            decodedTag.free();
+            decodedTag = null;
+            decodedChunks = null;
+        }
+    }
+
+    /**
+     * Loads the layer the reader is positioned on, without decoding the whole layer tag up front. The structures need the
+     * terrain of all chunks, so the tags of every chunk are still held until the layer is finished loading
+     */
+    public static Layer load(int index, StreamReader r) throws IOException, NBTException {
+        r.enter();
+
+        CompoundTag header = new CompoundTag();
+        ListTag chunks = null;
+        Layer l = null;
+        Array<Pair<Chunk, CompoundTag>> pairs = new Array<>();
+
+        while (r.next()) {
+            if ("Chunks".equals(r.name())) {
+                if (header.has("chunksW") && header.has("width") && header.has("height") && header.has("defaultTile")) {
+                    l = create(index, header);
+                    r.enter();
+                    while (r.next())
+                        l.loadChunk((CompoundTag) r.readTag(), pairs);
+                } else {
+                    // older saves have no fixed tag order, so the chunks might come before the layer size
+                    chunks = (ListTag) r.readTag();
+                }
+            } else {
+                header.add(r.readTag());
+            }
+        }
+
+        if (l == null) {
+            l = create(index, header);
+            if (chunks != null) {
+                for (Tag t : chunks.data)
+                    l.loadChunk((CompoundTag) t, pairs);
+            }
+        }
+
+        l.analyzeMinerals();
+        l.loadStructures(pairs);
+
+        if (chunks != null) chunks.free();
+        else {
+            for (Pair<Chunk, CompoundTag> p : pairs)
+                p.getVal().free();
+        }
+        header.free();
+
+        return l;
+    }
+
+    /**
+     * Empty stand-in of the right size for a layer that is still being loaded
+     */
+    public static Layer placeholder(int index, CompoundTag header) throws NBTException {
+        Layer l = create(index, header);
+        l.initChunks();
+        l.placeholder = true;
+        return l;
+    }
+
+    public boolean isPlaceholder() {
+        return placeholder;
+    }
+
+    private static Layer create(int index, CompoundTag tag) throws NBTException {
         int chunksW = tag.Byte("chunksW");
         Layer l = new Layer(index, tag.Int("width"), tag.Int("height"), Tile.tiles[tag.Byte("defaultTile")], false, false);
         l.chunksH = chunksW;
         l.fromLoading = true;
+        return l;
+    }
 
-        Array<Pair<Chunk, CompoundTag>> pairs = new Array<>();
-
-        for (Tag t : tag.List("Chunks", TagType.Compound).data) {
-            try {
-                Chunk c = Chunk.load((CompoundTag) t, l);
-                l.chunks[c.x * chunksW + c.y] = c;
-                c.setFrameBuffer(Quarry.Q.chunkFBOs[c.x * chunksW + c.y]);
-                pairs.add(new Pair<>(c, (CompoundTag) t));
-            } catch (NBTException e) {
-                Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
-            }
+    private void loadChunk(CompoundTag tag, Array<Pair<Chunk, CompoundTag>> pairs) {
+        try {
+            Chunk c = Chunk.load(tag, this);
+            chunks[c.x * chunksH + c.y] = c;
+            c.setFrameBuffer(Quarry.Q.chunkFBOs[c.x * chunksH + c.y]);
+            pairs.add(new Pair<>(c, tag));
+        } catch (NBTException e) {
+            Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
         }
+    }
 
-        // analyze minerals
-        for (int i = 0; i < l.width; i++) {
-            for (int j = 0; j < l.height; j++) {
-                ItemType t = l.get(i, j).itemDrop;
+    private void analyzeMinerals() {
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                ItemType t = get(i, j).itemDrop;
                 if (t != null)
-                    l.minerals.add(t);
+                    minerals.add(t);
             }
         }
+    }
+
+    private void loadStructures(Array<Pair<Chunk, CompoundTag>> pairs) {
         // load structures after all chunks are loaded for terrain lookup and stuff
         for (Pair<Chunk, CompoundTag> p : pairs) {
             try {
@@ -968,10 +1290,8 @@ public class Layer implements Disposable, Savable, Listener<Layer> {
         }
 
         // call post load to re-fetch references that structures might need
-        for (Chunk c : l.chunks)
+        for (Chunk c : chunks)
             c.postLoad();
-
-        return l;
     }
 
     public boolean hasHoppersAttached(Structure<?> s) {
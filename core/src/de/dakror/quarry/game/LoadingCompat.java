@@ -38,6 +38,21 @@ public class LoadingCompat {
 
     private LoadingCompat() {}
 
+    /**
+     * @return whether there is an upgrade step for a save of the given build, which needs the whole tag tree
+     */
+    public boolean needsUpgrade(int build) {
+        for (int i = build + 1; i <= Quarry.Q.versionNumber; i++) {
+            try {
+                getClass().getMethod("version_" + i, CompoundTag.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                continue;
+            }
+        }
+        return false;
+    }
+
     public void upgrade(CompoundTag tag, int build) {
         for (int i = build + 1; i <= Quarry.Q.versionNumber; i++) {
             try {
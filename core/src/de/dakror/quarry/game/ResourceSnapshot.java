@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright 2019 Maximilian Stark | Dakror <mail@dakror.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.dakror.quarry.game;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import de.dakror.quarry.game.Item.ItemType;
+
+/**
+ * Copy of the global resources and the seen items, published once per tick.
+ * Can be read from anywhere without taking the resource lock. The game alternates between two snapshots, so one is only
+ * overwritten by the publish after the next. Don't hold on to it for longer than a tick.
+ *
+ * @author Maximilian Stark | Dakror
+ */
+public final class ResourceSnapshot {
+    public static final ResourceSnapshot EMPTY = new ResourceSnapshot();
+
+    public int version;
+
+    private final int[] amounts = new int[ItemType.values.length];
+    private final boolean[] seen = new boolean[ItemType.values.length];
+    private int seenVersion = -1;
+
+    /**
+     * Overwrites the snapshot, the seen items are only copied again if their version changed
+     */
+    public void set(int version, int[] amounts, Set<ItemType> seenResources, int seenVersion) {
+        this.version = version;
+        System.arraycopy(amounts, 0, this.amounts, 0, this.amounts.length);
+
+        if (seenVersion != this.seenVersion) {
+            this.seenVersion = seenVersion;
+            Arrays.fill(seen, false);
+            if (seenResources != null) {
+                for (ItemType t : seenResources)
+                    seen[t.ordinal()] = true;
+            }
+        }
+    }
+
+    public int get(ItemType item) {
+        return amounts[item.ordinal()];
+    }
+
+    public boolean hasSeen(ItemType item) {
+        return seen[item.ordinal()];
+    }
+}
@@ -0,0 +1,638 @@
+/*******************************************************************************
+ * Copyright 2019 Maximilian Stark | Dakror <mail@dakror.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.dakror.quarry.game;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+import de.dakror.common.libgdx.PlatformInterface;
+import de.dakror.common.libgdx.io.NBT;
+import de.dakror.common.libgdx.io.NBT.CompoundTag;
+import de.dakror.common.libgdx.io.NBT.CompressionType;
+import de.dakror.common.libgdx.io.NBT.IntArrayTag;
+import de.dakror.common.libgdx.io.NBT.IntTag;
+import de.dakror.common.libgdx.io.NBT.LazyTagContainer.RawCompoundTag;
+import de.dakror.common.libgdx.io.NBT.ListTag;
+import de.dakror.common.libgdx.io.NBT.NBTException;
+import de.dakror.common.libgdx.io.NBT.StreamBuilder;
+import de.dakror.common.libgdx.io.NBT.StreamReader;
+import de.dakror.common.libgdx.io.NBT.Tag;
+import de.dakror.common.libgdx.io.NBT.TagType;
+import de.dakror.common.libgdx.io.NBT.TreeBuilder;
+import de.dakror.quarry.Quarry;
+
+/**
+ * Save format that stores the top level tags, every layer header and every chunk as separately compressed records
+ * in an append only data file. The .qsf file of such a save only holds the index of these records.
+ * The data file is synced before the index is replaced atomically, so an interrupted save leaves the previous index
+ * and all of its records intact. The previous index is kept as the -old backup, and so is the data file it points to.
+ * Records whose encoding did not change since the last save are not written again. Once less than half of the data
+ * file is still referenced, the next save compacts everything into a new data file.
+ * Saves from before are plain NBT .qsf files and are still loaded as such.
+ * Layers can be read in any order, on desktop the data file is memory mapped for that.
+ * Records can be decoded in parallel, see {@link #readLayers(IntArray, ExecutorService, LayerConsumer)}.
+ *
+ * @author Maximilian Stark | Dakror
+ */
+public class SaveContainer {
+    // 2: offsets are longs, uncompressed sizes are stored next to the hashes
+    public static final byte VERSION = 2;
+    public static final String INDEX = "Index";
+
+    // compacting tiny data files is not worth it
+    static final int MIN_COMPACT_SIZE = 1 << 20;
+    // how many layers are decoded ahead of the one being consumed
+    static final int DECODE_AHEAD = 4;
+
+    public interface LayerConsumer {
+        void accept(int index, CompoundTag layer) throws Exception;
+    }
+
+    final CompoundTag index;
+    final RandomAccessFile data;
+    // null if not mapped
+    final ByteBuffer mapped;
+
+    SaveContainer(CompoundTag index, RandomAccessFile data, ByteBuffer mapped) {
+        this.index = index;
+        this.data = data;
+        this.mapped = mapped;
+    }
+
+    /**
+     * @return null if the save is in the old single file format
+     */
+    public static SaveContainer open(String file) throws IOException, NBTException {
+        CompoundTag index = readIndex(file);
+        if (index == null) return null;
+
+        FileHandle fh = dataFile(index.String("data", file), index.Int("generation"), false);
+        RandomAccessFile data = new RandomAccessFile(fh.file(), "r");
+        ByteBuffer mapped = null;
+        // a single mapping can not exceed 2 GB
+        if (Quarry.Q.desktop && data.length() <= Integer.MAX_VALUE) {
+            try {
+                mapped = data.getChannel().map(MapMode.READ_ONLY, 0, data.length());
+            } catch (IOException e) {
+                // reading through the file works just as well
+                Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
+            }
+        }
+        return new SaveContainer(index, data, mapped);
+    }
+
+    public int getLayerCount() throws NBTException {
+        return index.List("Layers", TagType.Compound).data.size;
+    }
+
+    /**
+     * @return the top level tags of the save, without the layers
+     */
+    public CompoundTag readGlobals() throws IOException, NBTException {
+        return readRecord(offset(index), index.Int("length"));
+    }
+
+    /**
+     * @return only the size and other top level tags of the layer, without its chunks
+     */
+    public CompoundTag readLayerHeader(int i) throws IOException, NBTException {
+        CompoundTag entry = (CompoundTag) index.List("Layers", TagType.Compound).data.get(i);
+        CompoundTag header = readRecord(offsets(entry)[0], entry.IntArray("lengths")[0]);
+        header.name = null;
+        return header;
+    }
+
+    /**
+     * @return a view on the top level tags, without decoding them
+     */
+    public RawCompoundTag viewGlobals() throws IOException, NBTException {
+        return NBT.lazy(new ByteArrayInputStream(readBytes(offset(index), index.Int("length"))), CompressionType.Fast).root;
+    }
+
+    /**
+     * @return the layer, in the same form as inside of an old save
+     */
+    public CompoundTag readLayer(int i) throws IOException, NBTException {
+        CompoundTag entry = (CompoundTag) index.List("Layers", TagType.Compound).data.get(i);
+        long[] offsets = offsets(entry);
+        int[] lengths = entry.IntArray("lengths");
+
+        CompoundTag layer = readLayerHeader(i);
+        ListTag chunks = new ListTag("Chunks", TagType.Compound);
+        for (int j = 1; j < offsets.length; j++) {
+            CompoundTag chunk = readRecord(offsets[j], lengths[j]);
+            chunk.name = null;
+            chunks.add(chunk);
+        }
+        layer.add(chunks);
+        return layer;
+    }
+
+    /**
+     * Decodes all records of the given layers on the pool, while handing the finished layers to the consumer
+     * on the calling thread, in the given order. Only a few layers are decoded ahead to keep the memory bounded.
+     * The consumer owns the tags it gets
+     */
+    public void readLayers(IntArray indices, ExecutorService pool, LayerConsumer consumer) throws Exception {
+        Array<Array<Future<CompoundTag>>> queue = new Array<>();
+        int submitted = 0;
+        try {
+            for (int i = 0; i < indices.size; i++) {
+                while (submitted < indices.size && submitted <= i + DECODE_AHEAD)
+                    queue.add(submitLayer(indices.get(submitted++), pool));
+
+                Array<Future<CompoundTag>> records = queue.first();
+                CompoundTag layer = records.get(0).get();
+                layer.name = null;
+                ListTag chunks = new ListTag("Chunks", TagType.Compound);
+                for (int j = 1; j < records.size; j++) {
+                    CompoundTag chunk = records.get(j).get();
+                    chunk.name = null;
+                    chunks.add(chunk);
+                }
+                layer.add(chunks);
+                queue.removeIndex(0);
+
+                consumer.accept(indices.get(i), layer);
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            // after a failure, the file must not be closed under the still running tasks
+            for (Array<Future<CompoundTag>> records : queue) {
+                for (Future<CompoundTag> f : records) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        // already failed
+                    }
+                }
+            }
+        }
+    }
+
+    Array<Future<CompoundTag>> submitLayer(int i, ExecutorService pool) throws NBTException {
+        CompoundTag entry = (CompoundTag) index.List("Layers", TagType.Compound).data.get(i);
+        long[] offsets = offsets(entry);
+        int[] lengths = entry.IntArray("lengths");
+
+        Array<Future<CompoundTag>> records = new Array<>(offsets.length);
+        for (int j = 0; j < offsets.length; j++) {
+            final long offset = offsets[j];
+            final int length = lengths[j];
+            records.add(pool.submit(new Callable<CompoundTag>() {
+                @Override
+                public CompoundTag call() throws Exception {
+                    return readRecord(offset, length);
+                }
+            }));
+        }
+        return records;
+    }
+
+    /**
+     * @return the whole save as one tag tree, as needed by {@link LoadingCompat}
+     */
+    public CompoundTag readTree() throws IOException, NBTException {
+        CompoundTag save = readGlobals();
+        ListTag map = new ListTag("Map", TagType.Compound);
+        for (int i = 0; i < getLayerCount(); i++)
+            map.add(readLayer(i));
+        save.add(map);
+        return save;
+    }
+
+    public void close() throws IOException {
+        data.close();
+        index.free();
+    }
+
+    CompoundTag readRecord(long offset, int length) throws IOException {
+        return NBT.read(new ByteArrayInputStream(readBytes(offset, length)), CompressionType.Fast);
+    }
+
+    byte[] readBytes(long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        if (mapped != null) {
+            ByteBuffer b = mapped.duplicate();
+            b.position((int) offset);
+            b.get(bytes);
+        } else {
+            synchronized (data) {
+                data.seek(offset);
+                data.readFully(bytes);
+            }
+        }
+        return bytes;
+    }
+
+    //////////////////////////////////////////////////////
+
+    /**
+     * Streams a save into the data file one layer at a time, so only the record of a single chunk is held in memory.
+     * Chunks that did not change since they were last encoded keep their previous record without being encoded again,
+     * all others are only appended if their encoding differs from the previous record.
+     * The meta data is swapped in after the records are on disk, and the index last. Has to be closed afterwards
+     *
+     * @author Maximilian Stark | Dakror
+     */
+    public static class Writer implements Closeable {
+        final String file;
+        CompoundTag old;
+        // per layer and record: offset, length, hash, size
+        final Array<long[][]> oldLayers = new Array<>();
+        // open while compacting, to copy the kept records over
+        RandomAccessFile oldData;
+        boolean compact;
+        int generation;
+
+        FileOutputStream fos;
+        OutputStream out;
+        long position;
+        int layer;
+
+        final TreeBuilder index = new TreeBuilder(INDEX);
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(4096);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(4096);
+        byte[] copy;
+
+        /**
+         * @param globals the top level tags of the save
+         */
+        public Writer(String file, ByteArrayOutputStream globals) throws IOException {
+            this.file = file;
+            try {
+                old = readIndex(file);
+                // a restored backup still points to the data of the save it was taken from
+                if (old != null && !file.equals(old.String("data", file))) {
+                    old.free();
+                    old = null;
+                }
+            } catch (Exception e) {
+                // broken or foreign index, start over
+                Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
+            }
+
+            try {
+                long[] oldGlobals = null;
+                FileHandle oldHandle = null;
+                long live = 0;
+
+                if (old != null) {
+                    generation = old.Int("generation");
+                    oldHandle = dataFile(file, generation, false);
+                    // indices without sizes never match, so all of their records get written again
+                    oldGlobals = new long[] { offset(old), old.Int("length"), old.Long("hash"), old.Int("size", -1) };
+                    live += oldGlobals[1];
+                    for (Tag t : old.List("Layers", TagType.Compound).data) {
+                        CompoundTag l = (CompoundTag) t;
+                        long[] offsets = offsets(l);
+                        int[] lengths = l.IntArray("lengths");
+                        long[] hashes = l.LongArray("hashes");
+                        int[] sizes = l.IntArray("sizes", null);
+                        long[][] records = new long[offsets.length][];
+                        for (int i = 0; i < offsets.length; i++) {
+                            records[i] = new long[] { offsets[i], lengths[i], hashes[i], sizes != null ? sizes[i] : -1 };
+                            live += lengths[i];
+                        }
+                        oldLayers.add(records);
+                    }
+                }
+
+                // the records are not known up front, so compact by how much of the old file the old index still uses
+                long oldSize = oldHandle != null && oldHandle.exists() ? oldHandle.length() : 0;
+                compact = oldHandle == null || !oldHandle.exists() || (oldSize >= MIN_COMPACT_SIZE && live < oldSize / 2);
+                if (compact) {
+                    if (oldHandle != null && oldHandle.exists()) {
+                        oldData = new RandomAccessFile(oldHandle.file(), "r");
+                    } else {
+                        // nothing to keep
+                        oldGlobals = null;
+                        oldLayers.clear();
+                    }
+                    if (old != null) generation++;
+                    oldSize = 0;
+                }
+
+                FileHandle dataHandle = dataFile(file, generation, true);
+                dataHandle.parent().mkdirs();
+                fos = new FileOutputStream(dataHandle.file(), !compact);
+                out = new BufferedOutputStream(fos, 1 << 16);
+                position = oldSize;
+
+                long[] g = put(globals, oldGlobals);
+                index
+                        .Byte("version", VERSION)
+                        .String("data", file)
+                        .Int("generation", generation)
+                        .Long("offset", g[0])
+                        .Int("length", (int) g[1])
+                        .Long("hash", g[2])
+                        .Int("size", (int) g[3])
+                        .List("Layers", TagType.Compound);
+            } catch (NBTException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Encodes and writes the next layer. The chunks are encoded one by one, each only under its own lock
+         */
+        public void layer(Layer l) throws IOException {
+            long[][] o = layer < oldLayers.size ? oldLayers.get(layer) : null;
+            layer++;
+
+            Chunk[] chunks;
+            synchronized (l.chunkLock) {
+                chunks = l.chunks;
+            }
+            if (o != null && o.length != chunks.length + 1) o = null;
+
+            long[] offsets = new long[chunks.length + 1];
+            int[] lengths = new int[chunks.length + 1];
+            int[] sizes = new int[chunks.length + 1];
+            long[] hashes = new long[chunks.length + 1];
+
+            record.reset();
+            StreamBuilder b = NBT.stream(record, CompressionType.Uncompressed, "Layer");
+            l.saveHeader(b);
+            b.close();
+            set(0, put(record, o != null ? o[0] : null), offsets, lengths, sizes, hashes);
+
+            for (int i = 0; i < chunks.length; i++) {
+                Chunk c = chunks[i];
+                long[] p = o != null ? o[i + 1] : null;
+                long[] r;
+                if (p != null && c.savedVersion == c.saveVersion && p[2] == c.savedHash && p[3] == c.savedSize) {
+                    r = keep(p);
+                } else {
+                    int version = c.saveVersion;
+                    record.reset();
+                    c.encode(record);
+                    r = put(record, p);
+                    c.savedVersion = version;
+                    c.savedHash = r[2];
+                    c.savedSize = (int) r[3];
+                }
+                set(i + 1, r, offsets, lengths, sizes, hashes);
+            }
+
+            index.Compound()
+                    .LongArray("offsets", offsets)
+                    .IntArray("lengths", lengths)
+                    .IntArray("sizes", sizes)
+                    .LongArray("hashes", hashes)
+                    .End();
+        }
+
+        /**
+         * Syncs the records to disk and swaps in the meta data and the index
+         * @param meta the meta data of the save, freed afterwards
+         */
+        public void finish(CompoundTag meta) throws IOException {
+            try {
+                index.End();
+                out.flush();
+                // the records have to be on disk before any index can point to them
+                fos.getFD().sync();
+                out.close();
+
+                writeAtomically("TheQuarry/saves/" + file + ".qmf", meta);
+
+                // swap the index in last, the previous one stays around as backup
+                FileHandle qsf = Quarry.Q.file("TheQuarry/saves/" + file + ".qsf", true);
+                if (qsf.exists())
+                    qsf.copyTo(Quarry.Q.file("TheQuarry/saves/" + file + "-old.qsf", true));
+                CompoundTag tag = index.Get();
+                try {
+                    writeAtomically("TheQuarry/saves/" + file + ".qsf", tag);
+                } finally {
+                    tag.free();
+                }
+            } finally {
+                meta.free();
+            }
+
+            // a mapped file can not be deleted on all platforms, so older leftovers are retried here as well
+            if (compact) {
+                close();
+                deleteData(file, generation);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (old != null) {
+                old.free();
+                old = null;
+            }
+            try {
+                if (out != null) out.close();
+            } finally {
+                if (oldData != null) oldData.close();
+            }
+        }
+
+        /**
+         * @return the previous record if the encoding matches it, otherwise the newly appended one
+         */
+        long[] put(ByteArrayOutputStream rec, long[] o) throws IOException {
+            long hash = hash(rec);
+            // a hash is only trusted together with the size
+            if (o != null && o[2] == hash && o[3] == rec.size())
+                return keep(o);
+
+            long[] r = new long[] { position, append(rec, compressed, out), hash, rec.size() };
+            position += r[1];
+            return r;
+        }
+
+        /**
+         * @return the previous record, copied over into the new data file when compacting
+         */
+        long[] keep(long[] o) throws IOException {
+            if (!compact) return o;
+
+            int length = (int) o[1];
+            if (copy == null || copy.length < length) copy = new byte[Math.max(length, 4096)];
+            oldData.seek(o[0]);
+            oldData.readFully(copy, 0, length);
+            out.write(copy, 0, length);
+
+            long[] r = new long[] { position, o[1], o[2], o[3] };
+            position += length;
+            return r;
+        }
+
+        static void set(int i, long[] r, long[] offsets, int[] lengths, int[] sizes, long[] hashes) {
+            offsets[i] = r[0];
+            lengths[i] = (int) r[1];
+            hashes[i] = r[2];
+            sizes[i] = (int) r[3];
+        }
+    }
+
+    /**
+     * Writes the tag to a temporary file, syncs it and atomically replaces the target with it
+     */
+    public static void writeAtomically(String path, CompoundTag tag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        NBT.write(bytes, tag, CompressionType.Fast);
+
+        FileHandle tmp = Quarry.Q.file(path + ".tmp", true);
+        FileOutputStream out = new FileOutputStream(tmp.file());
+        try {
+            bytes.writeTo(out);
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        replace(tmp.file(), Quarry.Q.file(path, true).file());
+    }
+
+    /**
+     * Renames src to dst in one step, replacing dst if it exists
+     */
+    static void replace(File src, File dst) throws IOException {
+        if (Quarry.Q.desktop) {
+            // renameTo fails on windows if the target exists
+            Files.move(src.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } else if (!src.renameTo(dst)) {
+            // java.nio.file needs API 26, but renameTo on android is a plain rename(2), which replaces atomically
+            throw new IOException("Could not replace " + dst);
+        }
+    }
+
+    /**
+     * Deletes the save including all of its data files
+     */
+    public static boolean delete(String file) {
+        deleteData(file, -1);
+        return Quarry.Q.file("TheQuarry/saves/" + file + ".qsf", false).delete();
+    }
+
+    /**
+     * Deletes all data files of the save except for the given generation and the one before, which the -old backup
+     * points to
+     */
+    static void deleteData(String file, int keep) {
+        for (FileHandle fh : Quarry.Q.file("TheQuarry/saves/", false).list(".qcd")) {
+            String name = fh.nameWithoutExtension();
+            if (!name.startsWith(file + "-") || !name.substring(file.length() + 1).matches("\\d+")) continue;
+            int generation = Integer.parseInt(name.substring(file.length() + 1));
+            if (generation != keep && generation != keep - 1)
+                fh.delete();
+        }
+    }
+
+    /**
+     * @return the index, or null if the save is in the old single file format
+     */
+    static CompoundTag readIndex(String file) throws IOException {
+        FileHandle fh = Quarry.Q.file("TheQuarry/saves/" + file + ".qsf", false);
+        if (!fh.exists()) return null;
+
+        // only the name of the root tag is needed to tell the formats apart
+        StreamReader r = NBT.reader(new BufferedInputStream(fh.read()), CompressionType.Fast);
+        try {
+            if (!INDEX.equals(r.name())) return null;
+            return (CompoundTag) r.readTag();
+        } finally {
+            r.close();
+        }
+    }
+
+    static FileHandle dataFile(String file, int generation, boolean write) {
+        return Quarry.Q.file("TheQuarry/saves/" + file + "-" + generation + ".qcd", write);
+    }
+
+    static int append(ByteArrayOutputStream record, ByteArrayOutputStream compressed, OutputStream out) throws IOException {
+        compressed.reset();
+        NBT.writeEncoded(compressed, record, CompressionType.Fast);
+        compressed.writeTo(out);
+        return compressed.size();
+    }
+
+    static long hash(ByteArrayOutputStream record) {
+        final CRC32 crc = new CRC32();
+        final Adler32 adler = new Adler32();
+        try {
+            // writeTo hands over the internal buffer, so the record is not copied
+            record.writeTo(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    crc.update(b);
+                    adler.update(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    crc.update(b, off, len);
+                    adler.update(b, off, len);
+                }
+            });
+        } catch (IOException e) {
+            // does not happen, nothing is written anywhere
+        }
+        return crc.getValue() << 32 | adler.getValue();
+    }
+
+    /**
+     * @return the offset of the globals, which indices of version 1 stored as int
+     */
+    static long offset(CompoundTag index) throws NBTException {
+        Tag t = index.getWithException("offset");
+        return t.type == TagType.Int ? ((IntTag) t).data : index.Long("offset");
+    }
+
+    /**
+     * @return the record offsets of a layer entry, which indices of version 1 stored as ints
+     */
+    static long[] offsets(CompoundTag entry) throws NBTException {
+        Tag t = entry.getWithException("offsets");
+        if (t.type != TagType.IntArray) return entry.LongArray("offsets");
+
+        int[] ints = ((IntArrayTag) t).data;
+        long[] offsets = new long[ints.length];
+        for (int i = 0; i < ints.length; i++)
+            offsets[i] = ints[i];
+        return offsets;
+    }
+}
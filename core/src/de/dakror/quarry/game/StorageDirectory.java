@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright 2019 Maximilian Stark | Dakror <mail@dakror.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.dakror.quarry.game;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.badlogic.gdx.utils.OrderedSet;
+
+import de.dakror.quarry.game.Item.ItemType;
+import de.dakror.quarry.scenes.Game;
+import de.dakror.quarry.structure.base.StorageStructure;
+import de.dakror.quarry.structure.base.StructureType;
+import de.dakror.quarry.structure.base.component.CInventory;
+import de.dakror.quarry.structure.base.component.CSingleInventory;
+
+/**
+ * Index of the storages of a layer by the items they hold and by free refund capacity,
+ * kept up to date through {@link StorageStructure#onInventoryChanged(ItemType, int, int)}.
+ * Global resource adds and removes only visit storages that can actually take part.
+ * Also sums up the contents of all storages, which make up the global resources while the layer is attached to the game.
+ *
+ * @author Maximilian Stark | Dakror
+ */
+public class StorageDirectory {
+    private final ObjectSet<StorageStructure> members = new ObjectSet<>();
+
+    // storages holding a non zero amount, by item ordinal
+    private final OrderedSet<StorageStructure>[] holders;
+
+    // refund storages with space left that take any item, so no barrels
+    private final OrderedSet<StorageStructure> freeRefund = new OrderedSet<>();
+
+    private final Array<StorageStructure> candidates = new Array<>();
+
+    // summed contents of all members, by item ordinal
+    private final int[] totals = new int[ItemType.values.length];
+
+    private boolean attached;
+
+    @SuppressWarnings("unchecked")
+    public StorageDirectory() {
+        holders = new OrderedSet[ItemType.values.length];
+    }
+
+    public void add(StorageStructure s) {
+        if (!members.add(s)) return;
+
+        Object inv = s.getComponents()[0];
+        if (inv instanceof CInventory) {
+            CInventory ci = (CInventory) inv;
+            for (int i = ci.nextItem(0); i != -1; i = ci.nextItem(i + 1)) {
+                getHolders(ItemType.values[i]).add(s);
+                count(ItemType.values[i], ci.get(ItemType.values[i]));
+            }
+        } else if (inv instanceof CSingleInventory) {
+            CSingleInventory ci = (CSingleInventory) inv;
+            if (ci.getItem() != null && ci.getCount() > 0) {
+                getHolders(ci.getItem()).add(s);
+                count(ci.getItem(), ci.getCount());
+            }
+        }
+
+        update(s);
+    }
+
+    public void remove(StorageStructure s) {
+        if (!members.remove(s)) return;
+
+        Object inv = s.getComponents()[0];
+        if (inv instanceof CInventory) {
+            CInventory ci = (CInventory) inv;
+            for (int i = ci.nextItem(0); i != -1; i = ci.nextItem(i + 1))
+                count(ItemType.values[i], -ci.get(ItemType.values[i]));
+        } else if (inv instanceof CSingleInventory) {
+            CSingleInventory ci = (CSingleInventory) inv;
+            if (ci.getItem() != null && ci.getCount() > 0)
+                count(ci.getItem(), -ci.getCount());
+        }
+
+        for (OrderedSet<StorageStructure> set : holders) {
+            if (set != null) set.remove(s);
+        }
+        freeRefund.remove(s);
+    }
+
+    public void clear() {
+        detach();
+        for (int i = 0; i < totals.length; i++)
+            totals[i] = 0;
+        members.clear();
+        for (OrderedSet<StorageStructure> set : holders) {
+            if (set != null) set.clear();
+        }
+        freeRefund.clear();
+    }
+
+    public void onChanged(StorageStructure s, ItemType item, int oldAmount, int newAmount) {
+        if (!members.contains(s)) return;
+
+        if (oldAmount <= 0 && newAmount > 0) getHolders(item).add(s);
+        else if (oldAmount > 0 && newAmount <= 0) getHolders(item).remove(s);
+
+        count(item, Math.max(0, newAmount) - Math.max(0, oldAmount));
+        update(s);
+    }
+
+    /**
+     * Starts reporting the contents of the storages to the global resources
+     */
+    public void attach() {
+        if (attached) return;
+        attached = true;
+        for (int i = 0; i < totals.length; i++) {
+            if (totals[i] != 0) Game.G.onStorageChanged(ItemType.values[i], totals[i]);
+        }
+    }
+
+    /**
+     * Takes the contents of the storages back out of the global resources
+     */
+    public void detach() {
+        if (!attached) return;
+        attached = false;
+        for (int i = 0; i < totals.length; i++) {
+            if (totals[i] != 0) Game.G.onStorageChanged(ItemType.values[i], -totals[i]);
+        }
+    }
+
+    public int getTotal(ItemType item) {
+        return totals[item.ordinal()];
+    }
+
+    /**
+     * Re-evaluates the refund state and free space of the storage
+     */
+    public void update(StorageStructure s) {
+        if (!members.contains(s)) return;
+
+        if (s.isRefundStorage() && s.getSchema().type != StructureType.Barrel && s.getSpace() > 0) freeRefund.add(s);
+        else freeRefund.remove(s);
+    }
+
+    /**
+     * Puts the amount into refund storages, preferring the ones already holding the item
+     *
+     * @return the amount that did not fit
+     */
+    public int add(ItemType item, int amount) {
+        candidates.clear();
+
+        OrderedSet<StorageStructure> set = holders[item.ordinal()];
+        if (set != null) {
+            for (StorageStructure s : set.orderedItems()) {
+                if (s.isRefundStorage() && s.getSpace() > 0) candidates.add(s);
+            }
+        }
+        for (StorageStructure s : freeRefund.orderedItems()) {
+            if (set == null || !set.contains(s)) candidates.add(s);
+        }
+
+        for (int i = 0; i < candidates.size && amount > 0; i++) {
+            amount = candidates.get(i).addToInventoryWithRest(item, amount);
+        }
+        candidates.clear();
+
+        return amount;
+    }
+
+    /**
+     * Takes the amount out of any storages holding the item
+     *
+     * @return the amount that could not be found
+     */
+    public int remove(ItemType item, int amount) {
+        OrderedSet<StorageStructure> set = holders[item.ordinal()];
+        if (set == null || set.size == 0) return amount;
+
+        candidates.clear();
+        candidates.addAll(set.orderedItems());
+
+        for (int i = 0; i < candidates.size && amount > 0; i++) {
+            amount = candidates.get(i).removeFromInventoryWithRest(item, amount);
+        }
+        candidates.clear();
+
+        return amount;
+    }
+
+    private void count(ItemType item, int delta) {
+        if (delta == 0) return;
+        totals[item.ordinal()] += delta;
+        if (attached) Game.G.onStorageChanged(item, delta);
+    }
+
+    private OrderedSet<StorageStructure> getHolders(ItemType item) {
+        OrderedSet<StorageStructure> set = holders[item.ordinal()];
+        if (set == null) {
+            set = new OrderedSet<>();
+            holders[item.ordinal()] = set;
+        }
+        return set;
+    }
+}
@@ -96,6 +96,12 @@ public class Tile {
             }
         }
 
+        /**
+         * @return the bit of this type in tile masks, see {@link Layer#countTiles(int, int, int, int, int, int[])}
+         */
+        public int bit() {
+            return 1 << ordinal();
+        }
     }
 
     public enum OreType {
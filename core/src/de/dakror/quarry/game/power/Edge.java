@@ -10,6 +10,9 @@ public class Edge {
     private int dockA, dockB;
     private NetworkStrength networkStrength;
 
+    // whether this edge is part of its network's minimum spanning tree
+    boolean spanning;
+
     protected Edge(Structure<?> a, int dockA, Structure<?> b, int dockB, NetworkStrength networkStrength) {
         this.a = a;
         this.b = b;
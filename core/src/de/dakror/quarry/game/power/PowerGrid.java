@@ -1,7 +1,13 @@
 package de.dakror.quarry.game.power;
 
+import java.io.IOException;
+import java.io.Writer;
+
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntIntMap;
+import com.badlogic.gdx.utils.ObjectSet;
 
+import de.dakror.quarry.structure.base.Dock;
 import de.dakror.quarry.structure.base.Structure;
 
 public class PowerGrid {
@@ -36,8 +42,98 @@ public class PowerGrid {
         clearHighPowerCache();
     }
 
+    /**
+     * Puts each vertex into its own network, clearing the high power cache only once
+     */
+    public void addIsolatedVertices(Array<Structure<?>> vertices) {
+        networks.ensureCapacity(vertices.size);
+        for (Structure<?> s : vertices) {
+            PowerNetwork network = new PowerNetwork(this);
+            networks.add(network);
+            network.addVertex(s);
+        }
+        clearHighPowerCache();
+    }
+
+    /**
+     * Joins the networks of freshly placed vertices in one connected components pass, instead of merging them one by
+     * one while their edges are found. Every component ends up in a single network, which is the network of an
+     * existing vertex it connects to, if any. Call once cables and power poles are up to date
+     */
+    public void mergeConnected(Array<Structure<?>> vertices) {
+        int n = vertices.size;
+        IntIntMap indices = new IntIntMap(n);
+        int[] parent = new int[n];
+        // any vertex outside of the batch that the component connects to
+        Structure<?>[] outside = new Structure<?>[n];
+        for (int i = 0; i < n; i++) {
+            indices.put(vertices.get(i).getIndex(), i);
+            parent[i] = i;
+        }
+
+        for (int i = 0; i < n; i++) {
+            Structure<?> node = vertices.get(i);
+            // destroyed again before the update
+            if (node.layer == null || node.getPowerNetwork() == null) continue;
+
+            for (Dock d : node.getDocks()) {
+                Structure<?> peer = PowerNetwork.findPeer(node, d);
+                if (peer == null || peer.getPowerNetwork() == null) continue;
+
+                int j = indices.get(peer.getIndex(), -1);
+                if (j != -1 && vertices.get(j) == peer) {
+                    int a = find(parent, i), b = find(parent, j);
+                    if (a == b) continue;
+                    parent[b] = a;
+                    if (outside[a] == null) outside[a] = outside[b];
+                    else if (outside[b] != null) mergeNetworks(outside[a].getPowerNetwork(), outside[b].getPowerNetwork());
+                } else {
+                    int a = find(parent, i);
+                    if (outside[a] == null) outside[a] = peer;
+                    else mergeNetworks(outside[a].getPowerNetwork(), peer.getPowerNetwork());
+                }
+            }
+        }
+
+        ObjectSet<PowerNetwork> dropped = new ObjectSet<>();
+        for (int i = 0; i < n; i++) {
+            Structure<?> node = vertices.get(i);
+            if (node.layer == null || node.getPowerNetwork() == null) continue;
+
+            int r = find(parent, i);
+            PowerNetwork target = outside[r] != null ? outside[r].getPowerNetwork() : vertices.get(r).getPowerNetwork();
+            PowerNetwork old = node.getPowerNetwork();
+            if (old == target) continue;
+
+            if (old.hasEdges()) {
+                mergeNetworks(target, old);
+            } else {
+                // the network of a single vertex, as created when it was placed
+                target.addVertex(node);
+                dropped.add(old);
+            }
+        }
+
+        if (dropped.size > 0) {
+            for (int i = networks.size - 1; i >= 0; i--) {
+                if (dropped.contains(networks.get(i))) {
+                    networks.removeIndex(i).freeMetrics();
+                }
+            }
+        }
+        clearHighPowerCache();
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
     public void removeNetwork(PowerNetwork network) {
-        networks.removeValue(network, true);
+        if (networks.removeValue(network, true)) network.freeMetrics();
         clearHighPowerCache();
     }
 
@@ -46,9 +142,11 @@ public class PowerGrid {
             return false;
         }
 
+        a.absorb(b);
+
         if (!b.hasEdges()) {
-            Structure<?> vert = b.getFirstVertex();
-            if (vert != null)
+            // usually a single vertex, but a batch of placed vertices shares one network until its edges are found
+            for (Structure<?> vert : b.getAllVertices())
                 a.addVertex(vert);
         }
 
@@ -61,6 +159,14 @@ public class PowerGrid {
         return true;
     }
 
+    public void writeTelemetryCsv(Writer w) throws IOException {
+        PowerTelemetry.writeCsvHeader(w);
+        for (PowerNetwork n : networks) {
+            if (n.getTelemetry() != null)
+                n.getTelemetry().writeCsv(w, n.getId());
+        }
+    }
+
     @Override
     public String toString() {
         return networks.toString();
@@ -4,10 +4,10 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Set;
-import java.util.TreeSet;
 
-import com.badlogic.gdx.math.WindowedMean;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntIntMap;
 import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.IntSet;
 import com.badlogic.gdx.utils.OrderedSet;
@@ -19,6 +19,7 @@ import de.dakror.quarry.structure.power.CopperCable;
 import de.dakror.quarry.structure.power.PowerPole;
 import de.dakror.quarry.structure.power.PowerPoleGhost;
 import de.dakror.quarry.structure.power.Substation;
+import de.dakror.quarry.util.MetricsArena;
 
 public class PowerNetwork {
     public static enum NetworkStrength {
@@ -57,9 +58,13 @@ public class PowerNetwork {
 
     private boolean hadEdgeDeletion;
 
-    private final WindowedMean inTickMean = new WindowedMean(60);
-    private final WindowedMean outTickMean = new WindowedMean(60);
-    private final WindowedMean timeTickMean = new WindowedMean(60);
+    private int inTickMetric = -1;
+    private int outTickMetric = -1;
+    private int timeTickMetric = -1;
+
+    // only allocated once the network has any connections, 
+    // as every unconnected structure lives in its own network
+    private PowerTelemetry telemetry;
 
     double inTick, outTick;
 
@@ -71,8 +76,29 @@ public class PowerNetwork {
 
     final IntSet dfsScratch = new IntSet();
 
-    Array<Edge> minimumSpanningTree = new Array<Edge>();
-    boolean minimumSpanningTreeDirty = true;
+    static final Comparator<Edge> MST_EDGE_COMPARATOR = new Comparator<Edge>() {
+        @Override
+        public int compare(Edge o1, Edge o2) {
+            int costA = getMSTCost(o1);
+            int costB = getMSTCost(o2);
+            if (costA - costB == 0) return o1.getA().getIndex() - o2.getA().getIndex();
+            return costA - costB;
+        }
+    };
+
+    // maintained incrementally on edge insertion and removal.
+    // only rebuilt from scratch if an edge got rewired in place
+    final Array<Edge> minimumSpanningTree = new Array<Edge>();
+    boolean minimumSpanningTreeDirty;
+
+    // union find over vertex indices of the spanning tree.
+    // stale after a tree edge has been removed, as union find can't split
+    final IntIntMap mstParent = new IntIntMap();
+    boolean mstParentStale;
+
+    final IntMap<Edge> mstPathScratch = new IntMap<>();
+    final IntArray mstStackScratch = new IntArray();
+    final Array<Edge> mstSortScratch = new Array<>();
 
     public PowerNetwork(PowerGrid grid) {
         this.grid = grid;
@@ -157,7 +183,6 @@ public class PowerNetwork {
         }
 
         node.setPowerNetwork(this);
-        minimumSpanningTreeDirty = true;
         return true;
     }
 
@@ -199,6 +224,8 @@ public class PowerNetwork {
                 grid.clearHighPowerCache();
             }
 
+            addToMinimumSpanningTree(e);
+
             return e;
         }
 
@@ -377,14 +404,32 @@ public class PowerNetwork {
 
         if (gameSpeed == 0) return;
 
-        timeTickMean.addValue((float) deltaTime);
+        timeTickMetric = MetricsArena.TIME.add(timeTickMetric, (float) deltaTime);
+
+        if (telemetry == null && hasEdges()) {
+            telemetry = new PowerTelemetry();
+        }
+
+        double headroom = 0;
+        if (telemetry != null) {
+            headroom = getConsumerHeadroom();
+        }
 
         if (accumulatedOfferedPower > 0)
             distributeOfferedLowPower(deltaTime, gameSpeed);
         distributeStoredPower(deltaTime, gameSpeed);
 
-        inTickMean.addValue((float) inTick);
-        outTickMean.addValue((float) outTick);
+        if (telemetry != null) {
+            double stored = 0;
+            for (Structure<?> d : donorVertices) {
+                stored += d.getPowerLevel();
+            }
+            // outTick is exactly what the consumers took, so the shortfall needs no second pass over them
+            telemetry.record(deltaTime, inTick, headroom, stored, Math.max(0, headroom - outTick));
+        }
+
+        inTickMetric = MetricsArena.POWER.add(inTickMetric, (float) inTick);
+        outTickMetric = MetricsArena.POWER.add(outTickMetric, (float) outTick);
         inTick = 0;
         outTick = 0;
     }
@@ -521,6 +566,9 @@ public class PowerNetwork {
 
             Set<Structure<?>> verticesToRemove = new HashSet<>();
 
+            // cheaper to rebuild the tree once than to repair it for every removed edge
+            minimumSpanningTreeDirty = true;
+
             for (IntMap.Entry<Edge[]> o : edges.entries()) {
                 // this vertex is not in the connected component
                 if (!set.contains(o.key)) {
@@ -541,6 +589,10 @@ public class PowerNetwork {
                 removeVertex(s, false);
             }
 
+            // both parts share the history up to the split
+            if (telemetry != null)
+                net.telemetry = telemetry.copy();
+
             grid.addNetwork(net);
         }
     }
@@ -557,11 +609,13 @@ public class PowerNetwork {
             existingEdge.setDockA(nodeDockIndex);
             existingEdge.setDockB(targetDockIndex);
             addVertex(target);
+            minimumSpanningTreeDirty = true;
         } else if (existingEdge.getB() == node && target != existingEdge.getA()) {
             existingEdge.setA(target);
             existingEdge.setDockA(targetDockIndex);
             existingEdge.setDockB(nodeDockIndex);
             addVertex(target);
+            minimumSpanningTreeDirty = true;
         }
     }
 
@@ -648,6 +702,41 @@ public class PowerNetwork {
         }
     }
 
+    /**
+     * Looks up the structure the cable or power poles at the dock lead to, like {@link #updateConnections(Structure)}
+     * does, but without changing any edges
+     * @return null if the dock does not lead to another structure
+     */
+    public static Structure<?> findPeer(Structure<?> node, Dock d) {
+        if (d.type == DockType.Power) {
+            CopperCable c = node.layer.getCable(node.x + d.x + d.dir.dx, node.y + d.y + d.dir.dy);
+            if (c == null || c.getStructures()[d.dir.inv().ordinal()] != node) return null;
+
+            CopperCable endA = c.walkToEnd();
+            CopperCable endB = endA.walkToEnd();
+            CopperCable other;
+            if (endA == c) other = endB;
+            else if (endB == c) other = endA;
+            else return null;
+
+            for (Structure<?> s : other.getStructures()) {
+                if (s == null || s instanceof CopperCable || s == node) continue;
+                for (Dock d1 : s.getDocks()) {
+                    if (d1.type == DockType.Power && s.x + d1.x + d1.dir.dx == other.x && s.y + d1.y + d1.dir.dy == other.y)
+                        return s;
+                }
+            }
+        } else if (d.type == DockType.BigPower) {
+            Structure<?> ghost = node.layer.getStructure(node.x + d.x + d.dir.dx, node.y + d.y + d.dir.dy);
+            if (ghost instanceof PowerPoleGhost) {
+                PowerPole end = ((PowerPoleGhost) ghost).getPowerPole().walkToEnd();
+                if (end.getA() != null && !(end.getA() instanceof PowerPole) && end.getA() != node) return end.getA();
+                if (end.getB() != null && !(end.getB() instanceof PowerPole) && end.getB() != node) return end.getB();
+            }
+        }
+        return null;
+    }
+
     private boolean isArrayNull(Object[] o) {
         for (Object i : o)
             if (i != null) return false;
@@ -680,6 +769,8 @@ public class PowerNetwork {
                 grid.clearHighPowerCache();
             }
 
+            removeFromMinimumSpanningTree(e);
+
             if (createIslandNetworks) {
                 // split up isolated nodes into separate network
                 if (hasVertex(e.getA()) && isArrayNull(edgesOfA)) {
@@ -697,7 +788,6 @@ public class PowerNetwork {
             }
 
             hadEdgeDeletion = true;
-            minimumSpanningTreeDirty = true;
 
             return true;
         }
@@ -706,15 +796,57 @@ public class PowerNetwork {
     }
 
     public float getMeanInPerSecond() {
-        return inTickMean.getMean() / timeTickMean.getMean();
+        return MetricsArena.POWER.getMean(inTickMetric) / MetricsArena.TIME.getMean(timeTickMetric);
     }
 
     public float getTimeTickMean() {
-        return timeTickMean.getMean();
+        return MetricsArena.TIME.getMean(timeTickMetric);
     }
 
     public float getMeanOutPerSecond() {
-        return outTickMean.getMean() / timeTickMean.getMean();
+        return MetricsArena.POWER.getMean(outTickMetric) / MetricsArena.TIME.getMean(timeTickMetric);
+    }
+
+    public void freeMetrics() {
+        MetricsArena.POWER.free(inTickMetric);
+        MetricsArena.POWER.free(outTickMetric);
+        MetricsArena.TIME.free(timeTickMetric);
+        inTickMetric = outTickMetric = timeTickMetric = -1;
+    }
+
+    private double getConsumerHeadroom() {
+        double headroom = 0;
+        for (Structure<?> r : receiverVertices) {
+            if (r instanceof Substation) continue;
+            headroom += Math.max(0, r.getPowerCapacity() - r.getPowerLevel());
+        }
+        return headroom;
+    }
+
+    /**
+     * Takes over the history of a network that is about to be merged into this one,
+     * and its id if it is the larger one, so the history of a base survives connecting new structures
+     */
+    void absorb(PowerNetwork other) {
+        if (other.telemetry != null) {
+            if (telemetry == null) telemetry = other.telemetry;
+            else telemetry.merge(other.telemetry);
+            other.telemetry = null;
+        }
+
+        if (other.allVertices.size > allVertices.size)
+            id = other.id;
+    }
+
+    /**
+     * @return the power history of this network, or null if it never had any connections
+     */
+    public PowerTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    public int getId() {
+        return id;
     }
 
     public void addOutTick(double amount) {
@@ -725,70 +857,176 @@ public class PowerNetwork {
         return allVertices;
     }
 
-    private boolean isValidMSTEdge(Structure<?> from, Edge e, HashSet<Structure<?>> includedVertices) {
-        if (e == null) return false;
-        Structure<?> other = e.getOther(from);
+    static int getMSTCost(Edge e) {
+        return Math.abs(e.getB().getIndex() - e.getA().getIndex());
+    }
 
-        if (other == null || includedVertices.contains(other)) return false;
+    private static boolean isValidMSTEdge(Edge e) {
+        Structure<?> a = e.getA();
+        Structure<?> b = e.getB();
+        if (a == null || b == null) return false;
         // only allow cable shafts to go across layers
-        if (other.layer.getIndex() != from.layer.getIndex()) return from.x == other.x && from.y == other.y;
+        if (a.layer.getIndex() != b.layer.getIndex()) return a.x == b.x && a.y == b.y;
         return true;
     }
 
-    public Array<Edge> getMinimumSpanningTree() {
-        if (minimumSpanningTreeDirty) {
-            minimumSpanningTree.clear();
+    private static int getOtherIndex(Edge e, int index) {
+        return e.getA().getIndex() == index ? e.getB().getIndex() : e.getA().getIndex();
+    }
+
+    private int findMSTRoot(int key) {
+        int root = key;
+        int parent;
+        while ((parent = mstParent.get(root, root)) != root) {
+            root = parent;
+        }
+
+        // path compression
+        while (key != root) {
+            int next = mstParent.get(key, key);
+            mstParent.put(key, root);
+            key = next;
+        }
+
+        return root;
+    }
+
+    private void setSpanning(Edge e, boolean spanning) {
+        if (e.spanning == spanning) return;
+        e.spanning = spanning;
+        if (spanning) minimumSpanningTree.add(e);
+        else minimumSpanningTree.removeValue(e, true);
+    }
+
+    private void rebuildMSTComponents() {
+        mstParent.clear();
+        for (Edge e : minimumSpanningTree) {
+            int rootA = findMSTRoot(e.getA().getIndex());
+            int rootB = findMSTRoot(e.getB().getIndex());
+            if (rootA != rootB) mstParent.put(rootA, rootB);
+        }
+        mstParentStale = false;
+    }
+
+    /**
+     * Collects all vertices reachable from start via tree edges into {@link #mstPathScratch},
+     * mapped to the edge they have been reached with. Stops early once target has been reached.
+     */
+    private void walkMinimumSpanningTree(int start, int target) {
+        mstPathScratch.clear();
+        mstStackScratch.clear();
+        mstPathScratch.put(start, null);
+        mstStackScratch.add(start);
+
+        while (mstStackScratch.size > 0) {
+            int n = mstStackScratch.pop();
+            if (n == target) return;
+
+            Edge[] myEdges = edges.get(n);
+            if (myEdges == null) continue;
 
-            if (allVertices.isEmpty()) {
-                minimumSpanningTreeDirty = false;
-                return minimumSpanningTree;
+            for (Edge e : myEdges) {
+                if (e == null || !e.spanning) continue;
+
+                int o = getOtherIndex(e, n);
+                if (mstPathScratch.containsKey(o)) continue;
+
+                mstPathScratch.put(o, e);
+                mstStackScratch.add(o);
             }
+        }
+    }
 
-            HashSet<Structure<?>> includedVertices = new HashSet<>();
-            TreeSet<Edge> nextVertices = new TreeSet<>(new Comparator<Edge>() {
-                @Override
-                public int compare(Edge o1, Edge o2) {
-                    int costA = Math.abs(o1.getB().getIndex() - o1.getA().getIndex());
-                    int costB = Math.abs(o2.getB().getIndex() - o2.getA().getIndex());
-                    if (costA - costB == 0) return o1.getA().getIndex() - o2.getA().getIndex();
-                    return costA - costB;
-                }
-            });
-
-            Structure<?> start = allVertices.first();
-            includedVertices.add(start);
-            Edge[] startEdges = edges.get(start.getIndex());
-            if (startEdges != null) {
-                for (Edge e : startEdges) {
-                    if (isValidMSTEdge(start, e, includedVertices))
-                        nextVertices.add(e);
-                }
+    private void addToMinimumSpanningTree(Edge e) {
+        if (minimumSpanningTreeDirty || !isValidMSTEdge(e)) return;
+
+        if (mstParentStale) rebuildMSTComponents();
+
+        int keyA = e.getA().getIndex();
+        int keyB = e.getB().getIndex();
+        int rootA = findMSTRoot(keyA);
+        int rootB = findMSTRoot(keyB);
+
+        if (rootA != rootB) {
+            mstParent.put(rootA, rootB);
+            setSpanning(e, true);
+            return;
+        }
+
+        // the new edge closes a cycle, so swap out the most expensive tree edge on it if it is cheaper.
+        // the components stay the same
+        walkMinimumSpanningTree(keyA, keyB);
+        if (!mstPathScratch.containsKey(keyB)) return;
+
+        Edge max = null;
+        for (int n = keyB; n != keyA;) {
+            Edge p = mstPathScratch.get(n);
+            if (max == null || getMSTCost(p) > getMSTCost(max)) max = p;
+            n = getOtherIndex(p, n);
+        }
+
+        if (max != null && getMSTCost(max) > getMSTCost(e)) {
+            setSpanning(max, false);
+            setSpanning(e, true);
+        }
+    }
+
+    private void removeFromMinimumSpanningTree(Edge e) {
+        if (!e.spanning) return;
+
+        setSpanning(e, false);
+        mstParentStale = true;
+
+        if (minimumSpanningTreeDirty) return;
+
+        // the tree has been cut in two, reconnect it with the cheapest edge crossing the cut
+        walkMinimumSpanningTree(e.getA().getIndex(), -1);
+
+        Edge best = null;
+        for (Edge[] myEdges : edges.values()) {
+            for (Edge o : myEdges) {
+                if (o == null || o.spanning || !isValidMSTEdge(o)) continue;
+                if (mstPathScratch.containsKey(o.getA().getIndex()) == mstPathScratch.containsKey(o.getB().getIndex())) continue;
+                if (!hasVertex(o.getA()) || !hasVertex(o.getB())) continue;
+
+                if (best == null || MST_EDGE_COMPARATOR.compare(o, best) < 0) best = o;
             }
+        }
 
-            int allVerts = allVertices.size;
-            while (includedVertices.size() < allVerts && !nextVertices.isEmpty()) {
-                while (!nextVertices.isEmpty()) {
-                    Edge e = nextVertices.pollFirst();
-                    boolean hasA = includedVertices.contains(e.getA());
-                    boolean hasB = includedVertices.contains(e.getB());
-                    if (hasA && hasB) continue;
-
-                    minimumSpanningTree.add(e);
-                    Structure<?> newVert = e.getA();
-                    if (hasA) newVert = e.getB();
-
-                    includedVertices.add(newVert);
-                    Edge[] nextEdges = edges.get(newVert.getIndex());
-                    if (nextEdges != null) {
-                        for (Edge edge : nextEdges) {
-                            if (isValidMSTEdge(newVert, edge, includedVertices))
-                                nextVertices.add(edge);
-                        }
-                    }
-                }
+        if (best != null) setSpanning(best, true);
+    }
+
+    private void rebuildMinimumSpanningTree() {
+        for (Edge e : minimumSpanningTree) {
+            e.spanning = false;
+        }
+        minimumSpanningTree.clear();
+
+        mstSortScratch.clear();
+        for (Edge e : edgeSet) {
+            if (isValidMSTEdge(e)) mstSortScratch.add(e);
+        }
+        mstSortScratch.sort(MST_EDGE_COMPARATOR);
+
+        // Kruskal
+        mstParent.clear();
+        for (Edge e : mstSortScratch) {
+            int rootA = findMSTRoot(e.getA().getIndex());
+            int rootB = findMSTRoot(e.getB().getIndex());
+            if (rootA != rootB) {
+                mstParent.put(rootA, rootB);
+                setSpanning(e, true);
             }
+        }
+        mstSortScratch.clear();
+
+        mstParentStale = false;
+        minimumSpanningTreeDirty = false;
+    }
 
-            minimumSpanningTreeDirty = false;
+    public Array<Edge> getMinimumSpanningTree() {
+        if (minimumSpanningTreeDirty) {
+            rebuildMinimumSpanningTree();
         }
         return minimumSpanningTree;
     }
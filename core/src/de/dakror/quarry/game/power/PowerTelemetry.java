@@ -0,0 +1,286 @@
+package de.dakror.quarry.game.power;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Fixed size power history of a {@link PowerNetwork} in multiple resolutions.
+ * Each resolution is a ring buffer which gets fed with the averaged samples of the next finer one.
+ */
+public class PowerTelemetry {
+    public static enum Channel {
+        // power fed into the network per second
+        Supply,
+        // free buffer space of the consumers before the power is distributed, averaged over time
+        Headroom,
+        // energy held by storage structures, averaged over time
+        Stored,
+        // part of the headroom that was not filled during the tick, averaged over time
+        Shortfall,
+
+        ;
+
+        public static final Channel[] values = values();
+    }
+
+    public static enum Resolution {
+        Second(1, 120),
+        Minute(60, 120),
+        Hour(3600, 48),
+
+        ;
+
+        public final int seconds;
+        public final int capacity;
+
+        public static final Resolution[] values = values();
+
+        private Resolution(int seconds, int capacity) {
+            this.seconds = seconds;
+            this.capacity = capacity;
+        }
+    }
+
+    // [resolution][channel * capacity + slot]
+    private final float[][] samples;
+    private final int[] heads;
+    private final int[] counts;
+
+    // running sums of the samples that will make up the next entry of the coarser resolution
+    private final float[][] coarseSums;
+
+    private double accTime, accSupply, accHeadroom, accStored, accShortfall;
+
+    public PowerTelemetry() {
+        int numRes = Resolution.values.length;
+        samples = new float[numRes][];
+        heads = new int[numRes];
+        counts = new int[numRes];
+        coarseSums = new float[numRes][Channel.values.length];
+
+        for (Resolution r : Resolution.values) {
+            samples[r.ordinal()] = new float[Channel.values.length * r.capacity];
+        }
+    }
+
+    /**
+     * Records the aggregated values of a single simulation tick
+     *
+     * @param deltaTime duration of the tick in seconds
+     * @param supply energy fed into the network during the tick
+     * @param headroom free buffer space of the consumers before the tick
+     * @param stored energy held by storage structures at the end of the tick
+     * @param shortfall part of the headroom that was not filled during the tick
+     */
+    public void record(double deltaTime, double supply, double headroom, double stored, double shortfall) {
+        accTime += deltaTime;
+        accSupply += supply;
+        // levels instead of flows, so they are weighted by time to not depend on the tick rate
+        accHeadroom += headroom * deltaTime;
+        accStored += stored * deltaTime;
+        accShortfall += shortfall * deltaTime;
+
+        if (accTime >= Resolution.Second.seconds) {
+            push(Resolution.Second.ordinal(),
+                    (float) (accSupply / accTime),
+                    (float) (accHeadroom / accTime),
+                    (float) (accStored / accTime),
+                    (float) (accShortfall / accTime));
+
+            accTime = 0;
+            accSupply = 0;
+            accHeadroom = 0;
+            accStored = 0;
+            accShortfall = 0;
+        }
+    }
+
+    private void push(int res, float supply, float headroom, float stored, float shortfall) {
+        int cap = Resolution.values[res].capacity;
+        float[] buf = samples[res];
+        int head = heads[res];
+
+        buf[Channel.Supply.ordinal() * cap + head] = supply;
+        buf[Channel.Headroom.ordinal() * cap + head] = headroom;
+        buf[Channel.Stored.ordinal() * cap + head] = stored;
+        buf[Channel.Shortfall.ordinal() * cap + head] = shortfall;
+
+        heads[res] = (head + 1) % cap;
+        if (counts[res] < cap) counts[res]++;
+
+        if (res + 1 < Resolution.values.length) {
+            float[] sums = coarseSums[res];
+            sums[Channel.Supply.ordinal()] += supply;
+            sums[Channel.Headroom.ordinal()] += headroom;
+            sums[Channel.Stored.ordinal()] += stored;
+            sums[Channel.Shortfall.ordinal()] += shortfall;
+
+            Resolution next = Resolution.values[res + 1];
+            int ratio = next.seconds / Resolution.values[res].seconds;
+
+            // the ring buffer is a multiple of the ratio, so a full window ends at a multiple of it
+            if (heads[res] % ratio == 0) {
+                push(res + 1,
+                        sums[Channel.Supply.ordinal()] / ratio,
+                        sums[Channel.Headroom.ordinal()] / ratio,
+                        sums[Channel.Stored.ordinal()] / ratio,
+                        sums[Channel.Shortfall.ordinal()] / ratio);
+
+                for (int i = 0; i < sums.length; i++)
+                    sums[i] = 0;
+            }
+        }
+    }
+
+    public int getSampleCount(Resolution resolution) {
+        return counts[resolution.ordinal()];
+    }
+
+    /**
+     * @param age 0 for the latest sample, up to {@link #getSampleCount(Resolution)} - 1 for the oldest
+     */
+    public float get(Resolution resolution, Channel channel, int age) {
+        int res = resolution.ordinal();
+        if (age < 0 || age >= counts[res]) throw new IndexOutOfBoundsException("age: " + age);
+
+        int cap = resolution.capacity;
+        int slot = (heads[res] - 1 - age + cap) % cap;
+        return samples[res][channel.ordinal() * cap + slot];
+    }
+
+    /**
+     * Copies the samples of a channel into the given array, ordered from oldest to latest.
+     *
+     * @return the number of samples copied
+     */
+    public int copy(Resolution resolution, Channel channel, float[] out) {
+        int res = resolution.ordinal();
+        int cap = resolution.capacity;
+        int count = Math.min(counts[res], out.length);
+        int offset = channel.ordinal() * cap;
+        int start = (heads[res] - count + cap) % cap;
+
+        for (int i = 0; i < count; i++) {
+            out[i] = samples[res][offset + (start + i) % cap];
+        }
+
+        return count;
+    }
+
+    public float getMax(Resolution resolution, Channel channel) {
+        int count = counts[resolution.ordinal()];
+        float max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, get(resolution, channel, i));
+        }
+        return max;
+    }
+
+    /**
+     * Adds the history of a network that got merged into this one. Samples of the same age are summed, as the merged
+     * network carries both loads from now on. The longer history of the two is kept
+     */
+    public void merge(PowerTelemetry other) {
+        for (Resolution r : Resolution.values) {
+            int res = r.ordinal();
+            int cap = r.capacity;
+            int count = Math.max(counts[res], other.counts[res]);
+            float[] merged = new float[samples[res].length];
+
+            // written oldest first, so the latest sample ends up right before the new head
+            for (int age = 0; age < count; age++) {
+                int slot = count - 1 - age;
+                for (Channel c : Channel.values) {
+                    float v = 0;
+                    if (age < counts[res]) v += get(r, c, age);
+                    if (age < other.counts[res]) v += other.get(r, c, age);
+                    merged[c.ordinal() * cap + slot] = v;
+                }
+            }
+
+            samples[res] = merged;
+            counts[res] = count;
+            heads[res] = count % cap;
+
+            // the window of the next coarser sample restarts at the new head
+            if (res + 1 < Resolution.values.length) {
+                int pending = heads[res] % (Resolution.values[res + 1].seconds / r.seconds);
+                for (Channel c : Channel.values) {
+                    float sum = 0;
+                    for (int age = 0; age < pending; age++)
+                        sum += get(r, c, age);
+                    coarseSums[res][c.ordinal()] = sum;
+                }
+            }
+        }
+
+        accTime = Math.max(accTime, other.accTime);
+        accSupply += other.accSupply;
+        accHeadroom += other.accHeadroom;
+        accStored += other.accStored;
+        accShortfall += other.accShortfall;
+    }
+
+    /**
+     * @return an independent copy, for a network that got split off
+     */
+    public PowerTelemetry copy() {
+        PowerTelemetry t = new PowerTelemetry();
+        for (int i = 0; i < samples.length; i++) {
+            System.arraycopy(samples[i], 0, t.samples[i], 0, samples[i].length);
+            System.arraycopy(coarseSums[i], 0, t.coarseSums[i], 0, coarseSums[i].length);
+        }
+        System.arraycopy(heads, 0, t.heads, 0, heads.length);
+        System.arraycopy(counts, 0, t.counts, 0, counts.length);
+        t.accTime = accTime;
+        t.accSupply = accSupply;
+        t.accHeadroom = accHeadroom;
+        t.accStored = accStored;
+        t.accShortfall = accShortfall;
+        return t;
+    }
+
+    public void clear() {
+        for (int i = 0; i < samples.length; i++) {
+            heads[i] = 0;
+            counts[i] = 0;
+            for (int j = 0; j < coarseSums[i].length; j++)
+                coarseSums[i][j] = 0;
+        }
+        accTime = 0;
+        accSupply = 0;
+        accHeadroom = 0;
+        accStored = 0;
+        accShortfall = 0;
+    }
+
+    public static void writeCsvHeader(Writer w) throws IOException {
+        w.write("network,resolution,age_seconds");
+        for (Channel c : Channel.values) {
+            w.write(',');
+            w.write(c.name().toLowerCase());
+        }
+        w.write('\n');
+    }
+
+    /**
+     * Writes all samples as CSV rows, oldest first
+     */
+    public void writeCsv(Writer w, int networkId) throws IOException {
+        for (Resolution r : Resolution.values) {
+            int count = counts[r.ordinal()];
+            for (int age = count - 1; age >= 0; age--) {
+                w.write(Integer.toString(networkId));
+                w.write(',');
+                w.write(r.name());
+                w.write(',');
+                w.write(Integer.toString(age * r.seconds));
+                for (Channel c : Channel.values) {
+                    w.write(',');
+                    w.write(Float.toString(get(r, c, age)));
+                }
+                w.write('\n');
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -30,8 +31,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.regex.Pattern;
 
 import com.badlogic.gdx.Application.ApplicationType;
@@ -67,10 +66,12 @@ import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.utils.TextureRegionDrawable;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Base64Coder;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.IntSet;
 import com.badlogic.gdx.utils.IntSet.IntSetIterator;
 import com.badlogic.gdx.utils.ScreenUtils;
+import com.badlogic.gdx.utils.StreamUtils;
 import com.badlogic.gdx.utils.viewport.FitViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
 
@@ -87,10 +88,13 @@ import de.dakror.common.libgdx.io.NBT;
 import de.dakror.common.libgdx.io.NBT.Builder;
 import de.dakror.common.libgdx.io.NBT.CompoundTag;
 import de.dakror.common.libgdx.io.NBT.CompressionType;
-import de.dakror.common.libgdx.io.NBT.ListTag;
+import de.dakror.common.libgdx.io.NBT.LazyTagContainer.RawCompoundTag;
 import de.dakror.common.libgdx.io.NBT.NBTException;
+import de.dakror.common.libgdx.io.NBT.StreamBuilder;
+import de.dakror.common.libgdx.io.NBT.StreamReader;
 import de.dakror.common.libgdx.io.NBT.Tag;
 import de.dakror.common.libgdx.io.NBT.TagType;
+import de.dakror.common.libgdx.io.NBT.TreeBuilder;
 import de.dakror.common.libgdx.math.AStar;
 import de.dakror.common.libgdx.math.AStar.Network;
 import de.dakror.common.libgdx.math.AStar.Visitor;
@@ -109,6 +113,9 @@ import de.dakror.quarry.game.Item.Items;
 import de.dakror.quarry.game.Item.Items.Amount;
 import de.dakror.quarry.game.Layer;
 import de.dakror.quarry.game.LoadingCompat;
+import de.dakror.quarry.game.SaveContainer;
+import de.dakror.quarry.game.SaveContainer.LayerConsumer;
+import de.dakror.quarry.game.ResourceSnapshot;
 import de.dakror.quarry.game.Science;
 import de.dakror.quarry.game.Science.ScienceType;
 import de.dakror.quarry.game.Tile.TileMeta;
@@ -162,6 +169,7 @@ import de.dakror.quarry.structure.storage.Barrel;
 import de.dakror.quarry.structure.storage.Storage;
 import de.dakror.quarry.structure.storage.Tank;
 import de.dakror.quarry.util.Bounds;
+import de.dakror.quarry.util.MetricsArena;
 import de.dakror.quarry.util.QuarrySoundPlayer;
 import de.dakror.quarry.util.SpriterDelegateBatch;
 import de.dakror.quarry.util.StructureSoundSpatializer;
@@ -216,8 +224,7 @@ public class Game extends GameScene {
                 if (e.getAmount() > 1)
                     addResources(e.getItem(), (int) Math.ceil(e.getAmount()
                             * (hasScience(ScienceType.ConsiderateConstruction) ? Const.REFUND_CONSIDERATE_PERCENTAGE
-                                    : Const.REFUND_PERCENTAGE)),
-                            true);
+                                    : Const.REFUND_PERCENTAGE)));
             }
 
             // refund hoppers
@@ -227,14 +234,19 @@ public class Game extends GameScene {
                 if (e.getAmount() > 1)
                     addResources(e.getItem(), (int) Math.ceil(e.getAmount() * removedHoppers
                             * (hasScience(ScienceType.ConsiderateConstruction) ? Const.REFUND_CONSIDERATE_PERCENTAGE
-                                    : Const.REFUND_PERCENTAGE)),
-                            true);
+                                    : Const.REFUND_PERCENTAGE)));
             }
         }
 
         @Override
         public boolean handleTap(int x, int y, int tileX, int tileY) {
             activeEnd = 0;
+            if ((layersLoading || saving) && (activeStructure != null || structureDestroyMode || cableDestroyMode || bulkDestroyMode
+                    || bulkCableMode || copyMode || pasteMode)) {
+                // building needs the links into the other layers and their resources, looking around does not
+                ui.toast.show(Quarry.Q.i18n.get(saving ? "toast.saving_game" : "toast.loading_game"));
+                return true;
+            }
             if (tileX < 0 || tileX >= layer.width || tileY < 0 || tileY >= layer.height)
                 return true;
 
@@ -321,7 +333,7 @@ public class Game extends GameScene {
             if (copyMode && activeEnd == 0) {
                 if ((isInEndMarkerHitbox(x, y, true) || isInEndMarkerHitbox(x, y, false)) && endB.x > -1
                         && ui.canAffordStructure) {
-                    removeResources(ItemType.Blueprint, copyCost.get(ItemType.Blueprint), true);
+                    removeResources(ItemType.Blueprint, copyCost.get(ItemType.Blueprint));
 
                     copyStructures.clear();
                     copyCables.clear();
@@ -881,40 +893,15 @@ public class Game extends GameScene {
             }
 
             if (structure instanceof OilWell) {
-                int count = 0;
-
-                o: for (int i = 0; i < structure.getWidth(); i++) {
-                    for (int j = 0; j < structure.getHeight(); j++) {
-                        if (layer.get(structure.x + i, structure.y + j) == TileType.CrudeOil) {
-                            count++;
-
-                            if (count >= OilWell.MIN_OIL_TILES)
-                                break o;
-                        }
-                    }
-                }
-
-                if (count < OilWell.MIN_OIL_TILES)
+                if (OilWell.countOil(layer, structure) < OilWell.MIN_OIL_TILES)
                     return false;
             }
 
             if (structure instanceof Excavator) {
-                EnumMap<TileType, Integer> counts = new EnumMap<>(TileType.class);
-
-                for (int i = 0; i < structure.getWidth(); i++) {
-                    for (int j = 0; j < structure.getHeight(); j++) {
-                        TileType tile = layer.get(structure.x + i, structure.y + j);
-                        if (tile == TileType.CopperOre
-                                || tile == TileType.IronOre
-                                || tile == TileType.TinOre
-                                || tile == TileType.CoalOre) {
-                            counts.put(tile, (counts.containsKey(tile) ? counts.get(tile) : 0) + 1);
-                        }
-                    }
-                }
+                int[] counts = Excavator.countOres(layer, structure);
                 boolean any = false;
-                for (Map.Entry<TileType, Integer> e : counts.entrySet()) {
-                    if (e.getValue() >= Excavator.MIN_ORE_TILES) {
+                for (TileType t : TileType.values) {
+                    if ((t.bit() & Excavator.ORE_MASK) != 0 && counts[t.ordinal()] >= Excavator.MIN_ORE_TILES) {
                         if (any)
                             return false;
                         else
@@ -1201,10 +1188,30 @@ public class Game extends GameScene {
 
         @Override
         protected void placeActiveElement() {
+            if (layersLoading || saving)
+                return;
             if (endB.x > -1) {
                 placingTrail = true;
+
+                // all trail elements share the same schema, so pay and notify once for the whole trail
+                int placed = 0;
+                layer.beginBulkPlacement();
                 for (Structure<?> s : activeStructureTrail.values()) {
-                    placeStructure(layer, s);
+                    if (placeStructure(layer, s, false))
+                        placed++;
+                }
+                layer.endBulkPlacement();
+
+                if (placed > 0) {
+                    if (!GOD_MODE) {
+                        for (Amount e : activeStructure.getSchema().buildCosts.entries) {
+                            removeResources(e.getItem(), e.getAmount() * placed);
+                        }
+                    }
+
+                    if (Quarry.Q.sound.isPlaySound()) {
+                        buildSfx.play(Quarry.Q.sound.getSoundVolume(), (float) (Math.random() * 0.4 + 0.6), 0);
+                    }
                 }
 
                 // check if pre-existing conveyor at endA should be rotated
@@ -1330,13 +1337,20 @@ public class Game extends GameScene {
             }
         }
 
-        protected void placeStructure(Layer currentLayer, Structure<?> structure) {
+        protected boolean placeStructure(Layer currentLayer, Structure<?> structure) {
+            return placeStructure(currentLayer, structure, true);
+        }
+
+        /**
+         * @param single whether build costs and sound should be handled for this structure alone
+         */
+        protected boolean placeStructure(Layer currentLayer, Structure<?> structure, boolean single) {
             if (currentLayer.addStructure(structure)) {
-                if (!GOD_MODE) {
+                if (single && !GOD_MODE) {
                     Items costs = structure.getSchema().buildCosts;
 
                     for (Amount e : costs.entries) {
-                        removeResources(e.getItem(), e.getAmount(), true);
+                        removeResources(e.getItem(), e.getAmount());
                     }
                 }
 
@@ -1384,10 +1398,14 @@ public class Game extends GameScene {
                 }
 
                 //                spatializedPlayer.play(structure, buildSfx, (float) (Math.random() * 0.4 + 0.6), false);
-                if (Quarry.Q.sound.isPlaySound()) {
+                if (single && Quarry.Q.sound.isPlaySound()) {
                     buildSfx.play(Quarry.Q.sound.getSoundVolume(), (float) (Math.random() * 0.4 + 0.6), 0);
                 }
+
+                return true;
             }
+
+            return false;
         }
 
         @Override
@@ -1616,8 +1634,23 @@ public class Game extends GameScene {
     public EnumSet<ScienceType> sciences;
     public EnumSet<ScienceType> currentSciences;
 
-    protected EnumMap<ItemType, Integer> resources;
+    // contents of all storages by item ordinal, maintained by the layers' storage directories
+    protected int[] resources;
     protected EnumSet<ItemType> seenResources;
+    // read only copy for the ui and placement checks, published once per tick
+    private volatile ResourceSnapshot resourceSnapshot = ResourceSnapshot.EMPTY;
+    // written alternately, so readers of the published one are never raced
+    private final ResourceSnapshot[] resourceSnapshots = { new ResourceSnapshot(), new ResourceSnapshot() };
+    private int resourceVersion;
+    // bumped whenever the seen resources change
+    private int seenVersion;
+    private boolean resourcesDirty;
+    // published but not yet announced to listeners and the ui
+    private boolean resourcesChanged;
+    // accumulated deltas since the last tick, by item ordinal
+    private int[] resourceDeltas;
+    double resourceCheckTime;
+    volatile boolean verifyingResources;
 
     // fbo / saving
     FrameBuffer fbo;
@@ -1681,8 +1714,8 @@ public class Game extends GameScene {
     final Vector2 tmp = new Vector2();
 
     // Various data notifiers
-    ChangeNotifier<Pair<ItemType, Integer>> resourceChangeNotifier = new ChangeNotifier<>();
-    final Pair<ItemType, Integer> resourceChangePair = new Pair<>();
+    // one BULK_CHANGE per tick with the deltas by item ordinal, only valid during the call
+    ChangeNotifier<int[]> resourceChangeNotifier = new ChangeNotifier<>();
     // called for new layers
     public ChangeNotifier<Layer> layerChangeNotifier = new ChangeNotifier<>();
 
@@ -1707,6 +1740,18 @@ public class Game extends GameScene {
     long lastAutosave;
     boolean autosaving;
 
+    // set while the layers away from the active one are still loading. the loaded layers can be looked at, but
+    // nothing is built or simulated until all are there, as both reach into other layers and the global resources
+    volatile boolean layersLoading;
+    // set while a save encodes the layers in the background. the game is only rendered meanwhile, like while loading
+    volatile boolean saving;
+    // bumped whenever the layers get replaced, so a background load for an abandoned game is dropped
+    volatile int layerLoads;
+    // layers decoded in the background, waiting for their structures on the render thread. guarded by decodedLayers
+    final Array<Layer> decodedLayers = new Array<>();
+    // placeholders that are not replaced yet
+    int placeholders;
+
     // smooth camera
     Vector3 cameraVelocity = new Vector3();
     final Vector3 tmp3 = new Vector3();
@@ -1743,7 +1788,8 @@ public class Game extends GameScene {
 
         currentSciences = EnumSet.noneOf(ScienceType.class);
         sciences = EnumSet.noneOf(ScienceType.class);
-        resources = new EnumMap<>(ItemType.class);
+        resources = new int[ItemType.values.length];
+        resourceDeltas = new int[ItemType.values.length];
         seenResources = EnumSet.noneOf(ItemType.class);
         copyCost = new EnumMap<>(ItemType.class);
 
@@ -1843,8 +1889,11 @@ public class Game extends GameScene {
 
         currentSciences.clear();
         sciences.clear();
-        resources.clear();
-        getSeenResources().clear();
+        synchronized (resourceLock) {
+            getSeenResources().clear();
+            seenVersion++;
+            resourcesDirty = true;
+        }
         try {
             spatializedPlayer.stop();
         } catch (Exception e) {
@@ -1878,11 +1927,16 @@ public class Game extends GameScene {
         synchronized (layerLock) {
             if (layers != null) {
                 for (Layer l : layers)
-                    l.dispose();
+                    l.unload();
                 layers.clear();
             } else {
                 layers = new Array<>();
             }
+            layerLoads++;
+            dropDecodedLayers();
+            layersLoading = false;
+            MetricsArena.POWER.reset();
+            MetricsArena.TIME.reset();
 
             l0 = new Layer(0, Const.DEFAULT_LAYER_SIZE, Const.DEFAULT_LAYER_SIZE, TileType.Stone, true, true);
 
@@ -1890,6 +1944,7 @@ public class Game extends GameScene {
             st.setRefundStorage(true);
             l0.addStructure(st);
             layers.add(l0);
+            l0.storageDirectory.attach();
 
             st.addToInventory(ItemType.Wood, 40, null);
             st.addToInventory(ItemType.Scaffolding, 40, null);
@@ -1969,6 +2024,17 @@ public class Game extends GameScene {
         if (layers == null)
             return;
 
+        if (layersLoading)
+            placeDecodedLayer();
+
+        if (Quarry.Q.version.equals("debug") && !layersLoading) {
+            resourceCheckTime += deltaTime;
+            if (resourceCheckTime >= 10) {
+                resourceCheckTime = 0;
+                verifyResources();
+            }
+        }
+
         // handle camera control keys
 
         if (Quarry.Q.desktop && (ui.prompt.getStage() == null || !ui.prompt.isVisible())
@@ -2034,7 +2100,12 @@ public class Game extends GameScene {
         }
 
         camControl.update();
-        if (SINGLE_FRAME) {
+        if (layersLoading) {
+            // the save on disk stays up to date until all layers are there and the game continues.
+            // loaded games start paused anyway
+        } else if (saving) {
+            // the layers are being encoded, see saveData
+        } else if (SINGLE_FRAME) {
             powerGrid.update(deltaTime, gameSpeed);
 
             synchronized (layerLock) {
@@ -2059,6 +2130,8 @@ public class Game extends GameScene {
             }
         }
 
+        flushResourceChanges();
+
         ui.update(deltaTime);
 
         spatializer.setCenter(cam.position.x, cam.position.y, cam.zoom / 0.5f);
@@ -2088,7 +2161,7 @@ public class Game extends GameScene {
 
         // auto save
         long delta = System.currentTimeMillis() - lastAutosave;
-        if (!saveMap && !autosaving && delta >= Const.MIN_AUTOSAVE_INTERVAL /* && longer than config*/) {
+        if (!saveMap && !autosaving && !layersLoading && !saving && delta >= Const.MIN_AUTOSAVE_INTERVAL /* && longer than config*/) {
             autosaving = true;
             saveMap = true;
         }
@@ -2166,7 +2239,8 @@ public class Game extends GameScene {
             return;
 
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT | GL20.GL_DEPTH_BUFFER_BIT);
-        if (saveMap) {
+        // waits for the layers of a running save to be encoded
+        if (saveMap && !saving) {
             if (fbo == null) {
                 if (Quarry.Q.desktop) {
                     fbo = new FrameBuffer(Format.RGB888, 160, 90, false);
@@ -2208,24 +2282,9 @@ public class Game extends GameScene {
 
             viewport.apply();
 
-            if (autosaving) {
-                Quarry.Q.threadPool.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        saveData(currentGameName, true, true);
-                        lastAutosave = System.currentTimeMillis();
-                        autosaving = false;
-                    }
-                });
-            } else {
-                Quarry.Q.threadPool.execute(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        saveData(saveName, false, true);
-                    }
-                });
-            }
+            // start here between two ticks, the layers are encoded in the background
+            if (autosaving) saveData(currentGameName, true, true);
+            else saveData(saveName, false, true);
             saveMap = false;
         }
 
@@ -3095,167 +3154,188 @@ public class Game extends GameScene {
 
     //////////////////////////////////////////////////////
 
-    public synchronized void addResources(ItemType item, int amount, boolean addToAStorage) {
+    /**
+     * Refunds the amount into the refund storages, anything that does not fit is lost
+     */
+    public void addResources(ItemType item, int amount) {
         if (amount <= 0)
             return;
 
-        synchronized (resourceLock) {
-            int remaining = amount;
-
-            if (addToAStorage) {
-                synchronized (layerLock) {
-                    o: for (Layer layer : layerIter) {
-                        for (StorageStructure b : layer.storages) {
-                            if (!b.isRefundStorage())
-                                continue;
-
-                            // skip empty barrels
-                            if (b.getSchema().type == StructureType.Barrel && b.isEmpty())
-                                continue;
-
-                            remaining = b.addToInventoryWithRest(item, remaining);
-                            if (remaining == 0)
-                                break o;
-                        }
-                    }
-
-                    if (remaining > 0) {
-                        ui.toast.show(Quarry.Q.i18n.get("toast.refund_full"));
-                        // Delete items forever
-                        amount -= remaining;
-                    }
-
-                }
+        int remaining = amount;
+        synchronized (layerLock) {
+            for (Layer layer : layerIter) {
+                remaining = layer.storageDirectory.add(item, remaining);
+                if (remaining == 0)
+                    break;
             }
+        }
 
-            Integer val = resources.get(item);
-            if (val == null)
-                val = 0;
-            val += amount;
-            resources.put(item, val);
-            resourceChangeNotifier.notify(Type.ADD, resourceChangePair.set(item, amount));
-            getSeenResources().add(item);
-
-            ui.updateResources(true);
-            if (activeStructure != null)
-                camControl.updateActiveElementPlaceable();
+        if (remaining > 0) {
+            // Delete items forever
+            ui.toast.show(Quarry.Q.i18n.get("toast.refund_full"));
         }
     }
 
-    public synchronized boolean removeResources(ItemType item, int amount, boolean removeFromAStorage) {
+    /**
+     * Takes the amount out of the storages
+     *
+     * @return whether the full amount could be taken
+     */
+    public boolean removeResources(ItemType item, int amount) {
         if (amount <= 0)
             return true;
 
-        synchronized (resourceLock) {
-            Integer val = resources.get(item);
-            if (val == null)
-                return false;
-            val -= amount;
-            if (val < 0)
-                val = 0;
-            resources.put(item, val);
-            resourceChangeNotifier.notify(Type.REMOVE, resourceChangePair.set(item, amount));
-            getSeenResources().add(item);
-
-            int remaining = amount;
-
-            if (removeFromAStorage) {
-                synchronized (layerLock) {
-                    for (Layer layer : layers) {
-                        for (Chunk c : layer.getChunks()) {
-                            if (c != null && c.isInit()) {
-                                for (Structure<?> s : c.getStructures()) {
-                                    if (s instanceof StorageStructure) {
-                                        remaining = ((StorageStructure) s).removeFromInventoryWithRest(item, remaining);
-                                        if (remaining == 0)
-                                            break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+        int remaining = amount;
+        synchronized (layerLock) {
+            for (Layer layer : layers) {
+                remaining = layer.storageDirectory.remove(item, remaining);
+                if (remaining == 0)
+                    break;
             }
+        }
 
-            ui.updateResources(true);
-            if (activeStructure != null)
-                camControl.updateActiveElementPlaceable();
+        // placement checks right after paying must not see the old amounts
+        publishResources();
 
-            if (remaining > 0) {
-                return false;
-            }
+        return remaining == 0;
+    }
 
-            return true;
+    /**
+     * Called by the storage directories of attached layers whenever the contents of their storages change
+     */
+    public void onStorageChanged(ItemType item, int delta) {
+        synchronized (resourceLock) {
+            resources[item.ordinal()] += delta;
+            resourceDeltas[item.ordinal()] += delta;
+            resourcesDirty = true;
+            if (getSeenResources().add(item))
+                seenVersion++;
         }
     }
 
-    public synchronized int getResource(ItemType item) {
+    public int getResource(ItemType item) {
+        return resourceSnapshot.get(item);
+    }
+
+    public void addSeenResource(ItemType item) {
         synchronized (resourceLock) {
-            Integer val = resources.get(item);
-            if (val == null)
-                return 0;
-            return val;
+            if (getSeenResources().add(item)) {
+                seenVersion++;
+                resourcesDirty = true;
+            }
         }
     }
 
-    public synchronized void addSeenResource(ItemType item) {
+    public boolean hasSeenResource(ItemType item) {
+        return resourceSnapshot.hasSeen(item);
+    }
+
+    /**
+     * Publishes a new snapshot if the resources changed since the last one
+     */
+    public void publishResources() {
         synchronized (resourceLock) {
-            if (getSeenResources().add(item))
-                ui.updateResources(true);
+            if (!resourcesDirty)
+                return;
+            resourcesDirty = false;
+            ResourceSnapshot next = resourceSnapshots[++resourceVersion & 1];
+            next.set(resourceVersion, resources, seenResources, seenVersion);
+            resourceSnapshot = next;
+            resourcesChanged = true;
         }
     }
 
-    public synchronized boolean hasSeenResource(ItemType item) {
+    /**
+     * Publishes the resources and announces all changes since the last tick at once
+     */
+    void flushResourceChanges() {
+        publishResources();
+
         synchronized (resourceLock) {
-            return getSeenResources().contains(item);
+            if (!resourcesChanged)
+                return;
+            resourcesChanged = false;
+
+            resourceChangeNotifier.notify(Type.BULK_CHANGE, resourceDeltas);
+            for (int i = 0; i < resourceDeltas.length; i++)
+                resourceDeltas[i] = 0;
         }
+
+        ui.updateResources(true);
+        // placeability depends on the amounts, so check again with the new ones
+        if (activeStructure != null)
+            camControl.updateActiveElementPlaceable();
     }
 
     public EnumSet<ItemType> getSeenResources() {
         return seenResources;
     }
 
-    public synchronized Set<Map.Entry<ItemType, Integer>> getAllResources() {
-        return resources.entrySet();
+    /**
+     * @return the last published resources, safe to read without locking
+     */
+    public ResourceSnapshot getAllResources() {
+        return resourceSnapshot;
     }
 
-    public void recalcResources() {
+    /**
+     * Compares the resources against a full scan of all storages on the thread pool and logs any difference.
+     * Only the storage list and the resources are copied here, if any storage changes while they are counted, the
+     * check is skipped
+     */
+    public void verifyResources() {
+        if (verifyingResources) return;
+
+        final int version;
+        final int[] expected;
+        synchronized (resourceLock) {
+            // not settled yet, try again next time
+            if (resourcesDirty) return;
+            version = resourceVersion;
+            expected = resources.clone();
+        }
 
-        // recalc resources
-        EnumMap<ItemType, Integer> res = new EnumMap<>(ItemType.class);
+        final Array<StorageStructure> storages = new Array<>(StorageStructure.class);
         synchronized (layerLock) {
-            for (Layer l : layers) {
-                for (Chunk c : l.getChunks()) {
-                    if (c != null) {
-                        for (Structure<?> s : c.getStructures()) {
-                            if (s instanceof Storage) {
-                                CInventory ci = (CInventory) s.getComponents()[0];
-                                for (EnumMap.Entry<ItemType, Integer> e : ci.getAll()) {
-                                    Integer v = res.get(e.getKey());
-                                    v = v == null ? 0 : v;
-                                    res.put(e.getKey(), v + e.getValue());
-                                }
-                            }
-                            if (s instanceof Barrel) {
-                                CSingleInventory ci = (CSingleInventory) s.getComponents()[0];
+            for (Layer l : layers)
+                storages.addAll(l.storages);
+        }
 
-                                if (ci.getItem() != null) {
-                                    Integer v = res.get(ci.getItem());
-                                    v = v == null ? 0 : v;
-                                    res.put(ci.getItem(), v + ci.getCount());
-                                }
-                            }
+        verifyingResources = true;
+        Quarry.Q.threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int[] res = new int[ItemType.values.length];
+                    for (StorageStructure s : storages) {
+                        if (s instanceof Storage) {
+                            CInventory ci = (CInventory) s.getComponents()[0];
+                            for (int i = 0; i < res.length; i++)
+                                res[i] += ci.get(ItemType.values[i]);
+                        }
+                        if (s instanceof Barrel) {
+                            CSingleInventory ci = (CSingleInventory) s.getComponents()[0];
+                            ItemType item = ci.getItem();
+                            if (item != null)
+                                res[item.ordinal()] += ci.getCount();
                         }
                     }
+
+                    synchronized (resourceLock) {
+                        // storages changed while counting
+                        if (resourcesDirty || resourceVersion != version) return;
+                    }
+
+                    for (int i = 0; i < res.length; i++) {
+                        if (res[i] != expected[i])
+                            Gdx.app.error("Game", "Resource mismatch for " + ItemType.values[i] + ": " + expected[i] + " counted, "
+                                    + res[i] + " stored");
+                    }
+                } finally {
+                    verifyingResources = false;
                 }
             }
-        }
-        synchronized (resourceLock) {
-            resources.clear();
-            resources.putAll(res);
-            seenResources.addAll(res.keySet());
-            ui.updateResources(true);
-        }
+        });
     }
 
     //////////////////////////////////////////////////////
@@ -3300,6 +3380,23 @@ public class Game extends GameScene {
 
     //////////////////////////////////////////////////////
 
+    public void exportPowerTelemetry() {
+        Writer w = null;
+        try {
+            w = Quarry.Q.file("TheQuarry/telemetry/power-" + System.currentTimeMillis() + ".csv", true).writer(false, "UTF-8");
+            synchronized (layerLock) {
+                powerGrid.writeTelemetryCsv(w);
+            }
+        } catch (Exception e) {
+            Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
+            ui.toast.show(Quarry.Q.i18n.get("toast.telemetry_error"));
+        } finally {
+            StreamUtils.closeQuietly(w);
+        }
+    }
+
+    //////////////////////////////////////////////////////
+
     public void save(Callback<Void> callback) {
         save(currentGameName, true, callback);
     }
@@ -3319,20 +3416,18 @@ public class Game extends GameScene {
     }
 
     public void save(String name, boolean thumbnail, final Callback<Void> callback) {
-        this.saveName = name;
-        if (thumbnail) {
-            saveMap = true;
-            saveCallback = callback;
-        } else {
-            Quarry.Q.threadPool.execute(new Runnable() {
-                @Override
-                public void run() {
-                    saveData(saveName, false, false);
-                    if (callback != null)
-                        callback.call(null);
-                }
-            });
+        if (layersLoading) {
+            // nothing has been simulated since loading
+            if (callback != null)
+                callback.call(null);
+            return;
         }
+
+        this.saveName = name;
+        saveCallback = callback;
+        // a running save has to finish encoding first, which the thumbnail path waits for
+        if (thumbnail || saving) saveMap = true;
+        else saveData(saveName, false, false);
     }
 
     public static String getFileName(String saveName) {
@@ -3343,15 +3438,23 @@ public class Game extends GameScene {
         return fileRegex.matcher(saveName).replaceAll("_").toLowerCase();
     }
 
-    protected void saveData(String save, boolean isAutosave, boolean saveMap) {
+    /**
+     * Captures the meta data and top level tags, then encodes and writes the layers on the thread pool.
+     * Structures reach into other chunks and other layers, so the simulation and building hold until all layers are
+     * encoded, while the game keeps rendering. Only chunks that changed since the last save are encoded again.
+     * Has to be called on the render thread, between two ticks
+     */
+    protected void saveData(String save, final boolean isAutosave, boolean saveMap) {
         Delta.r();
         if (save == null && isAutosave) {
             save = Quarry.Q.i18n.get("ui.unnamed_save");
         }
 
+        final CompoundTag meta;
+        final ByteArrayOutputStream globals;
+        final String file;
         try {
-            // Write meta
-            Builder metaBuilder = new Builder("Meta");
+            TreeBuilder metaBuilder = new TreeBuilder("Meta");
 
             playTime = getPlayTime();
             lastTimerStart = System.currentTimeMillis();
@@ -3367,103 +3470,140 @@ public class Game extends GameScene {
             if (saveMap)
                 metaBuilder.ByteArray("thumbnail", bafh.getBytes());
 
-            CompoundTag meta = metaBuilder.Get();
-
             String saveName = save;
             if (isAutosave)
                 saveName = getAutosaveName(save);
-            String file = getFileName(saveName);
 
-            // backup old file
-            FileHandle fh = Quarry.Q.file("TheQuarry/saves/" + file + ".qmf", true);
-            if (fh.exists()) {
-                fh.copyTo(Quarry.Q.file("TheQuarry/saves/" + file + "-old.qmf", true));
+            globals = new ByteArrayOutputStream(1024);
+            StreamBuilder builder = NBT.stream(globals, CompressionType.Uncompressed, "Save");
+            try {
+                saveGlobals(builder, save);
+            } finally {
+                builder.close();
             }
 
-            NBT.write(fh.write(false), meta, CompressionType.Fast);
-            meta.free();
-
-            // Write data
-            Builder builder = new Builder("Save");
-            builder
-                    .Byte("version", Const.QSF_VERSION)
-                    .Int("build", Quarry.Q.versionNumber)
-                    .Byte("full", (byte) (Quarry.Q.fullVersion ? 1 : 0))
-                    .Long("playTime", playTime)
-                    .String("name", save)
-
-                    .Short("layer", (short) layerIndex)
-                    .Byte("infinite", (byte) (infinite ? 1 : 0))
-                    .Long("seed", Generator.G.getSeed())
-                    .LongArray("rng", Generator.G.getState())
-                    .List("Map", TagType.Compound);
-
-            synchronized (layerLock) {
-                for (Layer l : layers)
-                    l.save(builder);
-            }
+            // its ui may have changed it without telling anyone yet
+            if (ui.currentClickedStructure != null && ui.currentClickedStructure.layer != null)
+                ui.currentClickedStructure.layer.markChanged(ui.currentClickedStructure);
 
-            builder
-                    .End()
-                    .Compound("Resources");
-            synchronized (resourceLock) {
-                Array<Short> seen = new Array<>();
+            file = getFileName(saveName);
+            meta = metaBuilder.Get();
+        } catch (Exception e) {
+            Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
+            ui.toast.show(Quarry.Q.i18n.get("toast.save_error"));
+            saveDone(isAutosave, false);
+            return;
+        }
 
-                for (ItemType seenResource : getSeenResources())
-                    seen.add(seenResource.value);
+        saving = true;
+        Quarry.Q.threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean ok = false, held = true;
+                SaveContainer.Writer w = null;
+                try {
+                    Array<Layer> ls;
+                    synchronized (layerLock) {
+                        ls = new Array<>(layers);
+                    }
 
-                // god dammit
-                short[] s = new short[seen.size];
-                int i = 0;
-                for (Short q : seen)
-                    s[i++] = q;
+                    w = new SaveContainer.Writer(file, globals);
+                    for (Layer l : ls)
+                        w.layer(l);
+                    // syncing and swapping the files in does not need the game to hold
+                    saving = false;
+                    held = false;
+                    w.finish(meta);
+                    ok = true;
+
+                    //            // This is debug only and its super slow
+                    if (Quarry.Q.desktop && Quarry.Q.version.equals("debug")) {
+                        SaveContainer container = SaveContainer.open(file);
+                        CompoundTag data = container.readTree();
+                        container.close();
+                        Quarry.Q.file("TheQuarry/saves/" + file + ".txt", true).writeString(data.toString(), false);
+                        data.free();
+                    }
 
-                Util.NBTwriteInventory(builder, resources);
-                builder.ShortArray("Seen", s);
-            }
-            builder.End();
-
-            if (sciences.size() > 0) {
-                byte[] science = new byte[sciences.size()];
-                int i = 0;
-                for (ScienceType s : sciences)
-                    science[i++] = s.id;
-                builder.ByteArray("Sciences", science);
+                    saveThumbnailCache.remove(file);
+                    ui.toast.show(Quarry.Q.i18n.get("toast.game_saved"));
+                } catch (Exception e) {
+                    Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
+                    ui.toast.show(Quarry.Q.i18n.get("toast.save_error"));
+                } finally {
+                    // another save may already have started
+                    if (held) saving = false;
+                    if (w != null) {
+                        try {
+                            w.close();
+                        } catch (IOException e) {
+                            Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
+                        }
+                    }
+                    saveDone(isAutosave, ok);
+                }
             }
+        });
+    }
 
-            builder.Compound("camera")
-                    .Float("x", cam.position.x)
-                    .Float("y", cam.position.y)
-                    .Float("z", cam.position.z)
-                    .Float("zoom", cam.zoom)
-                    .End();
-
-            CompoundTag data = builder.Get();
+    void saveDone(boolean isAutosave, boolean ok) {
+        if (isAutosave) {
+            lastAutosave = System.currentTimeMillis();
+            autosaving = false;
+        } else if (ok && saveCallback != null) {
+            saveCallback.call(null);
+            saveCallback = null;
+        }
+    }
 
-            FileHandle fh1 = Quarry.Q.file("TheQuarry/saves/" + file + ".qsf", true);
-            if (fh1.exists()) {
-                fh1.copyTo(Quarry.Q.file("TheQuarry/saves/" + file + "-old.qsf", true));
-            }
+    /**
+     * Writes all top level tags of the save, except for the layers
+     */
+    protected void saveGlobals(Builder builder, String name) {
+        builder
+                .Byte("version", Const.QSF_VERSION)
+                .Int("build", Quarry.Q.versionNumber)
+                .Byte("full", (byte) (Quarry.Q.fullVersion ? 1 : 0))
+                .Long("playTime", playTime)
+                .String("name", name)
 
-            NBT.write(fh1.write(false), data, CompressionType.Fast);
+                .Short("layer", (short) layerIndex)
+                .Byte("infinite", (byte) (infinite ? 1 : 0))
+                .Long("seed", Generator.G.getSeed())
+                .LongArray("rng", Generator.G.getState());
 
-            //            // This is debug only and its super slow
-            if (Quarry.Q.desktop && Quarry.Q.version.equals("debug"))
-                Quarry.Q.file("TheQuarry/saves/" + file + ".txt", true).writeString(data.toString(), false);
+        builder.Compound("Resources");
+        synchronized (resourceLock) {
+            Array<Short> seen = new Array<>();
 
-            saveThumbnailCache.remove(file);
+            for (ItemType seenResource : getSeenResources())
+                seen.add(seenResource.value);
 
-            data.free();
+            // god dammit
+            short[] s = new short[seen.size];
+            int i = 0;
+            for (Short q : seen)
+                s[i++] = q;
 
-            ui.toast.show(Quarry.Q.i18n.get("toast.game_saved"));
-            if (saveCallback != null) {
-                saveCallback.call(null);
-                saveCallback = null;
-            }
-        } catch (Exception e) {
-            Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
-            ui.toast.show(Quarry.Q.i18n.get("toast.save_error"));
+            Util.NBTwriteInventory(builder, resources);
+            builder.ShortArray("Seen", s);
         }
+        builder.End();
+
+        if (sciences.size() > 0) {
+            byte[] science = new byte[sciences.size()];
+            int i = 0;
+            for (ScienceType s : sciences)
+                science[i++] = s.id;
+            builder.ByteArray("Sciences", science);
+        }
+
+        builder.Compound("camera")
+                .Float("x", cam.position.x)
+                .Float("y", cam.position.y)
+                .Float("z", cam.position.z)
+                .Float("zoom", cam.zoom)
+                .End();
     }
 
     public Texture getThumbnail(String filename) {
@@ -3477,56 +3617,63 @@ public class Game extends GameScene {
         saveThumbnailCache.put(filename, new Texture(p));
     }
 
-    public CompoundTag loadMetaData(String filename) throws IOException {
-        if (!Quarry.Q.file("TheQuarry/saves/" + filename + ".qmf", false).exists()) {
+    /**
+     * @return a view on the meta data, without decoding the thumbnail unless it needs to be cached
+     */
+    public RawCompoundTag loadMetaData(String filename) throws IOException {
+        FileHandle qmf = Quarry.Q.file("TheQuarry/saves/" + filename + ".qmf", false);
+        if (!qmf.exists()) {
             // meta file does not exist, create a stub from qsf
             FileHandle qsf = Quarry.Q.file("TheQuarry/saves/" + filename + ".qsf", false);
             if (!qsf.exists()) {
                 throw new FileNotFoundException();
-            } else {
-                CompoundTag data = null;
-                try {
-                    data = NBT.read(
-                            new BufferedInputStream(
-                                    Quarry.Q.file("TheQuarry/saves/" + filename + ".qsf", false).read()),
-                            CompressionType.Fast);
-                } catch (Exception e) {
-                    Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
-                }
-                Builder metaBuilder = new Builder("Meta");
+            }
 
-                metaBuilder
-                        .Byte("version", Const.QSF_VERSION)
-                        .Int("build", data != null ? data.Int("build", 0) : 0)
-                        .Byte("full", (byte) (Quarry.Q.fullVersion ? 1 : 0))
-                        .Long("playTime", data != null ? data.Long("build", 0) : 0)
-                        .Long("seed", data != null ? data.Long("seed", 0) : 0)
-                        .String("name", data != null ? data.String("name", filename) : filename);
+            // only the few top level tags are needed, so the save is not decoded as a whole
+            RawCompoundTag data = null;
+            try {
+                SaveContainer container = SaveContainer.open(filename);
+                if (container != null) {
+                    data = container.viewGlobals();
+                    container.close();
+                } else {
+                    data = NBT.lazy(new BufferedInputStream(qsf.read()), CompressionType.Fast).root;
+                }
+            } catch (Exception e) {
+                Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
+            }
+            TreeBuilder metaBuilder = new TreeBuilder("Meta");
 
-                CompoundTag meta = metaBuilder.Get();
+            metaBuilder
+                    .Byte("version", Const.QSF_VERSION)
+                    .Int("build", data != null ? data.Int("build", 0) : 0)
+                    .Byte("full", (byte) (Quarry.Q.fullVersion ? 1 : 0))
+                    .Long("playTime", data != null ? data.Long("playTime", 0) : 0)
+                    .Long("seed", data != null ? data.Long("seed", 0) : 0)
+                    .String("name", data != null ? data.String("name", filename) : filename);
 
-                NBT.write(Quarry.Q.file("TheQuarry/saves/" + filename + ".qmf", true).write(false), meta,
-                        CompressionType.Fast);
+            CompoundTag meta = metaBuilder.Get();
 
-                return meta;
+            try {
+                SaveContainer.writeAtomically("TheQuarry/saves/" + filename + ".qmf", meta);
+            } finally {
+                meta.free();
             }
-        } else {
-            CompoundTag data = NBT.read(
-                    new BufferedInputStream(Quarry.Q.file("TheQuarry/saves/" + filename + ".qmf", false).read()),
-                    CompressionType.Fast);
+        }
 
-            if (!saveThumbnailCache.containsKey(filename) && data.has("thumbnail")) {
-                try {
-                    ByteArrayFileHandle bafh = new ByteArrayFileHandle(data.ByteArray("thumbnail"));
-                    Pixmap p = PixmapIO.readCIM(bafh);
-                    updateThumbnailCache(filename, p);
-                    p.dispose();
-                } catch (NBTException e) {
-                    Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
-                }
+        RawCompoundTag data = NBT.lazy(new BufferedInputStream(qmf.read()), CompressionType.Fast).root;
+
+        if (!saveThumbnailCache.containsKey(filename) && data.has("thumbnail")) {
+            try {
+                ByteArrayFileHandle bafh = new ByteArrayFileHandle(data.ByteArray("thumbnail"));
+                Pixmap p = PixmapIO.readCIM(bafh);
+                updateThumbnailCache(filename, p);
+                p.dispose();
+            } catch (NBTException e) {
+                Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
             }
-            return data;
         }
+        return data;
     }
 
     public CompoundTag loadSaveData(String filename) throws IOException {
@@ -3542,13 +3689,44 @@ public class Game extends GameScene {
         return data;
     }
 
+    /**
+     * Loads the layers straight from the save stream, one chunk at a time
+     * @return all other top level tags of the save
+     */
+    public CompoundTag streamSaveData(String filename, Array<Layer> layers) throws IOException, NBTException {
+        if (!Quarry.Q.file("TheQuarry/saves/" + filename + ".qsf", false).exists()) {
+            throw new FileNotFoundException();
+        }
+
+        CompoundTag data = new CompoundTag("Save");
+        StreamReader r = NBT.reader(
+                new BufferedInputStream(Quarry.Q.file("TheQuarry/saves/" + filename + ".qsf", false).read()),
+                CompressionType.Fast);
+        try {
+            r.enter();
+            while (r.next()) {
+                if ("Map".equals(r.name())) {
+                    r.enter();
+                    int index = 0;
+                    while (r.next())
+                        layers.add(Layer.load(index++, r));
+                } else {
+                    data.add(r.readTag());
+                }
+            }
+        } finally {
+            r.close();
+        }
+        return data;
+    }
+
     public void load(final String filename, final Callback<Object> callback) {
         try {
             reset();
 
             System.out.println("Loading " + filename);
 
-            final CompoundTag meta = loadMetaData(filename);
+            final RawCompoundTag meta = loadMetaData(filename);
             if (meta == null) {
                 callback.call(false);
                 return;
@@ -3626,17 +3804,76 @@ public class Game extends GameScene {
         }
     }
 
-    protected void loadData(CompoundTag meta, String filename, Callback<Object> callback, int build) {
+    protected void loadData(RawCompoundTag meta, String filename, final Callback<Object> callback, int build) {
+        SaveContainer owned = null;
+        final Array<Layer> window = new Array<>();
         try {
-            CompoundTag data = loadSaveData(filename);
-            if (data == null) {
-                callback.call(false);
-                return;
-            }
-
+            final Array<Layer> myLayers = new Array<>();
             long t0 = System.currentTimeMillis();
-            if (build < Quarry.Q.versionNumber) {
+            CompoundTag data;
+            final SaveContainer container = SaveContainer.open(filename);
+            // closed on every error until the background load takes it over
+            owned = container;
+            // layers that are only placeholders yet, nearest to the active one first
+            final IntArray pending = new IntArray();
+            if (container != null) {
+                if (LoadingCompat.instance.needsUpgrade(build)) {
+                    data = container.readTree();
+                    LoadingCompat.instance.upgrade(data, build);
+
+                    int index = 0;
+                    for (Tag c : data.List("Map", TagType.Compound).data)
+                        myLayers.add(Layer.load(index++, (CompoundTag) c));
+                } else {
+                    data = container.readGlobals();
+
+                    // only the active layer and its neighbours are decoded before the game is shown
+                    int count = container.getLayerCount();
+                    int active = Math.min(readLayerIndex(data), count - 1);
+                    IntArray windowIndices = new IntArray();
+                    for (int i = Math.max(0, active - 1); i <= Math.min(count - 1, active + 1); i++)
+                        windowIndices.add(i);
+                    container.readLayers(windowIndices, Quarry.Q.workerPool, new LayerConsumer() {
+                        @Override
+                        public void accept(int index, CompoundTag layer) throws Exception {
+                            window.add(decodeLayer(index, layer));
+                        }
+                    });
+
+                    for (int i = 0; i < count; i++) {
+                        CompoundTag header = container.readLayerHeader(i);
+                        myLayers.add(Layer.placeholder(i, header));
+                        header.free();
+                    }
+                    for (int d = 2; d < count; d++) {
+                        if (active + d < count)
+                            pending.add(active + d);
+                        if (active - d >= 0)
+                            pending.add(active - d);
+                    }
+                }
+
+                if (pending.size == 0) {
+                    owned = null;
+                    container.close();
+                }
+            } else if (LoadingCompat.instance.needsUpgrade(build)) {
+                // upgrade steps work on the whole tag tree
+                data = loadSaveData(filename);
+                if (data == null) {
+                    callback.call(false);
+                    return;
+                }
+
                 LoadingCompat.instance.upgrade(data, build);
+
+                int index = 0;
+                for (Tag c : data.List("Map", TagType.Compound).data) {
+                    Layer l = Layer.load(index++, (CompoundTag) c);
+                    myLayers.add(l);
+                }
+            } else {
+                data = streamSaveData(filename, myLayers);
             }
 
             currentGameName = meta.String("name");
@@ -3650,27 +3887,10 @@ public class Game extends GameScene {
             if (data.has("rng"))
                 Generator.G.setState(data.LongArray("rng"));
 
-            try {
-                layerIndex = data.Short("layer");
-            } catch (NBTException e) {
-                layerIndex = data.Byte("layer");
-                if (layerIndex < 0)
-                    layerIndex = 0;
-            }
-            ListTag map = data.List("Map", TagType.Compound);
-
-            final Array<Layer> myLayers = new Array<>();
-
-            int index = 0;
-            for (Tag c : map.data) {
-                Layer l = Layer.load(index++, (CompoundTag) c);
-                myLayers.add(l);
-            }
+            layerIndex = readLayerIndex(data);
 
             Layer active = myLayers.get(layerIndex);
 
-            final int fbuild = build;
-
             CompoundTag camera = data.Compound("camera");
             if (camera != null) {
                 cam.position.set(camera.Float("x", active.width * Const.TILE_SIZE / 2),
@@ -3679,17 +3899,20 @@ public class Game extends GameScene {
                 cam.update();
             }
 
+            // amounts are only kept for older versions, the storages are counted when the layers get attached
             CompoundTag res = data.Compound("Resources");
 
-            Util.NBTreadInventory(res, resources);
-
-            getSeenResources().clear();
-            short[] seen = res.ShortArray("Seen");
-            for (short s : seen) {
-                ItemType t = Item.get(s);
-                if (t != null) {
-                    getSeenResources().add(t);
+            synchronized (resourceLock) {
+                getSeenResources().clear();
+                short[] seen = res.ShortArray("Seen");
+                for (short s : seen) {
+                    ItemType t = Item.get(s);
+                    if (t != null) {
+                        getSeenResources().add(t);
+                    }
                 }
+                seenVersion++;
+                resourcesDirty = true;
             }
 
             byte[] science = data.ByteArray("Sciences", null);
@@ -3715,52 +3938,210 @@ public class Game extends GameScene {
 
             System.out.println("Game loading took " + (System.currentTimeMillis() - t0));
 
+            // structures register with the power grid and other global state when loaded, so that happens on the render thread
             Gdx.app.postRunnable(new Runnable() {
                 @Override
                 public void run() {
-                    synchronized (layerLock) {
-                        if (layers == null) {
-                            layers = new Array<>();
-                        }
-                        if (layers.size > 0) {
-                            for (Layer l : layers)
-                                l.dispose();
-                            layers.clear();
-                        }
-                        layers.addAll(myLayers);
-                        for (Layer l : layers)
-                            l.postAllLayersLoad(true);
-                        for (Layer l : layers)
-                            l.postAllLayersLoad(false);
+                    boolean handedOver = false;
+                    try {
+                        synchronized (layerLock) {
+                            if (layers == null) {
+                                layers = new Array<>();
+                            }
+                            if (layers.size > 0) {
+                                for (Layer l : layers)
+                                    l.unload();
+                                layers.clear();
+                            }
+                            MetricsArena.POWER.reset();
+                            MetricsArena.TIME.reset();
+                            layers.addAll(myLayers);
+                            final int load = ++layerLoads;
+                            dropDecodedLayers();
+
+                            try {
+                                for (Layer l : window) {
+                                    l.finishDecoding();
+                                    placeLayer(l);
+                                }
+                            } finally {
+                                for (Layer l : window)
+                                    l.discardDecoded();
+                            }
 
-                        powerGrid.clearHighPowerCache();
+                            placeholders = pending.size;
+                            layersLoading = placeholders > 0;
+                            if (layersLoading) {
+                                Quarry.Q.threadPool.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        loadPendingLayers(container, pending, load);
+                                    }
+                                });
+                                handedOver = true;
+                            } else {
+                                attachLayers();
+                            }
 
-                        layer = layers.get(layerIndex);
-                        lastAutosave = System.currentTimeMillis();
+                            layer = layers.get(layerIndex);
+                            lastAutosave = System.currentTimeMillis();
 
-                        System.gc();
+                            System.gc();
+                        }
+                        ui.updateResources(true);
+                        layerChangeNotifier.notify(Type.BULK_ADD, null);
+                    } catch (Exception e) {
+                        if (!handedOver && pending.size > 0)
+                            closeContainer(container);
+                        callback.call(e);
+                        return;
                     }
-                    ui.updateResources(true);
-                    layerChangeNotifier.notify(Type.BULK_ADD, null);
+                    callback.call(true);
+                }
+            });
+        } catch (Exception e) {
+            for (Layer l : window)
+                l.discardDecoded();
+            closeContainer(owned);
+            callback.call(e);
+        }
+    }
+
+    /**
+     * Loads the terrain of a layer off the render thread, see {@link Layer#decode(int, CompoundTag)}. Takes over the tag
+     */
+    protected Layer decodeLayer(int index, CompoundTag tag) throws NBTException {
+        try {
+            return Layer.decode(index, tag);
+        } catch (NBTException | RuntimeException e) {
+            tag.free();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the container of a load that is over or failed
+     */
+    protected void closeContainer(SaveContainer container) {
+        if (container == null) return;
+        try {
+            container.close();
+        } catch (IOException e) {
+            Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
+        }
+    }
 
-                    // fix for barrel bug, in <v76 and in <v80
-                    // fix for refund bug in <115
-                    if (fbuild < 115) {
-                        recalcResources();
+    /**
+     * Decodes the layers that are only placeholders yet, including their terrain, and hands them to the render thread,
+     * which loads their structures and puts them in place one per frame, see {@link #placeDecodedLayer()}
+     */
+    protected void loadPendingLayers(SaveContainer container, IntArray pending, final int load) {
+        try {
+            container.readLayers(pending, Quarry.Q.workerPool, new LayerConsumer() {
+                @Override
+                public void accept(int index, CompoundTag tag) throws Exception {
+                    Layer layer = decodeLayer(index, tag);
+                    synchronized (decodedLayers) {
+                        // only a few decoded layers are held at a time
+                        while (decodedLayers.size >= 2 && layerLoads == load)
+                            decodedLayers.wait(100);
+
+                        if (layerLoads == load) {
+                            decodedLayers.add(layer);
+                            return;
+                        }
                     }
+                    // the game this was for is gone already
+                    layer.discardDecoded();
                 }
             });
-
-            callback.call(true);
         } catch (Exception e) {
-            callback.call(e);
+            Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
+            // stays halted, so the incomplete game can not be saved over the file
+            ui.toast.show(Quarry.Q.i18n.get("toast.load_error"));
+        } finally {
+            closeContainer(container);
+        }
+    }
+
+    /**
+     * Loads the structures of the next decoded layer and puts it in place of its placeholder. Once the last one is
+     * there, the layers get linked and the game continues
+     */
+    protected void placeDecodedLayer() {
+        Layer l;
+        synchronized (decodedLayers) {
+            if (decodedLayers.size == 0)
+                return;
+            l = decodedLayers.removeIndex(0);
+            decodedLayers.notifyAll();
+        }
+
+        synchronized (layerLock) {
+            l.finishDecoding();
+            placeLayer(l);
+            if (--placeholders > 0)
+                return;
+
+            attachLayers();
+            layersLoading = false;
+            lastAutosave = System.currentTimeMillis();
+        }
+        ui.updateResources(true);
+        layerChangeNotifier.notify(Type.BULK_ADD, null);
+    }
+
+    /**
+     * Replaces the placeholder of a loaded layer. Call with the layer lock held
+     */
+    protected void placeLayer(Layer l) {
+        layers.get(l.getIndex()).unload();
+        layers.set(l.getIndex(), l);
+        l.dirtyBounds.set(0, 0, l.width, l.height, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Frees the decoded layers of an abandoned load. Call after bumping {@link #layerLoads}
+     */
+    protected void dropDecodedLayers() {
+        synchronized (decodedLayers) {
+            for (Layer l : decodedLayers)
+                l.discardDecoded();
+            decodedLayers.clear();
+            decodedLayers.notifyAll();
         }
     }
 
+    /**
+     * Connects freshly loaded layers to each other and to the global resources. Call with the layer lock held
+     */
+    protected void attachLayers() {
+        for (Layer l : layers)
+            l.storageDirectory.attach();
+        for (Layer l : layers)
+            l.postAllLayersLoad(true);
+        for (Layer l : layers)
+            l.postAllLayersLoad(false);
+
+        powerGrid.clearHighPowerCache();
+    }
+
+    protected static int readLayerIndex(CompoundTag data) throws NBTException {
+        int index;
+        try {
+            index = data.Short("layer");
+        } catch (NBTException e) {
+            index = data.Byte("layer");
+            if (index < 0)
+                index = 0;
+        }
+        return index;
+    }
+
     //////////////////////////////////////////////////////
 
     public void exportBlueprint() {
-        NBT.Builder b = new NBT.Builder("Blueprint")
+        NBT.TreeBuilder b = new NBT.TreeBuilder("Blueprint")
                 .Int("build", Quarry.Q.versionNumber)
                 .IntArray("region", Game.G.copyRegion)
                 .List("structures", TagType.Compound);
@@ -3956,7 +4337,7 @@ public class Game extends GameScene {
                     SCREENSHOT = true;
                     break;
                 case Keys.K:
-                    recalcResources();
+                    verifyResources();
                     break;
                 case Keys.P:
                     increaseSpeed();
@@ -3967,6 +4348,9 @@ public class Game extends GameScene {
                 case Keys.U:
                     FOGMODE = true;
                     break;
+                case Keys.E:
+                    exportPowerTelemetry();
+                    break;
                 case Keys.W:
                     for (int i = 0; i < layer.width; i++)
                         for (int j = 0; j < layer.height; j++)
@@ -4153,6 +4537,8 @@ public class Game extends GameScene {
             return false;
         if (layerIndex + delta >= layers.size)
             return false;
+        if (layersLoading && layers.get(layerIndex + delta).isPlaceholder())
+            return false;
         deltaLayer = delta;
         return true;
     }
@@ -4175,6 +4561,7 @@ public class Game extends GameScene {
                     false);
             Generator.G.generate(l);
             layers.add(l);
+            l.storageDirectory.attach();
             layerChangeNotifier.notify(Type.ADD, l);
             return l;
         }
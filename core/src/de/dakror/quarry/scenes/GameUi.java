@@ -83,6 +83,7 @@ import de.dakror.quarry.game.Item.ItemCategory;
 import de.dakror.quarry.game.Item.ItemType;
 import de.dakror.quarry.game.Item.Items;
 import de.dakror.quarry.game.Item.Items.Amount;
+import de.dakror.quarry.game.ResourceSnapshot;
 import de.dakror.quarry.game.Science.ScienceType;
 import de.dakror.quarry.structure.Boiler;
 import de.dakror.quarry.structure.Booster;
@@ -1531,12 +1532,14 @@ public class GameUi implements Ui {
             //            ((TextTooltip) t0.getListeners().get(0)).getActor().setText(Quarry.Q.getMoney() + "$");
             //            resources.addActor(t0);
 
-            for (Map.Entry<ItemType, Integer> r : Game.G.getAllResources()) {
-                Table ac = resourceRows[r.getKey().ordinal()];
-                ((Label) ac.getCells().get(1).getActor()).setText("" + r.getValue());
-                ((TextTooltip) ac.getListeners().get(0)).getActor().setText(r.getValue() + " " + r.getKey().title);
-                if (Game.G.hasSeenResource(r.getKey()))
-                    resources.addActor(ac);
+            ResourceSnapshot snapshot = Game.G.getAllResources();
+            for (ItemType r : ItemType.values) {
+                if (!snapshot.hasSeen(r))
+                    continue;
+                Table ac = resourceRows[r.ordinal()];
+                ((Label) ac.getCells().get(1).getActor()).setText("" + snapshot.get(r));
+                ((TextTooltip) ac.getListeners().get(0)).getActor().setText(snapshot.get(r) + " " + r.title);
+                resources.addActor(ac);
             }
 
             resources.fill();
@@ -2218,11 +2221,13 @@ public class GameUi implements Ui {
         // accumulate inventory counts
         for (int i = 0, j = 0; i < structure.getDocks().length; i++) {
             if (structure.getDocks()[i].type == DockType.ItemIn) {
-                for (Map.Entry<ItemType, Integer> e : ((CRecipeSlotStorage) inputs[j]).getAll()) {
-                    Integer val = structureUIInventorySum.get(e.getKey());
+                CRecipeSlotStorage slot = (CRecipeSlotStorage) inputs[j];
+                for (int k = slot.nextItem(0); k != -1; k = slot.nextItem(k + 1)) {
+                    ItemType item = ItemType.values[k];
+                    Integer val = structureUIInventorySum.get(item);
                     if (val == null)
                         val = 0;
-                    structureUIInventorySum.put(e.getKey(), val + e.getValue());
+                    structureUIInventorySum.put(item, val + slot.get(item));
                 }
                 j++;
             } else if (structure.getDocks()[i].type == DockType.FluidIn) {
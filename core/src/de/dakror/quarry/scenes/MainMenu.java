@@ -62,6 +62,7 @@ import de.dakror.common.Response;
 import de.dakror.common.libgdx.PlatformInterface;
 import de.dakror.common.libgdx.io.NBT;
 import de.dakror.common.libgdx.io.NBT.CompoundTag;
+import de.dakror.common.libgdx.io.NBT.LazyTagContainer.RawCompoundTag;
 import de.dakror.common.libgdx.io.NBT.CompressionType;
 import de.dakror.common.libgdx.io.NBT.TagType;
 import de.dakror.common.libgdx.render.DepthSpriter;
@@ -71,6 +72,7 @@ import de.dakror.quarry.Quarry;
 import de.dakror.quarry.game.Generator;
 import de.dakror.quarry.game.Layer;
 import de.dakror.quarry.game.LoadingCompat;
+import de.dakror.quarry.game.SaveContainer;
 import de.dakror.quarry.ui.Alert;
 import de.dakror.quarry.ui.Confirm;
 import de.dakror.quarry.ui.Prompt;
@@ -295,7 +297,7 @@ public class MainMenu extends Scene implements Ui {
                                             @Override
                                             public void call(Boolean data) {
                                                 if (data != null && data) {
-                                                    if (Quarry.Q.file("TheQuarry/saves/" + n + ".qsf", false).delete()) {
+                                                    if (SaveContainer.delete(n)) {
                                                         toast.show(Quarry.Q.i18n.get("toast.save_deleted"));
                                                         savesList.removeActor(entry);
                                                     } else {
@@ -360,7 +362,7 @@ public class MainMenu extends Scene implements Ui {
 
                         });
                         try {
-                            CompoundTag data = Game.G.loadMetaData(n);
+                            RawCompoundTag data = Game.G.loadMetaData(n);
                             if (data == null)
                                 continue;
                             Texture t = Game.G.getThumbnail(n);
@@ -389,7 +391,6 @@ public class MainMenu extends Scene implements Ui {
                             entry.add(details).expandX().left().top().space(10);
 
                             entry.add(del).right().spaceRight(20);
-                            data.free();
 
                             GameUi.sep(entry).colspan(99).fillX();
                             savesList.addActor(entry);
@@ -481,18 +482,27 @@ public class MainMenu extends Scene implements Ui {
 
         batch = new SpriteBatch();
         try {
-            CompoundTag meta = NBT.read(new BufferedInputStream(Gdx.files.internal("main-menu.qmf").read()), CompressionType.Fast);
-            CompoundTag data = NBT.read(new BufferedInputStream(Gdx.files.internal("main-menu.qsf").read()), CompressionType.Fast);
-            int build = meta.Int("build", 0);
-            LoadingCompat.instance.upgrade(data, build);
+            int build = NBT.lazy(new BufferedInputStream(Gdx.files.internal("main-menu.qmf").read()), CompressionType.Fast).root.Int("build", 0);
+            RawCompoundTag save = NBT.lazy(new BufferedInputStream(Gdx.files.internal("main-menu.qsf").read()), CompressionType.Fast).root;
+
+            // only the first layer is shown, the rest of the save is only decoded if it has to be upgraded
+            CompoundTag data;
+            CompoundTag layer;
+            if (LoadingCompat.instance.needsUpgrade(build)) {
+                data = save.materialize();
+                LoadingCompat.instance.upgrade(data, build);
+                layer = (CompoundTag) data.List("Map", TagType.Compound).data.first();
+            } else {
+                data = save.List("Map", TagType.Compound).Compound(0).materialize();
+                layer = data;
+            }
 
             layers = new Array<>();
-            layers.add(Layer.load(0, (CompoundTag) data.List("Map", TagType.Compound).data.first()));
+            layers.add(Layer.load(0, layer));
             layers.get(0).postAllLayersLoad(true);
             layers.get(0).postAllLayersLoad(false);
             layers.get(0).fake = true;
             data.free();
-            meta.free();
 
             cam.position.set(layers.get(0).width * Const.TILE_SIZE * 0.5f, layers.get(0).height * Const.TILE_SIZE * 0.5f, 0);
             cam.zoom = (layers.get(0).height * 0.7f * Const.TILE_SIZE) / Math.max(Const.W, Const.H);
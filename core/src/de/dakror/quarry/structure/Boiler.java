@@ -101,6 +101,12 @@ public class Boiler extends PausableStructure<PausableSchema> {
                 || (isNextToDock(x, y, dir, getDocks()[2]) && getDocks()[2].filter.accepts(item) && heatLevel <= recipe.maxHeat - recipe.heatPerCoal);
     }
 
+    @Override
+    public boolean canAcceptFluid(int dock, ItemType item, int x, int y, Direction dir) {
+        if (dock != 1) return super.canAcceptFluid(dock, item, x, y, dir);
+        return item.categories.contains(ItemCategory.Fluid) && tank.hasSpace() && getDocks()[1].filter.accepts(item);
+    }
+
     @Override
     public int acceptFluid(ItemType item, int amount, Structure<?> source) {
         if (tank.hasSpace() && getDocks()[1].filter.accepts(item)) {
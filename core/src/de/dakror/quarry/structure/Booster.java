@@ -18,7 +18,6 @@ package de.dakror.quarry.structure;
 
 import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -73,9 +72,10 @@ public class Booster extends Structure<Schema> {
                     .button(new ButtonDef("icon_network", "button.network", ButtonType.StateToggle, new BiCallback<Boolean, Structure<?>>() {
                         @Override
                         public void call(Boolean on, Structure<?> data) {
-                            ((Booster) data).meshMode = on;
-                            ((Booster) data).updateMesh();
-                            if (((Booster) data).clicked) ((Booster) data).updateUI();
+                            Booster b = (Booster) data;
+                            if (b.layer != null) b.layer.boosterIndex.setMeshMode(b, on);
+                            else b.meshMode = on;
+                            if (b.clicked) b.updateUI();
                         }
                     }))
                     .button(new ButtonDef("symb_ff", "button.boost", ButtonType.StateToggle, new BiCallback<Boolean, Structure<?>>() {
@@ -100,11 +100,14 @@ public class Booster extends Structure<Schema> {
     Table ui;
     Container<Table> container;
 
-    HashSet<Booster> nearby;
     HashSet<Booster> mesh;
     HashSet<Pair<Booster, Booster>> meshEdges;
     Rectangle myBoostArea;
 
+    // union find, maintained by the layer's BoosterIndex
+    Booster meshParent;
+    int meshRank;
+
     final Set<Rectangle> rectangles = new TreeSet<>(new Comparator<Rectangle>() {
         @Override
         public int compare(Rectangle a, Rectangle b) {
@@ -118,7 +121,6 @@ public class Booster extends Structure<Schema> {
 
     public Booster(int x, int y) {
         super(x, y, classSchema);
-        nearby = new HashSet<>();
         mesh = new HashSet<>();
         meshEdges = new HashSet<>();
     }
@@ -212,59 +214,31 @@ public class Booster extends Structure<Schema> {
         return (!meshMode && boostActive) || (meshMode && meshHost != null && meshHost.boostActive);
     }
 
-    @Override
-    public void setNearbyBooster(Booster booster) {
-        if (booster != null)
-            nearby.add(booster);
-
-        // keep array sanitized
-        for (Iterator<Booster> iter = nearby.iterator(); iter.hasNext();) {
-            Booster b = iter.next();
-            if (layer.getStructure(b.getX() * layer.height + b.getY()) != b) iter.remove();
-        }
+    public int getAreaX() {
+        return (int) (x + getWidth() / 2f - BOOST_RADIUS);
     }
 
-    public void updateMesh() {
-        if (!meshMode) {
-            for (Booster b : mesh) {
-                b.updateMesh();
-            }
-            mesh.clear();
-            meshEdges.clear();
-            meshHost = null;
-            rectangles.clear();
-        } else {
-            mesh.clear();
-            meshEdges.clear();
-            meshHost = this;
-            meshHost.rectangles.clear();
-            addToMeshRecursively(this);
-            for (Booster b : mesh) {
-                b.mesh.clear();
-                b.addToMeshRecursively(b);
-                b.meshHost = meshHost;
-            }
-        }
+    public int getAreaY() {
+        return (int) (y + getHeight() / 2f - BOOST_RADIUS);
     }
 
-    protected void addToMeshRecursively(Booster base) {
-        for (Booster b : base.nearby) {
-            if (b != this && b.meshMode && !mesh.contains(b)) {
-                mesh.add(b);
-
-                Pair<Booster, Booster> p1 = new Pair<Booster, Booster>().set(base, b);
-                Pair<Booster, Booster> p2 = new Pair<Booster, Booster>().set(b, base);
-
-                if (!meshEdges.contains(p1) && !meshEdges.contains(p2))
-                    meshEdges.add(p1);
+    public int getAreaSize() {
+        return (int) (BOOST_RADIUS * 2);
+    }
 
-                if (b.getX() * layer.height + b.getY() < meshHost.getX() * layer.height + meshHost.getY()) {
-                    meshHost = b;
-                }
+    /**
+     * @return whether any tile of the structure lies inside the boost area
+     */
+    public boolean covers(Structure<?> s) {
+        int x1 = getAreaX(), y1 = getAreaY(), size = getAreaSize();
+        return s.getX() < x1 + size && s.getX() + s.getWidth() > x1 && s.getY() < y1 + size && s.getY() + s.getHeight() > y1;
+    }
 
-                addToMeshRecursively(b);
-            }
-        }
+    void leaveMesh() {
+        mesh.clear();
+        meshEdges = new HashSet<>();
+        meshHost = null;
+        rectangles.clear();
     }
 
     public void setBoosting(boolean boosting) {
@@ -279,7 +253,7 @@ public class Booster extends Structure<Schema> {
     @Override
     public void onPlacement(boolean fromLoading) {
         super.onPlacement(fromLoading);
-        if (!fromLoading && layer != null) updateStructures(false);
+        if (!fromLoading && layer != null) layer.boosterIndex.add(this);
 
         myBoostArea = new Rectangle(
                 (int) (x + getWidth() / 2f - BOOST_RADIUS),
@@ -291,30 +265,13 @@ public class Booster extends Structure<Schema> {
     @Override
     public void postLoad() {
         super.postLoad();
-        updateStructures(false);
-        updateMesh();
+        layer.boosterIndex.add(this);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        updateStructures(true);
-        if (meshMode) {
-            meshMode = false;
-            updateMesh();
-        }
-    }
-
-    protected void updateStructures(boolean delete) {
-        if (layer == null) return;
-        int x1 = (int) (x + getWidth() / 2f - BOOST_RADIUS);
-        int y1 = (int) (y + getHeight() / 2f - BOOST_RADIUS);
-        for (int x = 0; x < (int) (BOOST_RADIUS * 2); x++) {
-            for (int y = 0; y < (int) (BOOST_RADIUS * 2); y++) {
-                Structure<?> s = layer.getStructure(x + x1, y + y1);
-                if (s != null && (delete || s.getNearbyBooster() == null)) s.setNearbyBooster(delete ? null : this);
-            }
-        }
+        if (layer != null) layer.boosterIndex.remove(this);
     }
 
     @Override
@@ -355,16 +312,6 @@ public class Booster extends Structure<Schema> {
         if (isBoostActive() && clicked) updateUI();
     }
 
-    @Override
-    public void postUpdate(Bounds dirtyBounds) {
-        super.postUpdate(dirtyBounds);
-
-        if (dirtyBounds.hasAnyFlag(Bounds.Flags.CONSTRUCTION | Bounds.Flags.DESTRUCTION) && dirtyBounds.intersects((int) (x + getWidth() / 2f - BOOST_RADIUS),
-                (int) (y + getHeight() / 2f - BOOST_RADIUS), (int) (BOOST_RADIUS * 2), (int) (BOOST_RADIUS * 2))) {
-            updateStructures(false);
-        }
-    }
-
     private void updateUI() {
         if (meshMode && mesh.contains(Game.G.ui.currentClickedStructure)) {
             ((Booster) Game.G.ui.currentClickedStructure).updateUI();
@@ -427,8 +374,8 @@ public class Booster extends Structure<Schema> {
     @Override
     protected void pasteData(int[] pasteRegion, CompoundTag tag) {
         super.pasteData(pasteRegion, tag);
-        meshMode = tag.Byte("mesh", (byte) 0) == 1;
-        updateStructures(false);
-        updateMesh();
+        boolean mesh = tag.Byte("mesh", (byte) 0) == 1;
+        if (layer != null) layer.boosterIndex.setMeshMode(this, mesh);
+        else meshMode = mesh;
     }
 }
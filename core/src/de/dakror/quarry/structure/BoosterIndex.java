@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright 2019 Maximilian Stark | Dakror <mail@dakror.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.dakror.quarry.structure;
+
+import java.util.HashSet;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.ObjectSet;
+
+import de.dakror.common.libgdx.Pair;
+import de.dakror.quarry.structure.base.Structure;
+import de.dakror.quarry.structure.power.CopperCable;
+
+/**
+ * Boosters of a layer, bucketed by the tiles their boost areas cover.
+ * Structures find their booster through the buckets when placed, boosters only touch the structures inside their own area.
+ * Meshes are the connected components of overlapping boosters in mesh mode, kept as a union find forest.
+ *
+ * @author Maximilian Stark | Dakror
+ */
+public class BoosterIndex {
+    public static final int BUCKET_SIZE = 16;
+
+    private final Array<Booster> boosters = new Array<>();
+    private final IntMap<Array<Booster>> buckets = new IntMap<>();
+
+    private final ObjectSet<Booster> candidates = new ObjectSet<>();
+    private final Array<Booster> members = new Array<>();
+
+    public void add(Booster b) {
+        if (boosters.contains(b, true)) return;
+        boosters.add(b);
+
+        int x1 = b.getAreaX(), y1 = b.getAreaY(), size = b.getAreaSize();
+        for (int i = Math.max(0, x1) / BUCKET_SIZE; i <= (x1 + size - 1) / BUCKET_SIZE; i++) {
+            for (int j = Math.max(0, y1) / BUCKET_SIZE; j <= (y1 + size - 1) / BUCKET_SIZE; j++) {
+                int key = bucketKey(i, j);
+                Array<Booster> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new Array<>();
+                    buckets.put(key, bucket);
+                }
+                bucket.add(b);
+            }
+        }
+
+        // only claims structures that are not boosted yet
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                Structure<?> s = b.layer.getStructure(x + x1, y + y1);
+                if (s != null && !(s instanceof Booster) && s.getNearbyBooster() == null) s.setNearbyBooster(b);
+            }
+        }
+
+        b.meshParent = b;
+        b.meshRank = 0;
+        b.meshEdges = new HashSet<>();
+        if (b.meshMode) joinMesh(b);
+        else b.leaveMesh();
+    }
+
+    public void remove(Booster b) {
+        if (!boosters.removeValue(b, true)) return;
+
+        int x1 = b.getAreaX(), y1 = b.getAreaY(), size = b.getAreaSize();
+        for (int i = Math.max(0, x1) / BUCKET_SIZE; i <= (x1 + size - 1) / BUCKET_SIZE; i++) {
+            for (int j = Math.max(0, y1) / BUCKET_SIZE; j <= (y1 + size - 1) / BUCKET_SIZE; j++) {
+                Array<Booster> bucket = buckets.get(bucketKey(i, j));
+                if (bucket != null) bucket.removeValue(b, true);
+            }
+        }
+
+        // hand over the structures only this booster was boosting
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                Structure<?> s = b.layer.getStructure(x + x1, y + y1);
+                if (s != null && s.getNearbyBooster() == b) s.setNearbyBooster(findCovering(s));
+            }
+        }
+
+        if (b.meshMode) rebuildMeshes();
+        b.leaveMesh();
+    }
+
+    /**
+     * Gives a newly placed structure the first booster covering it
+     */
+    public void onStructureAdded(Structure<?> s) {
+        if (boosters.size == 0 || s instanceof Booster || s instanceof CopperCable) return;
+        if (s.getNearbyBooster() == null) s.setNearbyBooster(findCovering(s));
+    }
+
+    public Booster findCovering(Structure<?> s) {
+        for (int i = s.getX() / BUCKET_SIZE; i <= (s.getX() + s.getWidth() - 1) / BUCKET_SIZE; i++) {
+            for (int j = s.getY() / BUCKET_SIZE; j <= (s.getY() + s.getHeight() - 1) / BUCKET_SIZE; j++) {
+                Array<Booster> bucket = buckets.get(bucketKey(i, j));
+                if (bucket == null) continue;
+                for (Booster b : bucket)
+                    if (b.covers(s)) return b;
+            }
+        }
+        return null;
+    }
+
+    public void setMeshMode(Booster b, boolean meshMode) {
+        if (b.meshMode == meshMode) return;
+        b.meshMode = meshMode;
+        if (!boosters.contains(b, true)) return;
+
+        if (meshMode) joinMesh(b);
+        else {
+            rebuildMeshes();
+            b.leaveMesh();
+        }
+    }
+
+    /**
+     * Unions the booster with all overlapping boosters in mesh mode
+     */
+    private void joinMesh(Booster b) {
+        collectCandidates(b);
+        for (Booster o : candidates) {
+            if (o != b && o.meshMode && (b.covers(o) || o.covers(b))) union(b, o);
+        }
+        candidates.clear();
+
+        deriveMesh(find(b));
+    }
+
+    /**
+     * Splitting a union find is not possible, so after a booster leaves all meshes are rebuilt
+     */
+    private void rebuildMeshes() {
+        for (Booster b : boosters) {
+            b.meshParent = b;
+            b.meshRank = 0;
+            b.meshEdges = new HashSet<>();
+        }
+
+        for (Booster b : boosters) {
+            if (!b.meshMode) continue;
+
+            collectCandidates(b);
+            for (Booster o : candidates) {
+                if (o != b && o.meshMode && (b.covers(o) || o.covers(b))) union(b, o);
+            }
+            candidates.clear();
+        }
+
+        for (Booster b : boosters) {
+            if (!b.meshMode) b.leaveMesh();
+            else if (find(b) == b) deriveMesh(b);
+        }
+    }
+
+    private void collectCandidates(Booster b) {
+        int x1 = b.getAreaX(), y1 = b.getAreaY(), size = b.getAreaSize();
+        for (int i = Math.max(0, x1) / BUCKET_SIZE; i <= (x1 + size - 1) / BUCKET_SIZE; i++) {
+            for (int j = Math.max(0, y1) / BUCKET_SIZE; j <= (y1 + size - 1) / BUCKET_SIZE; j++) {
+                Array<Booster> bucket = buckets.get(bucketKey(i, j));
+                if (bucket != null) candidates.addAll(bucket);
+            }
+        }
+    }
+
+    private Booster find(Booster b) {
+        while (b.meshParent != b) {
+            b.meshParent = b.meshParent.meshParent;
+            b = b.meshParent;
+        }
+        return b;
+    }
+
+    private void union(Booster a, Booster b) {
+        Booster ra = find(a), rb = find(b);
+        if (ra == rb) return;
+
+        // edges of the spanning tree, for drawing
+        HashSet<Pair<Booster, Booster>> edges = ra.meshEdges;
+        edges.addAll(rb.meshEdges);
+        edges.add(new Pair<Booster, Booster>().set(a, b));
+
+        if (ra.meshRank < rb.meshRank) {
+            Booster t = ra;
+            ra = rb;
+            rb = t;
+        }
+        rb.meshParent = ra;
+        if (ra.meshRank == rb.meshRank) ra.meshRank++;
+        ra.meshEdges = edges;
+    }
+
+    /**
+     * Hands the state of the mesh with the given root to all its members, the host being the one with the lowest index
+     */
+    private void deriveMesh(Booster root) {
+        members.clear();
+        Booster host = root;
+        for (Booster b : boosters) {
+            if (b.meshMode && find(b) == root) {
+                members.add(b);
+                if (b.getX() * b.layer.height + b.getY() < host.getX() * host.layer.height + host.getY()) host = b;
+            }
+        }
+
+        for (Booster b : members) {
+            b.mesh.clear();
+            for (Booster o : members)
+                if (o != b) b.mesh.add(o);
+            b.meshEdges = root.meshEdges;
+            b.meshHost = host;
+        }
+        members.clear();
+    }
+
+    private static int bucketKey(int i, int j) {
+        return (i << 16) | j;
+    }
+}
@@ -16,10 +16,11 @@
 
 package de.dakror.quarry.structure;
 
+import java.util.Arrays;
+
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.WindowedMean;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.ui.Container;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
@@ -48,6 +49,7 @@ import de.dakror.quarry.structure.base.StructureType;
 import de.dakror.quarry.structure.base.component.CTank;
 import de.dakror.quarry.structure.power.Substation;
 import de.dakror.quarry.util.Bounds;
+import de.dakror.quarry.util.MetricsArena;
 import de.dakror.quarry.util.Sfx;
 import de.dakror.quarry.util.SpriterDelegateBatch;
 
@@ -82,11 +84,13 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
 
     public static final DistillationRecipe recipe = new DistillationRecipe();
 
+    public static final int MAX_LEVELS = 3;
+
     static final TextureRegion top = Quarry.Q.atlas.findRegion("structure_distillationcolumn_top");
 
     double powerLevel;
     boolean noPower;
-    final WindowedMean powerLevelMean = new WindowedMean(60);
+    int powerLevelMetric = -1;
     protected int framesPassedWithPower;
 
     int level;
@@ -94,9 +98,13 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
     float workingTime;
 
     CTank inputTank;
-    CTank outputTank0, outputTank1, outputTank2;
+    CTank outputTank;
 
-    DistillationColumn level1, level2;
+    // bottom of the stack, which simulates all levels. upper levels only receive power and hold their tank
+    DistillationColumn base;
+    // only set on the base, indexed by level
+    final DistillationColumn[] stack = new DistillationColumn[MAX_LEVELS];
+    int stackSize;
 
     protected Container<Actor> ui;
 
@@ -104,7 +112,7 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
         super(x, y, classSchema);
         level = 0;
         inputTank = (CTank) components[0];
-        outputTank0 = (CTank) components[1];
+        outputTank = (CTank) components[1];
         workingTime = -1;
     }
 
@@ -118,6 +126,11 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
         return false;
     }
 
+    @Override
+    public boolean canAcceptFluid(int dock, ItemType item, int x, int y, Direction dir) {
+        return dock == 2 && item == ItemType.IntermediateOilToColumn && inputTank.hasSpace();
+    }
+
     @Override
     public int acceptFluid(ItemType item, int amount, Structure<?> source) {
         if (item == ItemType.IntermediateOilToColumn) {
@@ -147,17 +160,7 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
     }
 
     public int getLevels() {
-        if (level == 0) {
-            if (level2 != null && level1 != null) return 3;
-            if (level1 != null) return 2;
-            return 1;
-        } else {
-            Structure<?> level0 = layer.getStructure(x - getWidth() * level * upDirection.dx,
-                    y - getHeight() * level * upDirection.dy);
-
-            if (level0 == null || !(level0 instanceof DistillationColumn)) return 1;
-            else return ((DistillationColumn) level0).getLevels();
-        }
+        return base == null ? 1 : base.stackSize;
     }
 
     @Override
@@ -180,48 +183,66 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
         return recipe.power;
     }
 
-    private void updateLevels() {
-        Structure<?> s = layer.getStructure(x + getWidth() * upDirection.dx, y + getHeight() * upDirection.dy);
-        if (s instanceof DistillationColumn
-                && s.x == x + getWidth() * upDirection.dx && s.y == y + getHeight() * upDirection.dy) {
-            level1 = (DistillationColumn) s;
-            outputTank1 = (CTank) s.getComponents()[1];
-            level1.setLevel(1);
-            level1.setDirty();
-
-            s = layer.getStructure(x + getWidth() * 2 * upDirection.dx, y + getHeight() * 2 * upDirection.dy);
-            if (s instanceof DistillationColumn
-                    && s.x == x + getWidth() * 2 * upDirection.dx && s.y == y + getHeight() * 2 * upDirection.dy) {
-                level2 = (DistillationColumn) s;
-                outputTank2 = (CTank) s.getComponents()[1];
-                level2.setLevel(2);
-                level2.setDirty();
-            } else {
-                level2 = null;
-                outputTank2 = null;
+    private DistillationColumn getAdjacent(int dir, Structure<?> exclude) {
+        int nx = x + getWidth() * dir * upDirection.dx;
+        int ny = y + getHeight() * dir * upDirection.dy;
+        Structure<?> s = layer.getStructure(nx, ny);
+        if (s != exclude && s instanceof DistillationColumn && s.x == nx && s.y == ny) return (DistillationColumn) s;
+        return null;
+    }
+
+    /**
+     * Finds the bottom of the stack this column is part of and relinks it
+     */
+    private void restack(Structure<?> exclude) {
+        // previews are never linked, even if they carry a layer
+        if (layer == null || layer.getStructure(x, y) != this) return;
+
+        DistillationColumn bottom = this;
+        DistillationColumn below;
+        while ((below = bottom.getAdjacent(-1, exclude)) != null)
+            bottom = below;
+        bottom.linkStack(exclude);
+    }
+
+    /**
+     * Makes this column the base of all columns stacked on top of it
+     */
+    private void linkStack(Structure<?> exclude) {
+        stackSize = 0;
+        DistillationColumn c = this;
+        for (int i = 0; c != null; i++) {
+            if (c != this) {
+                c.stackSize = 0;
+                Arrays.fill(c.stack, null);
             }
-        } else {
-            level1 = null;
-            outputTank1 = null;
-            level2 = null;
-            outputTank2 = null;
+            c.base = this;
+            c.level = i;
+            if (i < MAX_LEVELS) stack[stackSize++] = c;
+            c = c.getAdjacent(1, exclude);
         }
+        for (int i = stackSize; i < MAX_LEVELS; i++)
+            stack[i] = null;
+    }
+
+    @Override
+    public void onPlacement(boolean fromLoading) {
+        super.onPlacement(fromLoading);
+        // loaded stacks are linked in postLoad, once all of their levels exist
+        if (!fromLoading && layer != null) restack(null);
     }
 
     @Override
     public void postLoad() {
         super.postLoad();
-        if (level == 0)
-            updateLevels();
+        if (getAdjacent(-1, null) == null) linkStack(null);
     }
 
-    private void updateLevel(DistillationColumn level, double deltaTime, int gameSpeed) {
-        if (level == null) return;
-
+    private void updateLevel(DistillationColumn level, double deltaTime, int gameSpeed, boolean working) {
         if (gameSpeed == 0) {
-            level.powerLevelMean.addValue(level.powerLevelMean.getLatest());
+            level.powerLevelMetric = MetricsArena.POWER.add(level.powerLevelMetric, MetricsArena.POWER.getLatest(level.powerLevelMetric));
         } else {
-            level.powerLevelMean.addValue((float) level.powerLevel);
+            level.powerLevelMetric = MetricsArena.POWER.add(level.powerLevelMetric, (float) level.powerLevel);
         }
 
         if (sleeping) {
@@ -229,10 +250,10 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
             return;
         }
 
-        if (gameSpeed == 0 || (workingTime == -1) || !canWork()) {
-            level.pauseSfx();
-        } else {
+        if (working) {
             level.playSfx();
+        } else {
+            level.pauseSfx();
         }
 
         if (workingTime > -1 && gameSpeed > 0) {
@@ -250,68 +271,72 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
     }
 
     private boolean canWork() {
-        return inputTank.getCount() >= recipe.inputOil && !noPower && outputTank0.hasSpace()
-                && (level1 == null || level1.isSleeping() || (!level1.noPower && outputTank1.hasSpace()))
-                && (level2 == null || level2.isSleeping() || (!level2.noPower && outputTank2.hasSpace()));
+        if (inputTank.getCount() < recipe.inputOil || noPower || !outputTank.hasSpace()) return false;
+
+        for (int i = 1; i < stackSize; i++) {
+            DistillationColumn c = stack[i];
+            if (!c.isSleeping() && (c.noPower || !c.outputTank.hasSpace())) return false;
+        }
+        return true;
+    }
+
+    private float getPowerSpeedScale() {
+        return Math.max(0, (MetricsArena.POWER.getMean(powerLevelMetric) / recipe.power) * 2 - 1);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        MetricsArena.POWER.free(powerLevelMetric);
+        powerLevelMetric = -1;
+
+        // this column is still in the layer, so it has to be skipped while relinking
+        if (layer != null && base != null) {
+            DistillationColumn below = getAdjacent(-1, null);
+            DistillationColumn above = getAdjacent(1, null);
+            if (below != null) below.restack(this);
+            if (above != null) above.linkStack(this);
+        }
+        base = null;
+        stackSize = 0;
+        Arrays.fill(stack, null);
     }
 
     @Override
     public void update(double deltaTime, int gameSpeed, Bounds dirtyBounds) {
         super.update(deltaTime, gameSpeed, dirtyBounds);
 
-        if (dirtyBounds.hasAnyFlag(Bounds.Flags.DESTRUCTION | Bounds.Flags.DISTILLATIONCOLUMN)) {
-            setLevel(0);
-            Structure<?> s = layer.getStructure(x - getWidth() * upDirection.dx, y - getHeight() * upDirection.dy);
-            if (s instanceof DistillationColumn && s.x == x - s.getWidth() * upDirection.dx && s.y == y - s.getHeight() * upDirection.dy) {
-                setLevel(((DistillationColumn) s).getLevel() + 1);
-                setDirty();
-            }
-        }
+        // upper levels are simulated by their base
+        if (base != this) return;
 
-        if (level == 0) {
-            updateLevel(this, deltaTime, gameSpeed);
-            updateLevel(level1, deltaTime, gameSpeed);
-            updateLevel(level2, deltaTime, gameSpeed);
-
-            // working starts at >50% of power but at 0% of speed
-            // for upper levels, power determines yield
-
-            float powerSpeedScale = Math.max(0, (powerLevelMean.getMean() / recipe.power) * 2 - 1);
-
-            if (canWork() && workingTime >= 0) {
-                workingTime -= deltaTime * gameSpeed * powerSpeedScale;
-                if (workingTime <= 0) {
-                    inputTank.removeWithRest(ItemType.IntermediateOilToColumn, recipe.inputOil);
-                    outputTank0.addUnsafe(ItemType.IntermediateOilToRefinery, recipe.outputOil);
-                    if (level1 != null && !level1.isSleeping()) {
-                        float level1PowerSpeedScale = Math.max(0, (level1.powerLevelMean.getMean() / recipe.power) * 2 - 1);
-                        outputTank1.addUnsafe(ItemType.Lubricant, (int) (recipe.outputLubricant * level1PowerSpeedScale));
-
-                        // level 2 scaling off of level1 & 2 power
-                        if (level2 != null && !level2.isSleeping()) {
-                            float level2PowerSpeedScale = Math.max(0, (level2.powerLevelMean.getMean() / recipe.power) * 2 - 1) * level1PowerSpeedScale;
-                            outputTank2.addUnsafe(ItemType.NaturalGas, (int) (recipe.outputGas * level2PowerSpeedScale));
-                        }
-                    }
-
-                    workingTime = -1;
+        boolean working = gameSpeed > 0 && workingTime != -1 && canWork();
+        for (int i = 0; i < stackSize; i++)
+            updateLevel(stack[i], deltaTime, gameSpeed, working);
+
+        // working starts at >50% of power but at 0% of speed
+        // for upper levels, power determines yield
+
+        if (canWork() && workingTime >= 0) {
+            workingTime -= deltaTime * gameSpeed * getPowerSpeedScale();
+            if (workingTime <= 0) {
+                inputTank.removeWithRest(ItemType.IntermediateOilToColumn, recipe.inputOil);
+                outputTank.addUnsafe(ItemType.IntermediateOilToRefinery, recipe.outputOil);
+
+                // each level scales off of its own power and the power of all levels below
+                float scale = 1;
+                for (int i = 1; i < stackSize && !stack[i].isSleeping(); i++) {
+                    scale *= stack[i].getPowerSpeedScale();
+                    if (i == 1) stack[i].outputTank.addUnsafe(ItemType.Lubricant, (int) (recipe.outputLubricant * scale));
+                    else stack[i].outputTank.addUnsafe(ItemType.NaturalGas, (int) (recipe.outputGas * scale));
                 }
-            }
 
-            // update recipe working
-            if (workingTime == -1 && inputTank.getCount() >= recipe.inputOil) {
-                workingTime = recipe.workingTime;
+                workingTime = -1;
             }
-
         }
-    }
-
-    @Override
-    public void postUpdate(Bounds dirtyBounds) {
-        super.postUpdate(dirtyBounds);
 
-        if (level == 0 && dirtyBounds.hasFlag(Bounds.Flags.DISTILLATIONCOLUMN)) {
-            updateLevels();
+        // update recipe working
+        if (workingTime == -1 && inputTank.getCount() >= recipe.inputOil) {
+            workingTime = recipe.workingTime;
         }
     }
 
@@ -359,7 +384,7 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
     public void drawFrame(SpriteRenderer spriter, ShapeRenderer shaper, SpriterDelegateBatch pfxBatch) {
         super.drawFrame(spriter, shaper, pfxBatch);
 
-        float scale = powerLevelMean.getMean() / recipe.power;
+        float scale = MetricsArena.POWER.getMean(powerLevelMetric) / recipe.power;
         if (scale > 0)
             spriter.add(x * Const.TILE_SIZE + 1, y * Const.TILE_SIZE + 1, Const.Z_STATES,
                     4, getHeight() * Const.TILE_SIZE * scale - 2,
@@ -368,26 +393,23 @@ public class DistillationColumn extends PausableStructure<PausableSchema> {
 
         drawBoostState(spriter);
 
-        if (!outputTank0.hasSpace()) {
+        if (!outputTank.hasSpace()) {
             drawFullState(spriter);
         }
 
-        if (level == 0) {
+        if (base == this) {
             if (workingTime > 0) {
                 if (framesPassedWithPower < 10) {
                     float size = Const.STATE_SIZE * (1 + 0.3f * (MathUtils.sin(time * 2 * MathUtils.PI) * 0.5f + 0.5f));
                     spriter.add(ProducerStructure.nopowerTex, (x + getWidth()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f * 2,
                             (y + getHeight()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f * 2, Const.Z_STATES, size, size);
                 }
-                if (level1 != null && level1.framesPassedWithPower < 10) {
-                    float size = Const.STATE_SIZE * (1 + 0.3f * (MathUtils.sin(time * 2 * MathUtils.PI) * 0.5f + 0.5f));
-                    spriter.add(ProducerStructure.nopowerTex, (level1.x + getWidth()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f * 3,
-                            (level1.y + getHeight()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f, Const.Z_STATES, size, size);
-                }
-                if (level2 != null && level2.framesPassedWithPower < 10) {
+                for (int i = 1; i < stackSize; i++) {
+                    DistillationColumn c = stack[i];
+                    if (c.framesPassedWithPower >= 10) continue;
                     float size = Const.STATE_SIZE * (1 + 0.3f * (MathUtils.sin(time * 2 * MathUtils.PI) * 0.5f + 0.5f));
-                    spriter.add(ProducerStructure.nopowerTex, (level2.x + getWidth()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f * 3,
-                            (level2.y + getHeight()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f, Const.Z_STATES, size, size);
+                    spriter.add(ProducerStructure.nopowerTex, (c.x + getWidth()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f * 3,
+                            (c.y + getHeight()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f, Const.Z_STATES, size, size);
                 }
 
                 shaper.setColor(0, 0.5f, 0, 1);
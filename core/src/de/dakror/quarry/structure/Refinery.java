@@ -18,7 +18,6 @@ package de.dakror.quarry.structure;
 
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.WindowedMean;
 import com.badlogic.gdx.scenes.scene2d.ui.Container;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
@@ -50,6 +49,7 @@ import de.dakror.quarry.structure.base.component.CTank;
 import de.dakror.quarry.structure.logistics.Valve;
 import de.dakror.quarry.structure.power.Substation;
 import de.dakror.quarry.util.Bounds;
+import de.dakror.quarry.util.MetricsArena;
 import de.dakror.quarry.util.Sfx;
 import de.dakror.quarry.util.SpriterDelegateBatch;
 
@@ -102,7 +102,7 @@ public class Refinery extends PausableStructure<PausableSchema> {
     float workingTime1;
 
     double powerLevel;
-    private final WindowedMean powerLevelMean = new WindowedMean(60);
+    private int powerLevelMetric = -1;
     boolean noPower;
     protected int framesPassedWithPower;
 
@@ -216,6 +216,13 @@ public class Refinery extends PausableStructure<PausableSchema> {
         return false;
     }
 
+    @Override
+    public boolean canAcceptFluid(int dock, ItemType item, int x, int y, Direction dir) {
+        if (item == ItemType.CrudeOil) return dock == 1 && t0.hasSpace();
+        if (item == ItemType.IntermediateOilToRefinery) return dock >= 2 && dock % 2 == 0 && t1.hasSpace();
+        return false;
+    }
+
     @Override
     public int acceptFluid(ItemType item, int amount, Structure<?> source) {
         if (item == ItemType.CrudeOil) {
@@ -248,7 +255,7 @@ public class Refinery extends PausableStructure<PausableSchema> {
                     (y + getHeight()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f * 2, Const.Z_STATES, size, size);
         }
 
-        float scale = powerLevelMean.getMean() / recipe.power;
+        float scale = MetricsArena.POWER.getMean(powerLevelMetric) / recipe.power;
         if (scale > 0)
             spriter.add(x * Const.TILE_SIZE + 1, y * Const.TILE_SIZE + 1, Const.Z_STATES,
                     4, getHeight() * Const.TILE_SIZE * scale - 2,
@@ -262,14 +269,21 @@ public class Refinery extends PausableStructure<PausableSchema> {
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        MetricsArena.POWER.free(powerLevelMetric);
+        powerLevelMetric = -1;
+    }
+
     @Override
     public void update(double deltaTime, int gameSpeed, Bounds dirtyBounds) {
         super.update(deltaTime, gameSpeed, dirtyBounds);
 
         if (gameSpeed == 0) {
-            powerLevelMean.addValue(powerLevelMean.getLatest());
+            powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, MetricsArena.POWER.getLatest(powerLevelMetric));
         } else {
-            powerLevelMean.addValue((float) powerLevel);
+            powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, (float) powerLevel);
         }
 
         if (dirtyBounds.touches(this)) {
@@ -311,7 +325,7 @@ public class Refinery extends PausableStructure<PausableSchema> {
         }
 
         // working starts at >50% of power but at 0% of speed
-        float powerSpeedScale = Math.max(0, (powerLevelMean.getMean() / recipe.power) * 2 - 1);
+        float powerSpeedScale = Math.max(0, (MetricsArena.POWER.getMean(powerLevelMetric) / recipe.power) * 2 - 1);
 
         if (t0.getCount() >= recipe.crudeInput && enabledOutputs > 0 && workingTime0 >= 0 && !noPower) {
 
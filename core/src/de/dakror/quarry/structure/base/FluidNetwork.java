@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright 2018 Maximilian Stark | Dakror <mail@dakror.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.dakror.quarry.structure.base;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+import de.dakror.quarry.game.Item;
+import de.dakror.quarry.game.Item.FluidType;
+import de.dakror.quarry.game.Item.ItemType;
+import de.dakror.quarry.structure.base.Dock.DockType;
+
+/**
+ * Connected tubes of the same kind and fluid, simulated as one shared volume.
+ * Producers, tanks and other networks are pushed into through the outlets at the network's border,
+ * everything else pushes into the network through {@link FluidTubeStructure#acceptFluid(ItemType, int, Structure)} of any member.
+ * The per tube fluid level is only derived for rendering and saving.
+ *
+ * @author Maximilian Stark | Dakror
+ */
+public class FluidNetwork {
+    private static final Array<FluidTubeStructure> stack = new Array<>();
+
+    final Array<FluidTubeStructure> tubes = new Array<>();
+
+    // tube index * 4 + side of every neighbor the network can push into
+    final IntArray outlets = new IntArray();
+
+    final int tubeCapacity;
+
+    ItemType fluidItem;
+    FluidType fluid;
+    int volume;
+    float delay;
+
+    boolean dissolved;
+
+    private FluidNetwork(int tubeCapacity) {
+        this.tubeCapacity = tubeCapacity;
+    }
+
+    /**
+     * Flood fills all tubes connected to start into a new network.
+     * Tubes that already belong to a network are left alone.
+     */
+    static FluidNetwork build(FluidTubeStructure start) {
+        FluidNetwork n = new FluidNetwork(start.getSchema().maxFluid);
+
+        stack.clear();
+        n.push(start);
+
+        while (stack.size > 0) {
+            FluidTubeStructure t = stack.pop();
+            t.networkIndex = n.tubes.size;
+            n.tubes.add(t);
+
+            n.volume += t.fluidLevel;
+
+            for (int i = 0; i < 4; i++) {
+                Structure<?> s = t.structures[i];
+                if (!(s instanceof FluidTubeStructure)) continue;
+
+                FluidTubeStructure o = (FluidTubeStructure) s;
+                if (o.network == null && n.canMerge(t, o, i)) n.push(o);
+            }
+        }
+
+        for (int j = 0; j < n.tubes.size; j++) {
+            FluidTubeStructure t = n.tubes.get(j);
+            for (int i = 0; i < 4; i++) {
+                Structure<?> s = t.structures[i];
+                if (s == null || t.types[i] == DockType.FluidOut) continue;
+                if (s instanceof FluidTubeStructure && ((FluidTubeStructure) s).network == n) continue;
+
+                n.outlets.add(j * 4 + i);
+            }
+        }
+
+        if (n.volume == 0) {
+            n.fluidItem = null;
+            n.fluid = null;
+            n.delay = 0;
+        }
+
+        stack.clear();
+
+        return n;
+    }
+
+    /**
+     * Queues the tube and commits the network to its fluid right away, so no tube holding another fluid
+     * can be queued after it, no matter in which order they are visited
+     */
+    private void push(FluidTubeStructure t) {
+        t.network = this;
+        stack.add(t);
+
+        if (fluidItem == null && t.fluidItem != null && t.fluidLevel > 0) {
+            fluidItem = t.fluidItem;
+            fluid = t.fluid;
+            delay = t.delay;
+        }
+    }
+
+    private boolean canMerge(FluidTubeStructure t, FluidTubeStructure o, int side) {
+        if (!o.joinsNetwork() || o.getClass() != t.getClass() || o.layer != t.layer) return false;
+
+        // only mutual connections
+        if (o.structures[Direction.values[side].inv().ordinal()] != t) return false;
+
+        return o.fluidItem == null || o.fluidLevel == 0 || fluidItem == null || o.fluidItem == fluidItem;
+    }
+
+    /**
+     * Writes the shared volume back into the tubes and detaches them, so the network gets rebuilt
+     */
+    void dissolve() {
+        if (dissolved) return;
+        dissolved = true;
+
+        for (int i = 0; i < tubes.size; i++) {
+            FluidTubeStructure t = tubes.get(i);
+            t.fluidLevel = getLevel(i);
+            if (t.fluidLevel > 0) {
+                t.fluidItem = fluidItem;
+                t.fluid = fluid;
+                t.delay = delay;
+            } else {
+                t.fluidItem = null;
+                t.fluid = null;
+                t.delay = 0;
+            }
+            t.network = null;
+        }
+
+        tubes.clear();
+        outlets.clear();
+    }
+
+    boolean isLead(FluidTubeStructure t) {
+        return tubes.size > 0 && tubes.first() == t;
+    }
+
+    /**
+     * @return the share of the volume of the tube at the given index, the rest being spread over the first tubes
+     */
+    int getLevel(int tubeIndex) {
+        int n = tubes.size;
+        if (n == 0) return 0;
+        return volume / n + (tubeIndex < volume % n ? 1 : 0);
+    }
+
+    int getCapacity() {
+        return tubes.size * tubeCapacity;
+    }
+
+    /**
+     * @return the amount of fluid passing into a single outlet per push at most
+     */
+    public int getThroughput() {
+        if (fluid == null) return tubeCapacity;
+        return (int) Math.ceil(tubeCapacity * fluid.pressure);
+    }
+
+    boolean canAccept(ItemType item) {
+        if (volume >= getCapacity()) return false;
+        if (fluidItem != null) return item == fluidItem;
+        return tubes.size > 0 && tubes.first().isAllowedFluid(item);
+    }
+
+    int add(ItemType item, int amount) {
+        int capacity = getCapacity();
+        if (volume >= capacity) return amount;
+        if (fluidItem != null && item != fluidItem) return amount;
+
+        if (fluidItem == null) {
+            if (tubes.size == 0 || !tubes.first().isAllowedFluid(item)) return amount;
+            fluid = Item.fluid((byte) item.value);
+            fluidItem = item;
+        }
+
+        if (delay <= 0) delay = fluid.viscosity;
+
+        int added = Math.min(capacity - volume, amount);
+        volume += added;
+
+        return amount - added;
+    }
+
+    void update(double deltaTime, int gameSpeed) {
+        if (volume <= 0 && fluid != null) {
+            volume = 0;
+            fluid = null;
+            fluidItem = null;
+            delay = 0;
+        }
+
+        if (gameSpeed == 0) return;
+
+        for (int i = 0; i < outlets.size; i++) {
+            int o = outlets.items[i];
+            FluidTubeStructure t = tubes.get(o / 4);
+            if (t.decuppleTime[o % 4] > 0) {
+                t.decuppleTime[o % 4] = Math.max(0, t.decuppleTime[o % 4] - (float) (deltaTime * gameSpeed));
+            }
+        }
+
+        if (fluid == null) return;
+
+        delay -= deltaTime * gameSpeed;
+        if (delay > 0) return;
+
+        int throughput = getThroughput();
+
+        for (int i = 0; i < outlets.size && volume > 0; i++) {
+            int o = outlets.items[i];
+            int tubeIndex = o / 4;
+            int side = o % 4;
+            FluidTubeStructure t = tubes.get(tubeIndex);
+            Structure<?> s = t.structures[side];
+
+            if (s == null || !s.canAcceptFluid(t.inputDocks[side], fluidItem, t.x, t.y, Direction.values[side])) continue;
+
+            int level = getLevel(tubeIndex);
+            int dif;
+            if (s instanceof FluidTubeStructure && ((FluidTubeStructure) s).joinsNetwork()) {
+                int other = ((FluidTubeStructure) s).getFluidLevel();
+                dif = level > other ? level - other : 0;
+            } else {
+                dif = level;
+            }
+
+            dif = Math.min(Math.min((int) Math.ceil(dif * fluid.pressure), throughput), volume);
+
+            if (dif > 0) {
+                volume = volume - dif + s.acceptFluid(t.inputDocks[side], fluidItem, dif, t);
+                t.decuppleTime[side] = FluidTubeStructure.decupple;
+            }
+        }
+
+        delay = fluid.viscosity;
+    }
+}
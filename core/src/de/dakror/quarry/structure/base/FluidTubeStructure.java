@@ -85,10 +85,16 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
     protected int[] structs;
     protected Structure<?>[] structures = new Structure[4];
     protected DockType[] types = new DockType[4];
+    // fluid input dock of each neighbor, see Structure#getFluidInputDock
+    protected int[] inputDocks = { -1, -1, -1, -1 };
 
     // determines when to cut the connection to or from Docks (only visually) gets renewed when acceptFluid is called
     protected float[] decuppleTime = new float[4];
 
+    // while set, the fluid state of this tube is held by the network
+    FluidNetwork network;
+    int networkIndex;
+
     Table ui;
     Container<Table> container;
     ItemType uiType;
@@ -111,8 +117,31 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
         });
     }
 
+    /**
+     * @return whether this tube gets merged with its neighbors into a {@link FluidNetwork}
+     */
+    protected boolean joinsNetwork() {
+        return true;
+    }
+
+    public FluidNetwork getNetwork() {
+        return network;
+    }
+
+    public int getFluidLevel() {
+        if (network != null) return network.getLevel(networkIndex);
+        return fluidLevel;
+    }
+
+    public ItemType getFluidItem() {
+        if (network != null) return network.getLevel(networkIndex) > 0 ? network.fluidItem : null;
+        return fluidItem;
+    }
+
     @Override
     public boolean canAccept(ItemType item, int x, int y, Direction dir) {
+        if (network != null) return network.canAccept(item);
+
         if (fluidLevel >= getSchema().maxFluid) return false;
         if (fluid != null) return item == fluidItem;
         else return isAllowedFluid(item);
@@ -122,6 +151,12 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
 
     @Override
     public int acceptFluid(ItemType item, int amount, Structure<?> source) {
+        if (network != null) {
+            int rest = network.add(item, amount);
+            if (clicked) updateUI();
+            return rest;
+        }
+
         if (fluidLevel >= getSchema().maxFluid) return amount;
         if (fluid != null && item != fluidItem) return amount;
 
@@ -146,6 +181,15 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
 
         if (dirtyBounds.touches(this) || layer == null) {
             updateStructures();
+
+            // topology changed, gets rebuilt in postUpdate
+            if (network != null) network.dissolve();
+        }
+
+        if (network != null) {
+            if (network.isLead(this)) network.update(deltaTime, gameSpeed);
+            if (clicked) updateUI();
+            return;
         }
 
         if (fluidLevel <= 0 && fluid != null) {
@@ -161,11 +205,12 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
 
         if (delay <= 0) {
             for (int i = 0; i < 4; i++) {
-                if (structures[i] != null && types[i] != DockType.FluidOut && structures[i].canAccept(fluidItem, x, y, Direction.values[i])) {
+                if (structures[i] != null && types[i] != DockType.FluidOut && structures[i].canAcceptFluid(inputDocks[i], fluidItem, x, y, Direction.values[i])) {
                     int dif = 0;
                     if (structures[i] instanceof FluidTubeStructure && !(structures[i] instanceof Valve)) {
-                        if (((FluidTubeStructure) structures[i]).fluidLevel < fluidLevel) {
-                            dif = fluidLevel - ((FluidTubeStructure) structures[i]).fluidLevel;
+                        int otherLevel = ((FluidTubeStructure) structures[i]).getFluidLevel();
+                        if (otherLevel < fluidLevel) {
+                            dif = fluidLevel - otherLevel;
                         }
                     } else {
                         dif = fluidLevel;
@@ -174,7 +219,7 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
                     dif = (int) Math.ceil(dif * fluid.pressure);
 
                     if (dif > 0) {
-                        fluidLevel = fluidLevel - dif + structures[i].acceptFluid(fluidItem, dif, this);
+                        fluidLevel = fluidLevel - dif + structures[i].acceptFluid(inputDocks[i], fluidItem, dif, this);
                         decuppleTime[i] = decupple;
                     }
                 }
@@ -195,6 +240,15 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
         }
     }
 
+    @Override
+    public void postUpdate(Bounds dirtyBounds) {
+        super.postUpdate(dirtyBounds);
+
+        if (network == null && layer != null && joinsNetwork()) {
+            FluidNetwork.build(this);
+        }
+    }
+
     @Override
     public void onPlacement(boolean fromLoading) {
         if (!fromLoading && layer == null) {
@@ -202,6 +256,13 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        if (network != null) network.dissolve();
+    }
+
     protected void updateStructures() {
         Layer l = layer == null ? Game.G.layer : layer;
         for (Direction d : Direction.values) {
@@ -229,13 +290,25 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
             types[d.ordinal()] = type;
             structures[d.ordinal()] = s;
         }
+
+        resolveInputDocks();
+    }
+
+    protected void resolveInputDocks() {
+        for (int i = 0; i < 4; i++) {
+            Structure<?> s = structures[i];
+            inputDocks[i] = s == null || types[i] == DockType.FluidOut ? -1 : s.getFluidInputDock(x, y, Direction.values[i]);
+        }
     }
 
     @Override
     public void drawFrame(SpriteRenderer spriter, ShapeRenderer shaper, SpriterDelegateBatch pfxBatch) {
         super.drawFrame(spriter, shaper, pfxBatch);
 
-        if (fluidLevel > 0) {
+        int fluidLevel = getFluidLevel();
+        FluidType fluid = network != null ? network.fluid : this.fluid;
+
+        if (fluidLevel > 0 && fluid != null) {
             float width = Math.max(1, 27.5f * (fluidLevel / (float) getSchema().maxFluid));
 
             float o = (Const.TILE_SIZE - width) / 2;
@@ -268,9 +341,10 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
         }
         b.IntArray("structs", str);
 
+        ItemType fluidItem = getFluidItem();
         if (fluidItem != null) {
             b.Short("fluid", fluidItem.value);
-            b.Short("level", (short) fluidLevel);
+            b.Short("level", (short) getFluidLevel());
         }
     }
 
@@ -293,6 +367,7 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
             for (int i = 0; i < 4; i++) {
                 this.structures[i] = CopyRegionHelper.getStructure(this, pasteRegion, str[i]);
             }
+            resolveInputDocks();
         } catch (NBTException e) {
             Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
         }
@@ -327,10 +402,14 @@ public abstract class FluidTubeStructure extends Structure<FluidTubeSchema> impl
             for (int i = 0; i < 4; i++)
                 structures[i] = (structs[i] == -1 ? null : layer.getStructure(structs[i]));
             structs = null;
+            resolveInputDocks();
         }
     }
 
     private void updateUI() {
+        int fluidLevel = getFluidLevel();
+        ItemType fluidItem = getFluidItem();
+
         if (container == null) {
             container = new Container<>();
         }
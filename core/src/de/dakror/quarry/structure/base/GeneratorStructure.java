@@ -72,7 +72,7 @@ public abstract class GeneratorStructure extends ProducerStructure {
     }
 
     protected void offerPower(double deltaTime, int gameSpeed) {
-        if (sleeping || activeRecipe == null || !(hasCapacity = hasCapacityForProduction())
+        if (sleeping || activeRecipe == null || !checkCapacity()
                 || noPower || workDelay == -1 || additionalWorkBlockingCondition() || gameSpeed == 0) {
             return;
         }
@@ -85,8 +85,10 @@ public abstract class GeneratorStructure extends ProducerStructure {
     @Override
     protected void setRecipe(int index) {
         setItemNotifications();
+        capacityDirty = true;
         activeRecipeIndex = index;
         if (index > -1) {
+            setStarved(false);
             activeRecipe = getSchema().recipeList.recipes[activeRecipeIndex];
             workDelay = activeRecipe.workingTime;
         } else {
@@ -63,7 +63,7 @@ public abstract class OvenStructure extends ProducerStructure {
 
         this.pfxBatch = pfxBatch;
 
-        if (sleeping || activeRecipe == null || !(hasCapacity = hasCapacityForProduction()) || noPower)
+        if (sleeping || activeRecipe == null || !checkCapacity() || noPower)
             return;
 
         if (pfxBatch != null && pfx != null) {
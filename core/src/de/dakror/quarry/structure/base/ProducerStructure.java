@@ -21,7 +21,6 @@ import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer.ShapeType;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.WindowedMean;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.ui.Container;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
@@ -56,6 +55,7 @@ import de.dakror.quarry.structure.base.component.Component;
 import de.dakror.quarry.structure.base.component.IStorage;
 import de.dakror.quarry.structure.power.Substation;
 import de.dakror.quarry.util.Bounds;
+import de.dakror.quarry.util.MetricsArena;
 import de.dakror.quarry.util.Sfx;
 import de.dakror.quarry.util.SpriterDelegateBatch;
 
@@ -96,6 +96,8 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
 
     protected final IStorage[] inputInventories;
     protected final IStorage[] outputInventories;
+    // index into inputInventories for every dock, -1 for outputs
+    protected final int[] inputSlots;
     protected Items activeItems;
 
     protected boolean hasCapacity;
@@ -103,11 +105,17 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
     protected double powerLevel;
     protected double powerCapacity;
 
-    protected final WindowedMean powerLevelMean = new WindowedMean(60);
+    protected int powerLevelMetric = -1;
+
+    // set whenever the recipe or the outputs change, so a backed up producer doesn't recheck its outputs every frame
+    protected boolean capacityDirty = true;
 
     protected boolean noPower;
     protected int framesPassedWithPower;
 
+    // waiting for inputs with nothing left to pump out. the chunk leaves it out of the update until an input arrives
+    protected boolean starved;
+
     protected Container<Actor> ui;
     protected Label timeLabel;
 
@@ -115,12 +123,21 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
 
     public static final TextureRegion nopowerTex = Quarry.Q.atlas.findRegion("state_nopower");
 
+    // scratch space for the item lookups when picking a recipe, only used on the update thread
+    private static final int[] matches = new int[ItemType.values.length];
+    private static final Bounds wakeBounds = new Bounds();
+
     protected ProducerStructure(int x, int y, ProducerSchema schema) {
         super(x, y, schema);
 
         inputInventories = new IStorage[schema.inputDocks];
         outputInventories = new IStorage[schema.outputDocks];
 
+        inputSlots = new int[docks.length];
+        for (int i = 0, in = 0; i < docks.length; i++) {
+            inputSlots[i] = docks[i].type == DockType.ItemIn || docks[i].type == DockType.FluidIn ? in++ : -1;
+        }
+
         initInventories();
     }
 
@@ -239,13 +256,7 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
             if (d.type == DockType.FluidIn && d.filter != null) {
                 if (inputInventories[i].hasSpace() && d.filter.accepts(item)) {
                     int rest = inputInventories[i].addWithRest(item, amount);
-
-                    if (isClicked())
-                        Game.G.ui.updateStructureUIInventory();
-
-                    if (activeRecipe == null) {
-                        pickRandomActiveRecipe();
-                    }
+                    onFluidAccepted();
                     return rest;
                 }
                 i++;
@@ -256,6 +267,38 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
         return amount;
     }
 
+    @Override
+    public boolean canAcceptFluid(int dock, ItemType item, int x, int y, Direction dir) {
+        if (dock == -1) return super.canAcceptFluid(dock, item, x, y, dir);
+
+        Dock d = docks[dock];
+        if (d.filter == null) return false;
+        CTank tank = (CTank) inputInventories[inputSlots[dock]];
+        return (tank.getFluid() == null || tank.getFluid() == item) && tank.hasSpace() && d.filter.accepts(item);
+    }
+
+    @Override
+    public int acceptFluid(int dock, ItemType item, int amount, Structure<?> source) {
+        if (dock == -1) return super.acceptFluid(dock, item, amount, source);
+
+        Dock d = docks[dock];
+        IStorage tank = inputInventories[inputSlots[dock]];
+        if (d.filter == null || !tank.hasSpace() || !d.filter.accepts(item)) return amount;
+
+        int rest = tank.addWithRest(item, amount);
+        onFluidAccepted();
+        return rest;
+    }
+
+    protected void onFluidAccepted() {
+        if (isClicked())
+            Game.G.ui.updateStructureUIInventory();
+
+        if (activeRecipe == null) {
+            pickRandomActiveRecipe();
+        }
+    }
+
     public IStorage[] getInputInventories() {
         return inputInventories;
     }
@@ -295,6 +338,8 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
     public void onDestroy() {
         super.onDestroy();
         stopSfx();
+        MetricsArena.POWER.free(powerLevelMetric);
+        powerLevelMetric = -1;
     }
 
     protected void pickRandomActiveRecipe() {
@@ -302,91 +347,56 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
         if (s.hasInputs) {
             // pick first suiting recipe according to filter inventory
             for (int index = 0; index < s.recipes.length; index++) {
+                if (!s.matches(index, inputInventories)) continue;
 
+                // resolve the actual items only for the recipe that gets picked
                 Recipe r = s.recipes[index];
-                boolean ready = true;
                 Amount[] inputs = new Amount[r.input.entries.length];
                 for (int i = 0; i < r.input.entries.length; i++) {
                     IStorage ci = inputInventories[i];
                     Amount en = r.input.entries[i];
                     if (en != null) {
                         if (en.getCat() != null) {
-                            Amount[] es = ci.get(en.getCat());
-                            if (es == null || es.length == 0) {
-                                ready = false;
-                                break;
-                            }
-
-                            int sum = 0;
-                            for (Amount e : es) {
-                                if (e != null) {
-                                    sum += e.getAmount();
-                                }
-                            }
-                            if (sum < en.getAmount()) {
-                                ready = false;
-                                break;
+                            int n = ci.get(en.getCat(), matches);
+                            if (n == 1 || (n > 1 && ci.get(ItemType.values[matches[0]]) == en.getAmount())) {
+                                inputs[i] = new Amount(ItemType.values[matches[0]], en.getAmount());
                             } else {
-                                if (es.length == 1 || es[0].getAmount() == en.getAmount()) {
-                                    inputs[i] = new Amount(es[0].getItem(), en.getAmount());
-                                } else {
-                                    inputs[i] = en;
-                                }
+                                inputs[i] = en;
                             }
                         } else if (en.getItem() == Item.base(en.getItem())) {
                             // else if the item given is a parent item like "Ore"
-                            Amount[] e = ci.getSimilar(en.getItem());
-                            if (e == null) {
-                                ready = false;
-                                break;
-                            }
-
-                            Amount correctAmount = null;
-
-                            for (Amount amount : e) {
-                                if (amount.getAmount() >= en.getAmount()) {
-                                    correctAmount = amount;
+                            int n = ci.getSimilar(en.getItem(), matches);
+                            for (int j = 0; j < n; j++) {
+                                ItemType t = ItemType.values[matches[j]];
+                                if (ci.get(t) >= en.getAmount()) {
+                                    inputs[i] = new Amount(t, en.getAmount());
                                     break;
                                 }
                             }
-
-                            if (correctAmount == null) {
-                                ready = false;
-                                break;
-                            }
-
-                            inputs[i] = new Amount(correctAmount.getItem(), en.getAmount());
                         } else {
                             // given item is a specific item like "CoalOre"
-                            int e = ci.get(en.getItem());
-                            if (e < en.getAmount()) {
-                                ready = false;
-                                break;
-                            }
                             inputs[i] = new Amount(en.getItem(), en.getAmount());
                         }
                     }
                 }
 
-                if (ready) {
-                    for (int i = 0; i < r.input.entries.length; i++) {
-                        Amount e = inputs[i];
-                        if (e != null) {
-                            if (e.getCat() != null) {
-                                inputInventories[i].remove(e.getCat(), e.getAmount());
-                            } else {
-                                inputInventories[i].remove(e.getItem(), e.getAmount());
-                            }
+                for (int i = 0; i < r.input.entries.length; i++) {
+                    Amount e = inputs[i];
+                    if (e != null) {
+                        if (e.getCat() != null) {
+                            inputInventories[i].remove(e.getCat(), e.getAmount());
+                        } else {
+                            inputInventories[i].remove(e.getItem(), e.getAmount());
                         }
                     }
+                }
 
-                    if (isClicked())
-                        Game.G.ui.updateStructureUIInventory();
+                if (isClicked())
+                    Game.G.ui.updateStructureUIInventory();
 
-                    activeItems = new Items(inputs);
-                    setRecipe(index);
-                    return;
-                }
+                activeItems = new Items(inputs);
+                setRecipe(index);
+                return;
             }
 
             setRecipe(-1);
@@ -397,8 +407,10 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
 
     protected void setRecipe(int index) {
         setItemNotifications();
+        capacityDirty = true;
         activeRecipeIndex = index;
         if (index > -1) {
+            setStarved(false);
             activeRecipe = getSchema().recipeList.recipes[activeRecipeIndex];
             workDelay = activeRecipe.workingTime;
             powerCapacity = activeRecipe.getPower();
@@ -426,9 +438,9 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
         super.update(deltaTime, gameSpeed, dirtyBounds);
 
         if (gameSpeed == 0) {
-            powerLevelMean.addValue(powerLevelMean.getLatest());
+            powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, MetricsArena.POWER.getLatest(powerLevelMetric));
         } else {
-            powerLevelMean.addValue((float) powerLevel);
+            powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, (float) powerLevel);
         }
 
         if (activeRecipe != null && activeRecipe.getPower() > 0 && gameSpeed > 0) {
@@ -442,8 +454,11 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
             }
         } else noPower = false;
 
-        if (sleeping || activeRecipe == null || !(hasCapacity = hasCapacityForProduction()) || noPower || additionalWorkBlockingCondition()) {
+        if (sleeping || activeRecipe == null || !checkCapacity() || noPower || additionalWorkBlockingCondition()) {
             pauseSfx();
+            // the inputs call back once something arrives, see acceptItem and onFluidAccepted
+            if (activeRecipe == null && !sleeping && getSchema().recipeList.hasInputs && areOutputsEmpty())
+                setStarved(true);
             return;
         }
 
@@ -451,7 +466,7 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
             pauseSfx();
         } else {
             // working starts at >50% of power but at 0% of speed
-            workDelay -= deltaTime * gameSpeed * Math.max(0, (activeRecipe.getPower() == 0 ? 1 : (powerLevelMean.getMean() / activeRecipe.getPower()) * 2 - 1));
+            workDelay -= deltaTime * gameSpeed * Math.max(0, (activeRecipe.getPower() == 0 ? 1 : (MetricsArena.POWER.getMean(powerLevelMetric) / activeRecipe.getPower()) * 2 - 1));
             playSfx();
         }
 
@@ -470,6 +485,32 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
         return false;
     }
 
+    @Override
+    public boolean isPassive() {
+        return starved;
+    }
+
+    protected void setStarved(boolean starved) {
+        if (this.starved == starved) return;
+        this.starved = starved;
+        if (layer == null) return;
+
+        layer.onPassiveChanged(this);
+        if (!starved) {
+            // the outputs missed all changes around the structure meanwhile
+            wakeBounds.clear();
+            wakeBounds.add(this, 0);
+            for (Component c : components)
+                c.update(0, 0, wakeBounds);
+        }
+    }
+
+    protected boolean areOutputsEmpty() {
+        for (IStorage s : outputInventories)
+            if (s != null && !s.isEmpty()) return false;
+        return true;
+    }
+
     protected void drawRecipeProgress(ShapeRenderer shaper) {
         if (activeRecipe != null && hasCapacity) {
             shaper.setColor(0, 0.5f, 0, 1);
@@ -492,7 +533,7 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
         }
 
         if (powerCapacity > 0) {
-            float scale = (float) Math.min(1, powerLevelMean.getMean() / powerCapacity);
+            float scale = (float) Math.min(1, MetricsArena.POWER.getMean(powerLevelMetric) / powerCapacity);
             if (scale > 0)
                 spriter.add(x * Const.TILE_SIZE + 1, y * Const.TILE_SIZE + 1, Const.Z_STATES,
                         4, (getHeight() * Const.TILE_SIZE - 2) * scale,
@@ -506,6 +547,22 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
         }
     }
 
+    @Override
+    public void onOutputDrained() {
+        capacityDirty = true;
+    }
+
+    /**
+     * Cached {@link #hasCapacityForProduction()}, only rechecked after the recipe or the outputs changed
+     */
+    protected boolean checkCapacity() {
+        if (capacityDirty) {
+            hasCapacity = hasCapacityForProduction();
+            capacityDirty = false;
+        }
+        return hasCapacity;
+    }
+
     protected boolean hasCapacityForProduction() {
         if (activeRecipe.output != null) {
             for (int i = 0; i < activeRecipe.output.entries.length; i++) {
@@ -548,6 +605,7 @@ public abstract class ProducerStructure extends PausableStructure<ProducerSchema
 
     @Override
     public boolean putBack(ItemType item, int amount) {
+        capacityDirty = true;
         if (outputInventories.length > 1) {
             if (getSchema().recipeList.containsOutput(item)) {
                 // find out correct inventory to put item back in
@@ -22,6 +22,7 @@ import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntArray;
 
 import de.dakror.quarry.Quarry;
+import de.dakror.quarry.game.Item;
 import de.dakror.quarry.game.Item.ItemCategory;
 import de.dakror.quarry.game.Item.ItemType;
 import de.dakror.quarry.game.Item.Items;
@@ -29,6 +30,7 @@ import de.dakror.quarry.game.Item.Items.Amount;
 import de.dakror.quarry.game.Science.ScienceType;
 import de.dakror.quarry.structure.base.Dock.DockFilter;
 import de.dakror.quarry.structure.base.Dock.DockType;
+import de.dakror.quarry.structure.base.component.IStorage;
 
 /**
  * @author Maximilian Stark | Dakror
@@ -139,6 +141,22 @@ public abstract class RecipeList {
 
     public final IntArray outputSizes, fluidInputs;
 
+    static final byte MATCH_NONE = 0;
+    static final byte MATCH_CATEGORY = 1;
+    static final byte MATCH_SIMILAR = 2;
+    static final byte MATCH_ITEM = 3;
+
+    // flat input match tables, indexed by recipe * inputSlots + slot
+    public final int inputSlots;
+    final byte[] matchKinds;
+    final ItemType[] matchItems;
+    final ItemCategory[] matchCategories;
+    final int[] matchAmounts;
+
+    // per input slot the highest amount any recipe takes of an item (by ordinal, directly or through its base item) or of a category
+    final int[][] slotItemLimits;
+    final int[][] slotCategoryLimits;
+
     public RecipeList() {
         init();
         recipes = rec.toArray();
@@ -192,6 +210,91 @@ public abstract class RecipeList {
 
         hasInputs = inputs;
 
+        int slots = 0;
+        for (Recipe r : recipes) {
+            if (r.input != null) slots = Math.max(slots, r.input.entries.length);
+        }
+        inputSlots = slots;
+
+        matchKinds = new byte[recipes.length * slots];
+        matchItems = new ItemType[recipes.length * slots];
+        matchCategories = new ItemCategory[recipes.length * slots];
+        matchAmounts = new int[recipes.length * slots];
+        slotItemLimits = new int[slots][ItemType.values.length];
+        slotCategoryLimits = new int[slots][ItemCategory.values.length];
+
+        compileInputs();
+    }
+
+    private void compileInputs() {
+        for (int j = 0; j < recipes.length; j++) {
+            Recipe r = recipes[j];
+            if (r.input == null) continue;
+
+            for (int i = 0; i < r.input.entries.length; i++) {
+                Amount e = r.input.entries[i];
+                if (e == null) continue;
+
+                int m = j * inputSlots + i;
+                matchAmounts[m] = e.getAmount();
+
+                if (e.getCat() != null) {
+                    matchKinds[m] = MATCH_CATEGORY;
+                    matchCategories[m] = e.getCat();
+
+                    int[] limits = slotCategoryLimits[i];
+                    limits[e.getCat().ordinal()] = Math.max(limits[e.getCat().ordinal()], e.getAmount());
+                } else {
+                    ItemType item = e.getItem();
+                    matchKinds[m] = item == Item.base(item) ? MATCH_SIMILAR : MATCH_ITEM;
+                    matchItems[m] = item;
+
+                    int[] limits = slotItemLimits[i];
+                    for (ItemType t : ItemType.values) {
+                        if (t == item || Item.base(t) == item)
+                            limits[t.ordinal()] = Math.max(limits[t.ordinal()], e.getAmount());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the inputs of a recipe against the given slots without allocating anything
+     */
+    public boolean matches(int recipe, IStorage[] inputs) {
+        int base = recipe * inputSlots;
+        for (int i = 0; i < inputSlots; i++) {
+            int m = base + i;
+            switch (matchKinds[m]) {
+                case MATCH_CATEGORY:
+                    if (inputs[i].getSum(matchCategories[m]) < matchAmounts[m]) return false;
+                    break;
+                case MATCH_SIMILAR:
+                    if (inputs[i].getMaxSimilar(matchItems[m]) < matchAmounts[m]) return false;
+                    break;
+                case MATCH_ITEM:
+                    if (inputs[i].get(matchItems[m]) < matchAmounts[m]) return false;
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the highest amount of the item any recipe takes in the given slot
+     */
+    public int getItemLimit(int slot, int itemOrdinal) {
+        if (slot >= inputSlots) return 0;
+        return slotItemLimits[slot][itemOrdinal];
+    }
+
+    /**
+     * @return the highest amount of the category any recipe takes in the given slot
+     */
+    public int getCategoryLimit(int slot, int categoryOrdinal) {
+        if (slot >= inputSlots) return 0;
+        return slotCategoryLimits[slot][categoryOrdinal];
     }
 
     public void validateRecipes(Schema schema) {
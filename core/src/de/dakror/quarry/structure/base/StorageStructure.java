@@ -23,7 +23,6 @@ import de.dakror.common.libgdx.io.NBT.CompoundTag;
 import de.dakror.common.libgdx.io.NBT.NBTException;
 import de.dakror.common.libgdx.render.SpriteRenderer;
 import de.dakror.quarry.game.Item.ItemType;
-import de.dakror.quarry.scenes.Game;
 import de.dakror.quarry.structure.base.component.IStorage;
 import de.dakror.quarry.util.SpriterDelegateBatch;
 
@@ -51,6 +50,16 @@ public abstract class StorageStructure extends Structure<Schema> {
 
     public void setRefundStorage(boolean refundStorage) {
         this.refundStorage = refundStorage;
+        if (layer != null) layer.storageDirectory.update(this);
+    }
+
+    @Override
+    public void onInventoryChanged(ItemType item, int oldAmount, int newAmount) {
+        if (layer != null) {
+            layer.storageDirectory.onChanged(this, item, oldAmount, newAmount);
+            // storages change while the game is paused as well, when resources are spent
+            layer.markChanged(this);
+        }
     }
 
     @Override
@@ -61,7 +70,6 @@ public abstract class StorageStructure extends Structure<Schema> {
     public boolean addToInventory(ItemType item, int amount, Structure<?> source) {
         boolean result = ((IStorage) components[0]).add(item, amount);
         if (result) {
-            if (!layer.fake) Game.G.addResources(item, amount, false);
             setItemNotifications();
             onItemCountChanged(item);
         }
@@ -86,7 +94,6 @@ public abstract class StorageStructure extends Structure<Schema> {
 
     @Override
     public boolean putBack(ItemType item, int amount) {
-        if (!layer.fake) Game.G.addResources(item, amount, false);
         ((IStorage) components[0]).addUnsafe(item, amount);
         setItemNotifications();
         return true;
@@ -255,6 +255,25 @@ public abstract class Structure<T extends Schema> implements Savable, Region {
             c.update(deltaTime, gameSpeed, dirtyBounds);
     }
 
+    /**
+     * Called by inventory components of this structure whenever the amount of an item changes
+     */
+    public void onInventoryChanged(ItemType item, int oldAmount, int newAmount) {}
+
+    /**
+     * Called by output components of this structure whenever something was taken out of them
+     */
+    public void onOutputDrained() {}
+
+    /**
+     * @return whether this structure is left out of the chunk update, as something else simulates it or it waits for
+     *         an event.
+     *         Changes have to be reported through {@link Layer#onPassiveChanged(Structure)}
+     */
+    public boolean isPassive() {
+        return false;
+    }
+
     public void postUpdate(Bounds dirtyBounds) {
         if (nearbyBooster != null)
             speedScale = nearbyBooster.isBoostActive() ? Booster.BOOST_FACTOR : 1;
@@ -313,6 +332,33 @@ public abstract class Structure<T extends Schema> implements Savable, Region {
         return amount;
     }
 
+    /**
+     * Looks up the fluid input dock next to the given tile. Fluid tubes resolve this once whenever their
+     * neighborhood changes and hand it back on every transfer, so the docks don't have to be scanned each time.
+     *
+     * @return the index of the dock or -1
+     */
+    public int getFluidInputDock(int x, int y, Direction dir) {
+        for (int i = 0; i < docks.length; i++) {
+            if (docks[i].type == DockType.FluidIn && isNextToDock(x, y, dir, docks[i])) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Same as {@link #canAccept(ItemType, int, int, Direction)} for a dock resolved by {@link #getFluidInputDock(int, int, Direction)}
+     */
+    public boolean canAcceptFluid(int dock, ItemType item, int x, int y, Direction dir) {
+        return canAccept(item, x, y, dir);
+    }
+
+    /**
+     * Same as {@link #acceptFluid(ItemType, int, Structure)} for a dock resolved by {@link #getFluidInputDock(int, int, Direction)}
+     */
+    public int acceptFluid(int dock, ItemType item, int amount, Structure<?> source) {
+        return acceptFluid(item, amount, source);
+    }
+
     public boolean isNextToDock(int x, int y, Direction dir, Dock d) {
         return x == this.x + d.x + d.dir.dx && y == this.y + d.y + d.dir.dy && dir != null && d.dir == dir.inv();
     }
@@ -479,6 +525,8 @@ public abstract class Structure<T extends Schema> implements Savable, Region {
 
     public void onUnclick() {
         clicked = false;
+        // whatever was changed through the ui has to be saved
+        if (layer != null) layer.markChanged(this);
     }
 
     public Component[] getComponents() {
@@ -534,7 +582,7 @@ public abstract class Structure<T extends Schema> implements Savable, Region {
     }
 
     public final CompoundTag copy(int[] copyRegion) {
-        NBT.Builder b = new NBT.Builder(null)
+        NBT.TreeBuilder b = new NBT.TreeBuilder(null)
                 .Byte("type", getSchema().type.id)
                 .Byte("version", version)
                 .Int("x", x - copyRegion[0])
@@ -16,13 +16,8 @@
 
 package de.dakror.quarry.structure.base.component;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Bits;
 
 import de.dakror.common.libgdx.PlatformInterface;
 import de.dakror.common.libgdx.io.NBT.Builder;
@@ -44,16 +39,36 @@ import de.dakror.quarry.util.Util;
  * @author Maximilian Stark | Dakror
  */
 public class CInventory extends Component implements IStorage {
+    // categories of every item type by ordinal, so the totals can be kept without touching the EnumSets
+    static final int[][] itemCategories = new int[ItemType.values.length][];
+
+    static {
+        for (ItemType t : ItemType.values) {
+            int[] cats = new int[t.categories.size()];
+            int i = 0;
+            for (ItemCategory c : t.categories)
+                cats[i++] = c.ordinal();
+            itemCategories[t.ordinal()] = cats;
+        }
+    }
+
     int size, count;
     int outputDock;
 
-    HashMap<ItemType, Integer> inventory;
+    // amounts by item type ordinal
+    final int[] inventory;
+    final Bits nonZero;
+    // sum of all amounts per category ordinal
+    final int[] categoryTotals;
+
     float pumpOutDelay;
     boolean isTubeAtOutput;
     float pumpOutSpeed;
 
     public CInventory() {
-        inventory = new HashMap<>();
+        inventory = new int[ItemType.values.length];
+        nonZero = new Bits(ItemType.values.length);
+        categoryTotals = new int[ItemCategory.values.length];
         pumpOutDelay = Const.DEFAULT_PUMP_OUT_DELAY;
         pumpOutSpeed = Const.DEFAULT_PUMP_OUT_DELAY;
     }
@@ -129,8 +144,71 @@ public class CInventory extends Component implements IStorage {
     }
 
     public void clear() {
-        inventory.clear();
+        boolean drained = count > 0;
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1)) {
+            int num = inventory[i];
+            inventory[i] = 0;
+            if (structure != null) structure.onInventoryChanged(ItemType.values[i], num, 0);
+        }
+        nonZero.clear();
+        for (int i = 0; i < categoryTotals.length; i++)
+            categoryTotals[i] = 0;
+        count = 0;
+
+        if (drained && outputDock > -1) onDrained();
+    }
+
+    /**
+     * Only place the amounts are changed at, keeps the non zero set and category totals up to date
+     */
+    protected void change(ItemType item, int delta) {
+        if (delta == 0) return;
+
+        int o = item.ordinal();
+        int num = inventory[o] + delta;
+        inventory[o] = num;
+        count += delta;
+
+        if (num > 0) nonZero.set(o);
+        else nonZero.clear(o);
+
+        for (int c : itemCategories[o])
+            categoryTotals[c] += delta;
+
+        if (structure != null) structure.onInventoryChanged(item, num - delta, num);
+        if (delta < 0 && outputDock > -1) onDrained();
+    }
+
+    /**
+     * Rebuilds the derived state after the amounts have been set directly
+     */
+    protected void recount() {
+        nonZero.clear();
+        for (int i = 0; i < categoryTotals.length; i++)
+            categoryTotals[i] = 0;
+
         count = 0;
+        for (int i = 0; i < inventory.length; i++) {
+            if (inventory[i] <= 0) {
+                inventory[i] = 0;
+                continue;
+            }
+
+            nonZero.set(i);
+            count += inventory[i];
+            for (int c : itemCategories[i])
+                categoryTotals[c] += inventory[i];
+        }
+    }
+
+    /**
+     * Iterates the contained item types without allocating:
+     * <code>for (int i = inv.nextItem(0); i != -1; i = inv.nextItem(i + 1))</code>
+     *
+     * @return the ordinal of the next item type with a non zero amount, starting at from, or -1
+     */
+    public int nextItem(int from) {
+        return nonZero.nextSetBit(from);
     }
 
     @Override
@@ -169,15 +247,8 @@ public class CInventory extends Component implements IStorage {
     @Override
     public boolean remove(ItemType item, int amount) {
         if (count < amount) return false;
-        int i = get(item);
-        if (i < amount) return false;
-        count -= amount;
-
-        int num = i - amount;
-
-        if (num > 0)
-            inventory.put(item, num);
-        else inventory.remove(item);
+        if (inventory[item.ordinal()] < amount) return false;
+        change(item, -amount);
 
         return true;
     }
@@ -185,22 +256,16 @@ public class CInventory extends Component implements IStorage {
     @Override
     public int removeWithRest(ItemType item, int amount) {
         if (count == 0) return amount;
-        int i = get(item);
 
-        int dif = Math.min(i, amount);
-        count -= dif;
-        int num = i - dif;
-
-        inventory.put(item, Math.max(0, num));
+        int dif = Math.min(inventory[item.ordinal()], amount);
+        change(item, -dif);
 
         return amount - dif;
     }
 
     @Override
     public void addUnsafe(ItemType item, int amount) {
-        int i = get(item);
-        count += amount;
-        inventory.put(item, i + amount);
+        change(item, amount);
     }
 
     @Override
@@ -209,17 +274,14 @@ public class CInventory extends Component implements IStorage {
         if (count == size) return amount;
 
         int dif = Math.min(amount, size - count);
-        count += dif;
-        inventory.put(item, get(item) + dif);
+        change(item, dif);
 
         return amount - dif;
     }
 
     @Override
     public int get(ItemType item) {
-        Integer i = inventory.get(item);
-        if (i == null) return 0;
-        return i;
+        return inventory[item.ordinal()];
     }
 
     /** Returns amount for the first matching itemtype with the same value but difference in meta
@@ -230,19 +292,41 @@ public class CInventory extends Component implements IStorage {
     public Amount[] getSimilar(ItemType item) {
         Array<Amount> amounts = new Array<>(Amount.class);
         int base = item.value & 0xff;
-        for (Map.Entry<ItemType, Integer> e : inventory.entrySet()) {
-            if ((e.getKey().value & 0xff) == base) amounts.add(new Amount(e.getKey(), e.getValue()));
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1)) {
+            if ((ItemType.values[i].value & 0xff) == base) amounts.add(new Amount(ItemType.values[i], inventory[i]));
         }
 
         return amounts.toArray();
     }
 
+    @Override
+    public int getSimilar(ItemType item, int[] items) {
+        int n = 0;
+        int base = item.value & 0xff;
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1)) {
+            if ((ItemType.values[i].value & 0xff) == base) items[n++] = i;
+        }
+        return n;
+    }
+
+    @Override
+    public int getMaxSimilar(ItemType item) {
+        int max = 0;
+        int base = item.value & 0xff;
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1)) {
+            if ((ItemType.values[i].value & 0xff) == base) max = Math.max(max, inventory[i]);
+        }
+        return max;
+    }
+
     @Override
     public Amount[] get(ItemCategory cat) {
         Array<Amount> amounts = new Array<>(Amount.class);
-        for (Map.Entry<ItemType, Integer> e : inventory.entrySet()) {
-            if (e.getKey().categories.contains(cat)) {
-                amounts.add(new Amount(e.getKey(), e.getValue()));
+        if (categoryTotals[cat.ordinal()] == 0) return amounts.toArray();
+
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1)) {
+            if (ItemType.values[i].categories.contains(cat)) {
+                amounts.add(new Amount(ItemType.values[i], inventory[i]));
             }
         }
 
@@ -250,24 +334,25 @@ public class CInventory extends Component implements IStorage {
     }
 
     @Override
-    public int getSum(ItemCategory cat) {
-        int count = 0;
-        for (Map.Entry<ItemType, Integer> e : inventory.entrySet()) {
-            if (e.getKey().categories.contains(cat)) {
-                count += e.getValue();
-            }
+    public int get(ItemCategory cat, int[] items) {
+        if (categoryTotals[cat.ordinal()] == 0) return 0;
+
+        int n = 0;
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1)) {
+            if (ItemType.values[i].categories.contains(cat)) items[n++] = i;
         }
-        return count;
+        return n;
     }
 
-    public Set<Map.Entry<ItemType, Integer>> getAll() {
-        return inventory.entrySet();
+    @Override
+    public int getSum(ItemCategory cat) {
+        return categoryTotals[cat.ordinal()];
     }
 
     @Override
     public void saveData(Builder b) {
         b.Compound();
-        Util.NBTwriteInventory(b, inventory);
+        Util.NBTwriteInventory(b, inventory, nonZero);
         if (outputDock > -1) b
                 .Float("pumpDelay", pumpOutDelay)
                 .Byte("output", (byte) (isTubeAtOutput ? 1 : 0));
@@ -276,13 +361,12 @@ public class CInventory extends Component implements IStorage {
 
     @Override
     public void loadData(CompoundTag tag) {
-        int c = 0;
         try {
-            c = Util.NBTreadInventory(tag, inventory);
+            Util.NBTreadInventory(tag, inventory);
         } catch (NBTException e) {
             Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
         }
-        count = tag.Int("count", c);
+        recount();
         if (outputDock > -1) pumpOutDelay = tag.Float("pumpDelay", Const.DEFAULT_PUMP_OUT_DELAY);
 
         isTubeAtOutput = tag.Byte("output", (byte) 0) == 1;
@@ -292,16 +376,12 @@ public class CInventory extends Component implements IStorage {
         Dock output = outputDock == -1 ? null : structure.getDocks()[outputDock];
         if (output == null) return;
 
-        for (Iterator<Map.Entry<ItemType, Integer>> iter = inventory.entrySet().iterator(); iter.hasNext();) {
-            Map.Entry<ItemType, Integer> e = iter.next();
-            if (structure.layer.addItemEntity(e.getKey(), structure, output, structure)) {
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1)) {
+            ItemType item = ItemType.values[i];
+            if (structure.layer.addItemEntity(item, structure, output, structure)) {
                 structure.setItemNotifications();
 
-                int v = e.getValue();
-
-                e.setValue(v - 1);
-                count--;
-                if (e.getValue() <= 0) iter.remove();
+                change(item, -1);
 
                 // only pump out the first item, so we break
                 break;
@@ -321,13 +401,13 @@ public class CInventory extends Component implements IStorage {
 
     @Override
     public boolean remove(ItemCategory category, int amount) {
-        int left = amount;
-        for (Iterator<Entry<ItemType, Integer>> iter = inventory.entrySet().iterator(); iter.hasNext();) {
-            Entry<ItemType, Integer> e = iter.next();
-            if (e.getKey().categories.contains(category)) {
-                left = removeWithRest(e.getKey(), left);
+        if (categoryTotals[category.ordinal()] == 0) return false;
 
-                if (inventory.get(e.getKey()) == 0) iter.remove();
+        int left = amount;
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1)) {
+            ItemType item = ItemType.values[i];
+            if (item.categories.contains(category)) {
+                left = removeWithRest(item, left);
 
                 if (left == 0) return true;
             }
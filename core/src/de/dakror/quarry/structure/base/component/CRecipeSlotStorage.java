@@ -16,11 +16,8 @@
 
 package de.dakror.quarry.structure.base.component;
 
-import de.dakror.quarry.game.Item;
 import de.dakror.quarry.game.Item.ItemType;
-import de.dakror.quarry.game.Item.Items.Amount;
 import de.dakror.quarry.structure.base.RecipeList;
-import de.dakror.quarry.structure.base.RecipeList.Recipe;
 
 /**
  * @author Maximilian Stark | Dakror
@@ -37,34 +34,33 @@ public class CRecipeSlotStorage extends CInventory {
         this.index = index;
     }
 
-    @Override
-    public boolean canAccept(ItemType item) {
-        for (Recipe r : recipes.recipes) {
-            if (r.getInput() == null || r.getInput().entries.length <= index) continue;
+    /**
+     * Whether the amount still fits into the highest requirement of any recipe for this slot
+     */
+    protected boolean fits(ItemType item, int amount) {
+        int o = item.ordinal();
+        int limit = recipes.getItemLimit(index, o);
+        if (limit > 0 && inventory[o] + amount <= limit) return true;
 
-            Amount a = r.getInput().entries[index];
-            if ((a.getCat() != null && item.categories.contains(a.getCat()) && getSum(a.getCat()) < a.getAmount())
-                    || (a.getItem() != null && (a.getItem() == item || a.getItem() == Item.base(item)) && get(item) < a.getAmount())) return true;
+        for (int c : itemCategories[o]) {
+            limit = recipes.getCategoryLimit(index, c);
+            if (limit > 0 && categoryTotals[c] + amount <= limit) return true;
         }
 
         return false;
+    }
 
+    @Override
+    public boolean canAccept(ItemType item) {
+        return fits(item, 1);
     }
 
     @Override
     public boolean add(ItemType item, int amount) {
-        for (Recipe r : recipes.recipes) {
-            if (r.getInput() == null || r.getInput().entries.length <= index) continue;
-
-            Amount a = r.getInput().entries[index];
-            if ((a.getCat() != null && item.categories.contains(a.getCat()) && getSum(a.getCat()) + amount <= a.getAmount())
-                    || (a.getItem() != null && (a.getItem() == item || a.getItem() == Item.base(item) && get(item) + amount <= a.getAmount()))) {
-                addUnsafe(item, amount);
-                return true;
-            }
-        }
+        if (!fits(item, amount)) return false;
 
-        return false;
+        addUnsafe(item, amount);
+        return true;
     }
 
     @Override
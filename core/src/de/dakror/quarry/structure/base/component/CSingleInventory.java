@@ -145,6 +145,7 @@ public class CSingleInventory extends Component implements IStorage {
             if (!hasTubeAtOutput || item == null) return;
 
             if (structure.layer.addItemEntity(item, structure, output, structure)) {
+                ItemType oldItem = item;
                 count--;
 
                 if (pumpOutCallback != null) pumpOutCallback.call(item);
@@ -153,6 +154,7 @@ public class CSingleInventory extends Component implements IStorage {
                     item = null;
                     count = 0;
                 }
+                changed(oldItem, count + 1);
             }
         }
     }
@@ -199,9 +201,12 @@ public class CSingleInventory extends Component implements IStorage {
         if (this.count >= size) return amount;
         if (item.categories.contains(ItemCategory.Fluid)) return amount;
 
+        ItemType oldItem = this.item;
+        int oldCount = count;
         this.item = item;
         int dif = Math.min(amount, size - count);
         this.count += dif;
+        changed(oldItem, oldCount);
 
         return amount - dif;
     }
@@ -221,17 +226,39 @@ public class CSingleInventory extends Component implements IStorage {
     }
 
     public void removeUnsafe(int amount) {
+        ItemType oldItem = item;
+        int oldCount = count;
         this.count -= amount;
         if (this.count <= 0) {
             this.item = null;
             this.count = 0;
         }
+        changed(oldItem, oldCount);
     }
 
     @Override
     public void addUnsafe(ItemType item, int amount) {
+        ItemType oldItem = this.item;
+        int oldCount = count;
         this.item = item;
         this.count += amount;
+        changed(oldItem, oldCount);
+    }
+
+    /**
+     * Reports the difference to the given previous state to the structure
+     */
+    protected void changed(ItemType oldItem, int oldCount) {
+        if (structure == null) return;
+
+        if (oldItem != null && oldItem != item) {
+            structure.onInventoryChanged(oldItem, oldCount, 0);
+            if (item != null) structure.onInventoryChanged(item, 0, count);
+        } else if (item != null && oldCount != count) {
+            structure.onInventoryChanged(item, oldItem == null ? 0 : oldCount, count);
+        } else if (item == null && oldItem != null && oldCount != 0) {
+            structure.onInventoryChanged(oldItem, oldCount, 0);
+        }
     }
 
     @Override
@@ -291,8 +318,11 @@ public class CSingleInventory extends Component implements IStorage {
         if (this.count >= size) return false;
         if (item.categories.contains(ItemCategory.Fluid)) return false;
 
+        ItemType oldItem = this.item;
+        int oldCount = count;
         this.item = item;
         this.count += amount;
+        changed(oldItem, oldCount);
         return true;
     }
 
@@ -300,8 +330,10 @@ public class CSingleInventory extends Component implements IStorage {
     public boolean remove(ItemType item, int amount) {
         if (amount > count || this.item == null) return false;
         if (item == this.item) {
+            int oldCount = count;
             count -= amount;
             if (count == 0) this.item = null;
+            changed(item, oldCount);
             return true;
         }
         return false;
@@ -320,6 +352,22 @@ public class CSingleInventory extends Component implements IStorage {
         return null;
     }
 
+    @Override
+    public int getSimilar(ItemType item, int[] items) {
+        if (this.item != null && Item.base(item) == Item.base(this.item)) {
+            items[0] = this.item.ordinal();
+            return 1;
+        }
+        return 0;
+    }
+
+    @Override
+    public int getMaxSimilar(ItemType item) {
+        if (this.item != null && Item.base(item) == Item.base(this.item))
+            return count;
+        return 0;
+    }
+
     @Override
     public Amount[] get(ItemCategory cat) {
         if (this.item != null && this.item.categories.contains(cat))
@@ -327,6 +375,15 @@ public class CSingleInventory extends Component implements IStorage {
         return null;
     }
 
+    @Override
+    public int get(ItemCategory cat, int[] items) {
+        if (this.item != null && this.item.categories.contains(cat)) {
+            items[0] = this.item.ordinal();
+            return 1;
+        }
+        return 0;
+    }
+
     @Override
     public int getSum(ItemCategory cat) {
         if (this.item != null && this.item.categories.contains(cat))
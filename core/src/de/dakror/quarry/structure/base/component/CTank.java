@@ -42,7 +42,7 @@ public class CTank extends Component implements IStorage {
     float pumpOutDelay;
 
     int outputDock;
-    Structure<?> outputTube;
+    FluidTubeStructure outputTube;
 
     boolean hasTubeAtOutput;
     boolean outputEnabled;
@@ -141,7 +141,9 @@ public class CTank extends Component implements IStorage {
 
             int dif = Math.min(maxOutput, count);
 
+            int old = count;
             count = count - dif + outputTube.acceptFluid(fluid, dif, structure);
+            if (count < old) onDrained();
         }
     }
 
@@ -161,7 +163,7 @@ public class CTank extends Component implements IStorage {
         Dock output = outputDock == -1 ? null : structure.getDocks()[outputDock];
         if (output == null) return;
         Structure<?> s = structure.layer.getStructure(structure.x + output.x + output.dir.dx, structure.y + output.y + output.dir.dy);
-        outputTube = s instanceof FluidTubeStructure ? s : null;
+        outputTube = s instanceof FluidTubeStructure ? (FluidTubeStructure) s : null;
         if (s instanceof Valve) {
             Valve v = (Valve) s;
             // disable wrong side of valve
@@ -217,6 +219,7 @@ public class CTank extends Component implements IStorage {
             this.fluid = null;
             this.count = 0;
         }
+        if (amount > 0 && outputDock > -1) onDrained();
     }
 
     @Override
@@ -289,6 +292,7 @@ public class CTank extends Component implements IStorage {
         if (item == fluid) {
             count -= amount;
             if (count == 0) fluid = null;
+            if (amount > 0 && outputDock > -1) onDrained();
             return true;
         }
         return false;
@@ -307,6 +311,22 @@ public class CTank extends Component implements IStorage {
         return null;
     }
 
+    @Override
+    public int getSimilar(ItemType item, int[] items) {
+        if (fluid != null && Item.base(item) == Item.base(fluid)) {
+            items[0] = fluid.ordinal();
+            return 1;
+        }
+        return 0;
+    }
+
+    @Override
+    public int getMaxSimilar(ItemType item) {
+        if (fluid != null && Item.base(item) == Item.base(fluid))
+            return count;
+        return 0;
+    }
+
     @Override
     public Amount[] get(ItemCategory cat) {
         if (fluid != null && fluid.categories.contains(cat))
@@ -314,6 +334,15 @@ public class CTank extends Component implements IStorage {
         return null;
     }
 
+    @Override
+    public int get(ItemCategory cat, int[] items) {
+        if (fluid != null && fluid.categories.contains(cat)) {
+            items[0] = fluid.ordinal();
+            return 1;
+        }
+        return 0;
+    }
+
     @Override
     public boolean remove(ItemCategory category, int amount) {
         if (fluid != null && fluid.categories.contains(category)) {
@@ -47,6 +47,10 @@ public abstract class Component {
     @Override
     public abstract Component clone();
 
+    protected void onDrained() {
+        if (structure != null) structure.onOutputDrained();
+    }
+
     public void setStructure(Structure<?> structure) {
         this.structure = structure;
     }
@@ -42,8 +42,27 @@ public interface IStorage {
 
     Amount[] getSimilar(ItemType item);
 
+    /**
+     * Allocation free variant of {@link #getSimilar(ItemType)}
+     * @param items filled with the ordinals of the contained items sharing the base type of the given item
+     * @return the number of ordinals written
+     */
+    int getSimilar(ItemType item, int[] items);
+
+    /**
+     * @return the highest amount of a single item sharing the base type of the given item
+     */
+    int getMaxSimilar(ItemType item);
+
     Amount[] get(ItemCategory cat);
 
+    /**
+     * Allocation free variant of {@link #get(ItemCategory)}
+     * @param items filled with the ordinals of the contained items of the category
+     * @return the number of ordinals written
+     */
+    int get(ItemCategory cat, int[] items);
+
     boolean add(ItemType item, int amount);
 
     int addWithRest(ItemType item, int amount);
@@ -22,7 +22,6 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer.ShapeType;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.WindowedMean;
 import com.badlogic.gdx.scenes.scene2d.ui.Container;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
@@ -47,6 +46,7 @@ import de.dakror.quarry.structure.base.Structure;
 import de.dakror.quarry.structure.base.StructureType;
 import de.dakror.quarry.structure.power.Substation;
 import de.dakror.quarry.util.Bounds;
+import de.dakror.quarry.util.MetricsArena;
 import de.dakror.quarry.util.SpriterDelegateBatch;
 
 /**
@@ -72,7 +72,7 @@ public class ElectricConveyorCore extends Conveyor {
     double powerLevel;
     double powerUse;
     boolean noPower;
-    final WindowedMean powerLevelMean = new WindowedMean(60);
+    int powerLevelMetric = -1;
     protected int framesPassedWithPower;
 
     final HashSet<Integer> tmp = new HashSet<>();
@@ -171,6 +171,8 @@ public class ElectricConveyorCore extends Conveyor {
     public void onDestroy() {
         super.onDestroy();
         resetAdjacentConveyors();
+        MetricsArena.POWER.free(powerLevelMetric);
+        powerLevelMetric = -1;
     }
 
     @Override
@@ -208,9 +210,9 @@ public class ElectricConveyorCore extends Conveyor {
     @Override
     public void update(double deltaTime, int gameSpeed, Bounds dirtyBounds) {
         if (gameSpeed == 0) {
-            powerLevelMean.addValue(powerLevelMean.getLatest());
+            powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, MetricsArena.POWER.getLatest(powerLevelMetric));
         } else {
-            powerLevelMean.addValue((float) powerLevel);
+            powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, (float) powerLevel);
         }
 
         if (gameSpeed > 0) {
@@ -274,7 +276,7 @@ public class ElectricConveyorCore extends Conveyor {
                     (y + getHeight()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f * 2, Const.Z_STATES, size, size);
         }
 
-        float scale = Math.min(1, powerLevelMean.getMean() / POWER_CAPACITY);
+        float scale = Math.min(1, MetricsArena.POWER.getMean(powerLevelMetric) / POWER_CAPACITY);
         if (scale > 0)
             spriter.add(x * Const.TILE_SIZE + 1, y * Const.TILE_SIZE + 1, Const.Z_STATES,
                     4, (getHeight() * Const.TILE_SIZE - 2) * scale,
@@ -129,6 +129,8 @@ public class Valve extends FluidTubeStructure implements IRotatable {
                 structures[d.ordinal()] = s;
             }
         }
+
+        resolveInputDocks();
     }
 
     @Override
@@ -232,6 +234,12 @@ public class Valve extends FluidTubeStructure implements IRotatable {
         }
     }
 
+    @Override
+    protected boolean joinsNetwork() {
+        // valves act as edges between networks
+        return false;
+    }
+
     @Override
     protected boolean isAllowedFluid(ItemType i) {
         return i.categories.contains(ItemCategory.Fluid) && Item.base(i) != ItemType._MoltenMetal;
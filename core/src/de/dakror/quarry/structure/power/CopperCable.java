@@ -94,7 +94,7 @@ public class CopperCable extends Structure<Schema> {
 
         if (layer == null) {
             updateFacing(true);
-        } else if (dirtyBounds.touches(this)) {
+        } else if (dirtyBounds.touches(this) && !layer.areCableFacingsSettled()) {
             updateFacing(true);
         }
     }
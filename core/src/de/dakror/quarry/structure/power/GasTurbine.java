@@ -206,28 +206,14 @@ public class GasTurbine extends GeneratorStructure {
     }
 
     @Override
-    public int acceptFluid(ItemType item, int amount, Structure<?> source) {
-        int i = 0;
-        for (Dock d : getDocks()) {
-            if (d.type == DockType.FluidIn && d.filter != null) {
-                if (inputInventories[i].hasSpace() && d.filter.accepts(item)) {
-                    int rest = inputInventories[i].addWithRest(item, amount);
-
-                    if (isClicked()) {
-                        Game.G.ui.updateStructureUIInventory();
-                    }
-
-                    if (level0.activeRecipe == null) {
-                        level0.pickRandomActiveRecipe();
-                    }
-                    return rest;
-                }
-                i++;
-            } else if (d.type == DockType.ItemIn) {
-                i++;
-            }
+    protected void onFluidAccepted() {
+        if (isClicked()) {
+            Game.G.ui.updateStructureUIInventory();
+        }
+
+        if (level0.activeRecipe == null) {
+            level0.pickRandomActiveRecipe();
         }
-        return amount;
     }
 
     @Override
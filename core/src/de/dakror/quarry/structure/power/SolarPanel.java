@@ -74,6 +74,17 @@ public class SolarPanel extends Structure<Schema> {
         }
     }
 
+    void setOutlet(SolarPanelOutlet outlet) {
+        this.outlet = outlet;
+        if (layer != null) layer.onPassiveChanged(this);
+    }
+
+    @Override
+    public boolean isPassive() {
+        // the outlet generates the power of the whole field
+        return outlet != null;
+    }
+
     @Override
     public int getDonorPriority() {
         return 1;
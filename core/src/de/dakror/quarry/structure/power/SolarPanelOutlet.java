@@ -16,8 +16,6 @@
 
 package de.dakror.quarry.structure.power;
 
-import java.util.HashSet;
-
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer.ShapeType;
@@ -25,6 +23,7 @@ import com.badlogic.gdx.scenes.scene2d.ui.Container;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntSet;
 
 import de.dakror.common.libgdx.io.NBT.Builder;
 import de.dakror.common.libgdx.io.NBT.CompoundTag;
@@ -65,10 +64,17 @@ public class SolarPanelOutlet extends Structure<Schema> {
     Table ui;
     Container<Table> container;
 
+    private static final Array<Structure<?>> stack = new Array<>();
+    private static final IntSet visited = new IntSet();
+    private static final Array<SolarPanel> released = new Array<>();
+    private static final Array<SolarPanelOutlet> neighbors = new Array<>();
+
     Array<SolarPanel> connectedPanels = new Array<>();
     int[] panelsIndex;
 
-    final HashSet<Integer> tmp = new HashSet<>();
+    // the whole field acts as a single generator, only recomputed when a structure next to it changes
+    double powerOut = POWER_OUT;
+    int fieldX, fieldY, fieldWidth, fieldHeight;
 
     public SolarPanelOutlet(int x, int y) {
         super(x, y, classSchema);
@@ -79,41 +85,111 @@ public class SolarPanelOutlet extends Structure<Schema> {
         super.onPlacement(fromLoading);
 
         if (!fromLoading && layer != null) {
-            resetAdjacentPanels();
-            discoverAdjacentPanels(this, tmp);
+            rediscoverPanels();
         }
     }
 
-    private void resetAdjacentPanels() {
-        tmp.clear();
+    private void rediscoverPanels() {
+        released.clear();
         for (SolarPanel p : connectedPanels) {
-            p.outlet = null;
-            layer.dirtyBounds.add(p, 0);
+            p.setOutlet(null);
+            released.add(p);
         }
         connectedPanels.clear();
+
+        discoverAdjacentPanels();
+
+        // only panels that ended up without an outlet have to show it
+        for (SolarPanel p : released) {
+            if (p.outlet == null) layer.dirtyBounds.add(p, 0);
+        }
+        released.clear();
     }
 
-    private void discoverAdjacentPanels(Structure<?> of, HashSet<Integer> history) {
-        if (((of instanceof SolarPanel && ((SolarPanel) of).outlet == null) || of == this) && !history.contains(of.getX() * layer.height + of.getY())) {
-            history.add(of.getX() * layer.height + of.getY());
-            if (of instanceof SolarPanel) {
-                connectedPanels.add((SolarPanel) of);
-                ((SolarPanel) of).outlet = this;
+    private void releasePanels() {
+        neighbors.clear();
+        for (SolarPanel p : connectedPanels) {
+            p.setOutlet(null);
+            layer.dirtyBounds.add(p, 0);
+        }
+
+        // outlets next to the field only rescan when their own field is touched, so hand them the panels directly
+        for (SolarPanel p : connectedPanels) {
+            for (int i = 0; i < p.getWidth(); i++) {
+                addNeighbor(layer.getStructure(p.getX() - 1, p.getY() + i));
+                addNeighbor(layer.getStructure(p.getX() + i, p.getY() - 1));
+                addNeighbor(layer.getStructure(p.getX() + p.getWidth(), p.getY() + i));
+                addNeighbor(layer.getStructure(p.getX() + i, p.getY() + p.getHeight()));
             }
+        }
+        connectedPanels.clear();
+        updateField();
+
+        for (SolarPanelOutlet o : neighbors)
+            o.rediscoverPanels();
+        neighbors.clear();
+    }
+
+    private void addNeighbor(Structure<?> s) {
+        SolarPanelOutlet o = null;
+        if (s instanceof SolarPanelOutlet) o = (SolarPanelOutlet) s;
+        else if (s instanceof SolarPanel) o = ((SolarPanel) s).outlet;
 
+        if (o != null && o != this && !neighbors.contains(o, true))
+            neighbors.add(o);
+    }
+
+    private void discoverAdjacentPanels() {
+        visited.clear();
+        stack.clear();
+
+        visited.add(x * layer.height + y);
+        stack.add(this);
+
+        while (stack.size > 0) {
+            Structure<?> of = stack.pop();
             for (int i = 0; i < of.getWidth(); i++) {
-                discoverAdjacentPanels(layer.getStructure(of.getX() - 1, of.getY() + i), history);
-                discoverAdjacentPanels(layer.getStructure(of.getX() + i, of.getY() - 1), history);
-                discoverAdjacentPanels(layer.getStructure(of.getX() + of.getWidth(), of.getY() + i), history);
-                discoverAdjacentPanels(layer.getStructure(of.getX() + i, of.getY() + of.getHeight()), history);
+                visitPanel(layer.getStructure(of.getX() - 1, of.getY() + i));
+                visitPanel(layer.getStructure(of.getX() + i, of.getY() - 1));
+                visitPanel(layer.getStructure(of.getX() + of.getWidth(), of.getY() + i));
+                visitPanel(layer.getStructure(of.getX() + i, of.getY() + of.getHeight()));
             }
         }
 
+        stack.clear();
+        updateField();
+
         if (clicked) {
             updateUI();
         }
     }
 
+    private void visitPanel(Structure<?> s) {
+        if (!(s instanceof SolarPanel) || ((SolarPanel) s).outlet != null) return;
+        if (!visited.add(s.getX() * layer.height + s.getY())) return;
+
+        connectedPanels.add((SolarPanel) s);
+        ((SolarPanel) s).setOutlet(this);
+        stack.add(s);
+    }
+
+    private void updateField() {
+        powerOut = POWER_OUT * (connectedPanels.size + 1);
+
+        int minX = x, minY = y, maxX = x + getWidth(), maxY = y + getHeight();
+        for (SolarPanel p : connectedPanels) {
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x + p.getWidth());
+            maxY = Math.max(maxY, p.y + p.getHeight());
+        }
+
+        fieldX = minX;
+        fieldY = minY;
+        fieldWidth = maxX - minX;
+        fieldHeight = maxY - minY;
+    }
+
     private void updateUI() {
         if (container == null) {
             container = new Container<>();
@@ -123,7 +199,7 @@ public class SolarPanelOutlet extends Structure<Schema> {
             container.setActor(ui);
         }
 
-        ((Label) ui.getChildren().get(1)).setText(GameUi.formatPowerAmount((connectedPanels.size + 1) * POWER_OUT) + "/s");
+        ((Label) ui.getChildren().get(1)).setText(GameUi.formatPowerAmount(powerOut) + "/s");
     }
 
     @Override
@@ -143,15 +219,16 @@ public class SolarPanelOutlet extends Structure<Schema> {
             Structure<?> p = layer.getStructure(i);
             if (p instanceof SolarPanel) {
                 connectedPanels.add((SolarPanel) p);
-                ((SolarPanel) p).outlet = this;
+                ((SolarPanel) p).setOutlet(this);
             }
         }
+        updateField();
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        resetAdjacentPanels();
+        releasePanels();
     }
 
     @Override
@@ -160,14 +237,9 @@ public class SolarPanelOutlet extends Structure<Schema> {
 
         if (gameSpeed > 0) {
             if (powerNetwork != null) {
-                powerNetwork.offerPower(deltaTime, gameSpeed, POWER_OUT * (connectedPanels.size + 1) * deltaTime, this);
+                powerNetwork.offerPower(deltaTime, gameSpeed, powerOut * deltaTime, this);
             }
         }
-
-        if (!dirtyBounds.isEmpty()) {
-            resetAdjacentPanels();
-            discoverAdjacentPanels(this, tmp);
-        }
     }
 
     @Override
@@ -197,9 +269,9 @@ public class SolarPanelOutlet extends Structure<Schema> {
     public void postUpdate(Bounds dirtyBounds) {
         super.postUpdate(dirtyBounds);
 
-        if (dirtyBounds.hasAnyFlag(Bounds.Flags.CONSTRUCTION | Bounds.Flags.DESTRUCTION)) {
-            resetAdjacentPanels();
-            discoverAdjacentPanels(this, tmp);
+        if (dirtyBounds.hasAnyFlag(Bounds.Flags.CONSTRUCTION | Bounds.Flags.DESTRUCTION)
+                && dirtyBounds.touches(fieldX, fieldY, fieldWidth, fieldHeight)) {
+            rediscoverPanels();
         }
     }
 
@@ -237,8 +309,9 @@ public class SolarPanelOutlet extends Structure<Schema> {
             Structure<?> p = CopyRegionHelper.getStructure(this, pasteRegion, i);
             if (p instanceof SolarPanel) {
                 connectedPanels.add((SolarPanel) p);
-                ((SolarPanel) p).outlet = this;
+                ((SolarPanel) p).setOutlet(this);
             }
         }
+        updateField();
     }
 }
@@ -18,7 +18,6 @@ package de.dakror.quarry.structure.power;
 
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
-import com.badlogic.gdx.math.WindowedMean;
 import com.badlogic.gdx.scenes.scene2d.ui.Container;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
@@ -42,6 +41,7 @@ import de.dakror.quarry.structure.base.Structure;
 import de.dakror.quarry.structure.base.StructureType;
 import de.dakror.quarry.structure.power.Substation.SubstationSchema;
 import de.dakror.quarry.util.Bounds;
+import de.dakror.quarry.util.MetricsArena;
 import de.dakror.quarry.util.Sfx;
 import de.dakror.quarry.util.SpriterDelegateBatch;
 
@@ -73,9 +73,9 @@ public class Substation extends Structure<SubstationSchema> {
                     .flags(Flags.NotRotatable);
 
     double powerLevel;
-    private final WindowedMean powerLevelMean = new WindowedMean(60);
-    private final WindowedMean powerInMean = new WindowedMean(60);
-    private final WindowedMean powerOutMean = new WindowedMean(60);
+    private int powerLevelMetric = -1;
+    private int powerInMetric = -1;
+    private int powerOutMetric = -1;
 
     float powerInTick, powerOutTick;
 
@@ -127,7 +127,7 @@ public class Substation extends Structure<SubstationSchema> {
         super.drawFrame(spriter, shaper, pfxBatch);
 
         if (powerLevel > 0) {
-            float scale = Math.min(1, powerLevelMean.getMean() / getSchema().capacity);
+            float scale = Math.min(1, MetricsArena.POWER.getMean(powerLevelMetric) / getSchema().capacity);
             if (scale > 0)
                 spriter.add(x * Const.TILE_SIZE + 1, y * Const.TILE_SIZE + 1, Const.Z_STATES,
                         4, (getHeight() * Const.TILE_SIZE - 2) * scale,
@@ -136,24 +136,35 @@ public class Substation extends Structure<SubstationSchema> {
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        MetricsArena.POWER.free(powerLevelMetric);
+        powerLevelMetric = -1;
+        MetricsArena.POWER.free(powerInMetric);
+        powerInMetric = -1;
+        MetricsArena.POWER.free(powerOutMetric);
+        powerOutMetric = -1;
+    }
+
     @Override
     public void update(double deltaTime, int gameSpeed, Bounds dirtyBounds) {
         if (gameSpeed == 0) {
-            if (powerLevelMean.getValueCount() == 0) {
-                powerLevelMean.addValue((float) powerLevel);
-                powerInMean.addValue(0);
-                powerOutMean.addValue(0);
+            if (MetricsArena.POWER.getValueCount(powerLevelMetric) == 0) {
+                powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, (float) powerLevel);
+                powerInMetric = MetricsArena.POWER.add(powerInMetric, 0);
+                powerOutMetric = MetricsArena.POWER.add(powerOutMetric, 0);
             } else {
-                powerLevelMean.addValue(powerLevelMean.getLatest());
-                powerInMean.addValue(powerInMean.getLatest());
-                powerOutMean.addValue(powerOutMean.getLatest());
+                powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, MetricsArena.POWER.getLatest(powerLevelMetric));
+                powerInMetric = MetricsArena.POWER.add(powerInMetric, MetricsArena.POWER.getLatest(powerInMetric));
+                powerOutMetric = MetricsArena.POWER.add(powerOutMetric, MetricsArena.POWER.getLatest(powerOutMetric));
             }
             pauseSfx();
             return;
         } else {
-            powerLevelMean.addValue((float) powerLevel);
-            powerInMean.addValue(powerInTick);
-            powerOutMean.addValue(powerOutTick);
+            powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, (float) powerLevel);
+            powerInMetric = MetricsArena.POWER.add(powerInMetric, powerInTick);
+            powerOutMetric = MetricsArena.POWER.add(powerOutMetric, powerOutTick);
             powerInTick = 0;
             powerOutTick = 0;
         }
@@ -227,9 +238,9 @@ public class Substation extends Structure<SubstationSchema> {
         }
 
         ((Label) ui.getChildren().get(1)).setText(GameUi.formatPowerAmount(powerNetwork.getMeanInPerSecond()) + "/s");
-        ((Label) ui.getChildren().get(3)).setText(GameUi.formatPowerAmount((powerInMean.getMean() / powerNetwork.getTimeTickMean())) + "/s");
+        ((Label) ui.getChildren().get(3)).setText(GameUi.formatPowerAmount((MetricsArena.POWER.getMean(powerInMetric) / powerNetwork.getTimeTickMean())) + "/s");
         ((Label) ui.getChildren().get(5)).setText(GameUi.formatPowerAmount(powerLevel));
-        ((Label) ui.getChildren().get(7)).setText(GameUi.formatPowerAmount((powerOutMean.getMean() / powerNetwork.getTimeTickMean())) + "/s");
+        ((Label) ui.getChildren().get(7)).setText(GameUi.formatPowerAmount((MetricsArena.POWER.getMean(powerOutMetric) / powerNetwork.getTimeTickMean())) + "/s");
         ((Label) ui.getChildren().get(9)).setText(GameUi.formatPowerAmount(powerNetwork.getMeanOutPerSecond()) + "/s");
     }
 
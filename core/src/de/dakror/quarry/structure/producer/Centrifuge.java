@@ -127,7 +127,7 @@ public class Centrifuge extends ProducerStructure {
     public void update(double deltaTime, int gameSpeed, Bounds dirtyBounds) {
         super.update(deltaTime, gameSpeed, dirtyBounds);
 
-        if (sleeping || activeRecipe == null || !(hasCapacity = hasCapacityForProduction()) || noPower) {
+        if (sleeping || activeRecipe == null || !checkCapacity() || noPower) {
             return;
         }
 
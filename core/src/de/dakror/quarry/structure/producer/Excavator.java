@@ -16,9 +16,6 @@
 
 package de.dakror.quarry.structure.producer;
 
-import java.util.EnumMap;
-import java.util.Map;
-
 import de.dakror.quarry.Const;
 import de.dakror.quarry.game.Item;
 import de.dakror.quarry.game.Item.ItemType;
@@ -35,6 +32,7 @@ import de.dakror.quarry.structure.base.Dock.DockType;
 import de.dakror.quarry.structure.base.ProducerStructure;
 import de.dakror.quarry.structure.base.RecipeList;
 import de.dakror.quarry.structure.base.Schema.Flags;
+import de.dakror.quarry.structure.base.Structure;
 import de.dakror.quarry.structure.base.StructureType;
 import de.dakror.quarry.structure.base.component.CInventory;
 import de.dakror.quarry.util.Sfx;
@@ -64,6 +62,7 @@ public class Excavator extends ProducerStructure {
                     .flags(Flags.MirroredTextureHorizontal);
 
     public static final int MIN_ORE_TILES = 7;
+    public static final int ORE_MASK = TileType.CopperOre.bit() | TileType.IronOre.bit() | TileType.TinOre.bit() | TileType.CoalOre.bit();
     public static final float BASE_TIMEOUT = 3f;
 
     public ItemType mineableItem;
@@ -96,29 +95,25 @@ public class Excavator extends ProducerStructure {
         if (l != null) {
             mineableItem = null;
 
-            EnumMap<TileType, Integer> counts = new EnumMap<>(TileType.class);
-
-            for (int i = 0; i < getWidth(); i++) {
-                for (int j = 0; j < getHeight(); j++) {
-                    TileType tile = l.get(x + i, y + j);
-                    if (tile == TileType.CopperOre
-                            || tile == TileType.IronOre
-                            || tile == TileType.TinOre
-                            || tile == TileType.CoalOre) {
-                        counts.put(tile, (counts.containsKey(tile) ? counts.get(tile) : 0) + 1);
-                    }
-                }
-            }
-
-            for (Map.Entry<TileType, Integer> e : counts.entrySet()) {
-                if (e.getValue() >= Excavator.MIN_ORE_TILES) {
-                    mineableItem = Item.get(ItemType._Dust, e.getKey().itemDrop);
+            int[] counts = countOres(l, this);
+            for (TileType t : TileType.values) {
+                if ((t.bit() & ORE_MASK) != 0 && counts[t.ordinal()] >= MIN_ORE_TILES) {
+                    mineableItem = Item.get(ItemType._Dust, t.itemDrop);
                     break;
                 }
             }
         }
     }
 
+    /**
+     * @return the tile counts in the area of the structure by tile type ordinal, only exact for ore tiles
+     */
+    public static int[] countOres(Layer l, Structure<?> s) {
+        int[] counts = new int[TileType.values.length];
+        l.countTiles(s.x, s.y, s.getWidth(), s.getHeight(), ORE_MASK, counts);
+        return counts;
+    }
+
     @Override
     protected void doProductionStep() {
         if (mineableItem != null) {
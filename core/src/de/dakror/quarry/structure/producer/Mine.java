@@ -58,6 +58,29 @@ public class Mine extends ProducerStructure {
             true, new Dock(0, 1, Direction.North, DockType.ItemOut))
                     .flags(Flags.TextureAlwaysUpright);
 
+    // recipe index by tile type ordinal, -1 if no recipe mines that tile
+    static final int[] recipeByTile = new int[TileType.values.length];
+    static final int minedTileMask;
+
+    static {
+        int mask = 0;
+        Recipe[] recipes = classSchema.recipeList.recipes;
+        for (TileType t : TileType.values) {
+            recipeByTile[t.ordinal()] = -1;
+            if (t.itemDrop == null) continue;
+
+            for (int i = 0; i < recipes.length; i++) {
+                ItemType out = recipes[i].getOutput().entries[0].getItem();
+                if (out == t.itemDrop || out == Item.base(t.itemDrop)) {
+                    recipeByTile[t.ordinal()] = i;
+                    mask |= t.bit();
+                    break;
+                }
+            }
+        }
+        minedTileMask = mask;
+    }
+
     protected ItemType activeItem;
 
     public TreeSet<ItemType> mineableItems = new TreeSet<>();
@@ -85,27 +108,20 @@ public class Mine extends ProducerStructure {
 
         if (l != null) {
             mineableItems.clear();
-            for (int i = 0; i < getWidth(); i++) {
-                for (int j = 0; j < getHeight(); j++) {
-                    TileType t = l.get(x + i, y + j);
-                    if (t.itemDrop != null) {
-                        boolean anyRecipe = false;
-                        for (Recipe r : getSchema().recipeList.recipes) {
-                            if (r.getOutput().entries[0].getItem() == t.itemDrop || r.getOutput().entries[0].getItem() == Item.base(t.itemDrop)) {
-                                anyRecipe = true;
-                                break;
-                            }
-                        }
-
-                        if (anyRecipe) {
-                            mineableItems.add(t.itemDrop);
-                        }
-                    }
-                }
+            int[] counts = countTiles(l);
+            for (TileType t : TileType.values) {
+                if (counts[t.ordinal()] > 0 && recipeByTile[t.ordinal()] > -1)
+                    mineableItems.add(t.itemDrop);
             }
         }
     }
 
+    protected int[] countTiles(Layer l) {
+        int[] counts = new int[TileType.values.length];
+        l.countTiles(x, y, getWidth(), getHeight(), minedTileMask, counts);
+        return counts;
+    }
+
     public int getMineableItems() {
         updateMineableItems();
 
@@ -119,53 +135,25 @@ public class Mine extends ProducerStructure {
 
         TileType t = layer.get(this.x + x, this.y + y);
 
-        boolean anyRecipe = false;
-        int i = 0;
-        for (Recipe r : getSchema().recipeList.recipes) {
-            if (r.getOutput().entries[0].getItem() == t.itemDrop || r.getOutput().entries[0].getItem() == Item.base(t.itemDrop)) {
-                activeRecipeIndex = i;
-                activeRecipe = getSchema().recipeList.recipes[i];
-                anyRecipe = true;
-                break;
+        if (recipeByTile[t.ordinal()] == -1) {
+            // search for tile with recipe
+            t = null;
+            int[] counts = countTiles(layer);
+            for (TileType q : TileType.values) {
+                if (counts[q.ordinal()] > 0 && recipeByTile[q.ordinal()] > -1) {
+                    t = q;
+                    break;
+                }
             }
-            i++;
         }
 
-        if (anyRecipe) {
+        if (t != null) {
+            activeRecipeIndex = recipeByTile[t.ordinal()];
+            activeRecipe = getSchema().recipeList.recipes[activeRecipeIndex];
             activeItem = t.itemDrop;
 
             workDelay = activeRecipe.workingTime;
             updateUI();
-        } else {
-            // search for tile with recipe
-            for (int k = 0; k < getWidth(); k++) {
-                if (anyRecipe) break;
-                for (int j = 0; j < getHeight(); j++) {
-                    if (anyRecipe) break;
-
-                    t = layer.get(this.x + k, this.y + j);
-
-                    anyRecipe = false;
-                    i = 0;
-                    for (Recipe r : getSchema().recipeList.recipes) {
-                        if (r.getOutput().entries[0].getItem() == t.itemDrop || r.getOutput().entries[0].getItem() == Item.base(t.itemDrop)) {
-                            activeRecipeIndex = i;
-                            activeRecipe = getSchema().recipeList.recipes[i];
-                            anyRecipe = true;
-                            break;
-                        }
-                        i++;
-                    }
-
-                    if (anyRecipe) {
-                        activeItem = t.itemDrop;
-
-                        workDelay = activeRecipe.workingTime;
-                        updateUI();
-                        break;
-                    }
-                }
-            }
         }
     }
 
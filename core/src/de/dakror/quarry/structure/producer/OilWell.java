@@ -20,12 +20,15 @@ import de.dakror.quarry.Const;
 import de.dakror.quarry.game.Item.ItemType;
 import de.dakror.quarry.game.Item.Items;
 import de.dakror.quarry.game.Item.Items.Amount;
+import de.dakror.quarry.game.Layer;
 import de.dakror.quarry.game.Science.ScienceType;
+import de.dakror.quarry.game.Tile.TileType;
 import de.dakror.quarry.structure.base.Direction;
 import de.dakror.quarry.structure.base.Dock;
 import de.dakror.quarry.structure.base.Dock.DockType;
 import de.dakror.quarry.structure.base.ProducerStructure;
 import de.dakror.quarry.structure.base.RecipeList;
+import de.dakror.quarry.structure.base.Structure;
 import de.dakror.quarry.structure.base.StructureType;
 import de.dakror.quarry.util.Sfx;
 
@@ -48,6 +51,15 @@ public class OilWell extends ProducerStructure {
 
     public static final int MIN_OIL_TILES = 4;
 
+    /**
+     * @return the number of crude oil tiles in the area of the structure
+     */
+    public static int countOil(Layer l, Structure<?> s) {
+        int[] counts = new int[TileType.values.length];
+        l.countTiles(s.x, s.y, s.getWidth(), s.getHeight(), TileType.CrudeOil.bit(), counts);
+        return counts[TileType.CrudeOil.ordinal()];
+    }
+
     public OilWell(int x, int y) {
         super(x, y, classSchema);
     }
@@ -32,7 +32,6 @@ import de.dakror.quarry.Quarry;
 import de.dakror.quarry.game.Item.ItemType;
 import de.dakror.quarry.game.Item.Items;
 import de.dakror.quarry.game.Science.ScienceType;
-import de.dakror.quarry.scenes.Game;
 import de.dakror.quarry.structure.base.Direction;
 import de.dakror.quarry.structure.base.Dock;
 import de.dakror.quarry.structure.base.Dock.DockType;
@@ -72,7 +71,7 @@ public class Barrel extends StorageStructure {
                         public void call(Boolean on, Structure<?> data) {
                             Barrel st = (Barrel) data;
                             TooltipManager.getInstance().enabled = !on;
-                            st.refundStorage = on;
+                            st.setRefundStorage(on);
                         }
                     }));
 
@@ -87,7 +86,6 @@ public class Barrel extends StorageStructure {
         ((CSingleInventory) components[0]).setPumpOutCallback(new Callback<ItemType>() {
             @Override
             public void call(ItemType i) {
-                Game.G.removeResources(i, 1, false);
                 onItemCountChanged(i);
             }
         });
@@ -142,16 +140,6 @@ public class Barrel extends StorageStructure {
         }
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        // Muhahaha
-        CSingleInventory inv = (CSingleInventory) components[0];
-        if (!inv.isEmpty()) {
-            Game.G.removeResources(inv.getItem(), inv.getCount(), false);
-        }
-    }
-
     private void updateUI() {
         if (ui == null) {
             ui = new Table();
@@ -19,7 +19,6 @@ package de.dakror.quarry.structure.storage;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.WindowedMean;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.scenes.scene2d.ui.modified.TooltipManager;
@@ -48,6 +47,7 @@ import de.dakror.quarry.structure.base.StructureType;
 import de.dakror.quarry.structure.base.component.CInventory;
 import de.dakror.quarry.structure.power.Substation;
 import de.dakror.quarry.util.Bounds;
+import de.dakror.quarry.util.MetricsArena;
 import de.dakror.quarry.util.Sfx;
 import de.dakror.quarry.util.SpriterDelegateBatch;
 
@@ -89,7 +89,7 @@ public class DigitalStorage extends Storage {
                         public void call(Boolean on, Structure<?> data) {
                             DigitalStorage st = (DigitalStorage) data;
                             TooltipManager.getInstance().enabled = !on;
-                            st.refundStorage = on;
+                            st.setRefundStorage(on);
                         }
                     }))
                     .sciences(ScienceType.BetterStorage, ScienceType.HighTech);
@@ -103,7 +103,7 @@ public class DigitalStorage extends Storage {
     double powerLevel;
     double powerUse;
     boolean noPower;
-    final WindowedMean powerLevelMean = new WindowedMean(60);
+    int powerLevelMetric = -1;
     protected int framesPassedWithPower;
 
     public DigitalStorage(int x, int y) {
@@ -176,12 +176,19 @@ public class DigitalStorage extends Storage {
         powerUse = inv.getCount() * POWER_PER_ITEM + POWER_BASE;
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        MetricsArena.POWER.free(powerLevelMetric);
+        powerLevelMetric = -1;
+    }
+
     @Override
     public void update(double deltaTime, int gameSpeed, Bounds dirtyBounds) {
         if (gameSpeed == 0) {
-            powerLevelMean.addValue(powerLevelMean.getLatest());
+            powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, MetricsArena.POWER.getLatest(powerLevelMetric));
         } else {
-            powerLevelMean.addValue((float) powerLevel);
+            powerLevelMetric = MetricsArena.POWER.add(powerLevelMetric, (float) powerLevel);
         }
 
         CInventory inv = (CInventory) components[0];
@@ -219,7 +226,7 @@ public class DigitalStorage extends Storage {
                     (y + getHeight()) * Const.TILE_SIZE - (size - Const.STATE_SIZE) / 2 - Const.STATE_SIZE * 1.25f * 2, Const.Z_STATES, size, size);
         }
 
-        float scale = Math.min(1, powerLevelMean.getMean() / POWER_CAPACITY);
+        float scale = Math.min(1, MetricsArena.POWER.getMean(powerLevelMetric) / POWER_CAPACITY);
         if (scale > 0)
             spriter.add(x * Const.TILE_SIZE + 1, y * Const.TILE_SIZE + 1, Const.Z_STATES,
                     4, (getHeight() * Const.TILE_SIZE - 2) * scale,
@@ -19,7 +19,6 @@ package de.dakror.quarry.structure.storage;
 import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
@@ -49,7 +48,6 @@ import de.dakror.quarry.game.Item;
 import de.dakror.quarry.game.Item.ItemCategory;
 import de.dakror.quarry.game.Item.ItemType;
 import de.dakror.quarry.game.Item.Items;
-import de.dakror.quarry.scenes.Game;
 import de.dakror.quarry.scenes.GameUi;
 import de.dakror.quarry.structure.base.Direction;
 import de.dakror.quarry.structure.base.Dock;
@@ -104,7 +102,7 @@ public class Storage extends StorageStructure {
                         public void call(Boolean on, Structure<?> data) {
                             Storage st = (Storage) data;
                             TooltipManager.getInstance().enabled = !on;
-                            st.refundStorage = on;
+                            st.setRefundStorage(on);
                         }
                     }));
 
@@ -197,7 +195,6 @@ public class Storage extends StorageStructure {
                     if (ui != null)
                         setUIAmount(t, inv.get(t));
                     onItemCountChanged(t);
-                    Game.G.removeResources(t, 1, false);
                     setItemNotifications();
                     pumpOutItemIndex += i + 1;
                     return;
@@ -294,15 +291,6 @@ public class Storage extends StorageStructure {
         }
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        // Muhahaha
-        for (Entry<ItemType, Integer> e : ((CInventory) components[0]).getAll()) {
-            Game.G.removeResources(e.getKey(), e.getValue(), false);
-        }
-    }
-
     @Override
     public boolean getButtonState(int buttonIndex) {
         if (buttonIndex == 1)
@@ -410,8 +398,8 @@ public class Storage extends StorageStructure {
         for (Map.Entry<ItemType, Table> e : cells.entrySet()) {
             setUIAmount(e.getKey(), ((CInventory) components[0]).get(e.getKey()));
         }
-        for (Map.Entry<ItemType, Integer> e : ((CInventory) components[0]).getAll()) {
-            setUIAmount(e.getKey(), e.getValue());
+        for (int i = inv.nextItem(0); i != -1; i = inv.nextItem(i + 1)) {
+            setUIAmount(ItemType.values[i], inv.get(ItemType.values[i]));
         }
         for (ItemType i : outputs) {
             setUIAmount(i, ((CInventory) components[0]).get(i));
@@ -102,6 +102,11 @@ public class Tank extends Structure<Schema> {
         return false;
     }
 
+    @Override
+    public boolean canAcceptFluid(int dock, ItemType item, int x, int y, Direction dir) {
+        return dock == 0 && ((CTank) components[0]).canAccept(item);
+    }
+
     @Override
     public int acceptFluid(ItemType item, int amount, Structure<?> source) {
         if (item.categories.contains(ItemCategory.IntermediateOil)) // volatile
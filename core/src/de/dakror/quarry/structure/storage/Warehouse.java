@@ -76,7 +76,7 @@ public class Warehouse extends Storage {
                         public void call(Boolean on, Structure<?> data) {
                             Warehouse st = (Warehouse) data;
                             TooltipManager.getInstance().enabled = !on;
-                            st.refundStorage = on;
+                            st.setRefundStorage(on);
                         }
                     }))
                     .sciences(ScienceType.BetterStorage);
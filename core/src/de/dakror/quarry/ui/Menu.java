@@ -46,10 +46,11 @@ import com.badlogic.gdx.scenes.scene2d.utils.Drawable;
 import de.dakror.common.Callback;
 import de.dakror.common.Response;
 import de.dakror.common.libgdx.PlatformInterface;
-import de.dakror.common.libgdx.io.NBT.CompoundTag;
+import de.dakror.common.libgdx.io.NBT.LazyTagContainer.RawCompoundTag;
 import de.dakror.quarry.Const;
 import de.dakror.quarry.Quarry;
 import de.dakror.quarry.game.Generator;
+import de.dakror.quarry.game.SaveContainer;
 import de.dakror.quarry.game.Science.ScienceType;
 import de.dakror.quarry.scenes.Game;
 import de.dakror.quarry.scenes.GameUi;
@@ -263,8 +264,7 @@ public class Menu {
                                             @Override
                                             public void call(Boolean data) {
                                                 if (data != null && data) {
-                                                    if (Quarry.Q.file("TheQuarry/saves/" + n + ".qsf", false)
-                                                            .delete()) {
+                                                    if (SaveContainer.delete(n)) {
                                                         Game.G.ui.toast.show(Quarry.Q.i18n.get("toast.save_deleted"));
                                                         menuSavesContainer.removeActor(entry);
                                                     } else {
@@ -340,7 +340,7 @@ public class Menu {
 
                         });
                         try {
-                            CompoundTag data = Game.G.loadMetaData(n);
+                            RawCompoundTag data = Game.G.loadMetaData(n);
                             if (data == null)
                                 continue;
                             Texture t = Game.G.getThumbnail(n);
@@ -371,7 +371,6 @@ public class Menu {
                             entry.add(details).expandX().left().top().space(10);
 
                             entry.add(del).right().spaceRight(20);
-                            data.free();
                         } catch (Exception e) {
                             Quarry.Q.pi.message(PlatformInterface.MSG_EXCEPTION, e);
                         }
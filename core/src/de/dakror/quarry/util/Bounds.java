@@ -16,7 +16,6 @@
 
 package de.dakror.quarry.util;
 
-import de.dakror.quarry.structure.DistillationColumn;
 import de.dakror.quarry.structure.base.FluidTubeStructure;
 import de.dakror.quarry.structure.base.GeneratorStructure;
 import de.dakror.quarry.structure.base.ProducerStructure;
@@ -40,6 +39,8 @@ import de.dakror.quarry.structure.storage.Storage;
 public class Bounds {
     protected int x, y, width, height;
     protected int flags;
+    // bumped on every change, so a region can be recognized as untouched
+    protected int version;
 
     public static class Flags {
         public static final int CONVEYOR = 1 << 0;
@@ -52,17 +53,18 @@ public class Bounds {
         public static final int SHAFT = 1 << 7;
         public static final int CONSTRUCTION = 1 << 8;
         public static final int DESTRUCTION = 1 << 9;
-        public static final int DISTILLATIONCOLUMN = 1 << 10;
-        public static final int GASTURBINE = 1 << 11;
+        public static final int GASTURBINE = 1 << 10;
     }
 
     public void clear() {
+        version++;
         width = 0;
         height = 0;
         flags = 0;
     }
 
     public void add(Structure<?> s, int flags) {
+        version++;
         this.flags |= flags;
 
         if (s instanceof Conveyor)
@@ -77,8 +79,6 @@ public class Bounds {
             this.flags |= Flags.STORAGE;
         if (s instanceof GeneratorStructure)
             this.flags |= Flags.GENERATOR;
-        if (s instanceof DistillationColumn)
-            this.flags |= Flags.DISTILLATIONCOLUMN;
         if (s instanceof GasTurbine)
             this.flags |= Flags.GASTURBINE;
         if (s.getSchema().powerDocks > 0)
@@ -108,6 +108,7 @@ public class Bounds {
     }
 
     public void set(Bounds o) {
+        version++;
         x = o.x;
         y = o.y;
         width = o.width;
@@ -116,6 +117,7 @@ public class Bounds {
     }
 
     public void set(int x, int y, int width, int height, int flags) {
+        version++;
         this.x = x;
         this.y = y;
         this.width = width;
@@ -123,7 +125,21 @@ public class Bounds {
         this.flags = flags;
     }
 
+    public void addFlags(int flags) {
+        version++;
+        this.flags |= flags;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
     public void add(Bounds o) {
+        version++;
         flags |= o.flags;
         width = Math.max(x + width, o.x + o.width) - Math.min(x, o.x);
         height = Math.max(y + height, o.y + o.height) - Math.min(y, o.y);
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright 2019 Maximilian Stark | Dakror <mail@dakror.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.dakror.quarry.util;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Windowed means of many owners in shared fixed point ring buffers, replacing one {@link com.badlogic.gdx.math.WindowedMean} per owner.
+ * Values are kept as 64 bit fixed point, so large power levels like those of capacitors do not saturate.
+ * Repeated values are only counted and written into the ring once the value changes or the mean is read.
+ * Such a flush costs up to one window of writes, which is amortised over the adds that were counted.
+ * Owners keep an int handle, -1 for none, which is handed out on the first {@link #add(int, float)}.
+ * Handles from before a {@link #reset()} are stale and get replaced on the next add.
+ * Only to be used from the render thread.
+ *
+ * @author Maximilian Stark | Dakror
+ */
+public class MetricsArena {
+    public static final MetricsArena POWER = new MetricsArena(60, 4);
+    public static final MetricsArena TIME = new MetricsArena(60, 20);
+
+    private static final int SLOT_BITS = 20;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+    private final int window;
+    private final float scale;
+
+    // slot * window + i
+    private long[] values;
+    private long[] sums;
+    private int[] heads;
+    private int[] counts;
+    private long[] pendingValues;
+    private int[] pendingCounts;
+
+    private final IntArray freeSlots = new IntArray();
+    private int size;
+    private int generation;
+
+    public MetricsArena(int window, int fractionBits) {
+        this.window = window;
+        scale = 1 << fractionBits;
+        grow(64);
+    }
+
+    /**
+     * @return the handle to keep using, a new one if the given one was -1 or stale
+     */
+    public int add(int handle, float value) {
+        int slot = resolve(handle);
+        if (slot == -1) {
+            handle = allocate();
+            slot = handle & SLOT_MASK;
+        }
+
+        long v = (long) ((double) value * scale);
+        if (pendingCounts[slot] > 0 && pendingValues[slot] != v) flush(slot);
+
+        pendingValues[slot] = v;
+        if (pendingCounts[slot] < window) pendingCounts[slot]++;
+
+        return handle;
+    }
+
+    public float getLatest(int handle) {
+        int slot = resolve(handle);
+        if (slot == -1) return 0;
+        if (pendingCounts[slot] > 0) return pendingValues[slot] / scale;
+        if (counts[slot] == 0) return 0;
+        return values[slot * window + (heads[slot] + window - 1) % window] / scale;
+    }
+
+    public float getMean(int handle) {
+        int slot = resolve(handle);
+        if (slot == -1) return 0;
+        flush(slot);
+        if (counts[slot] == 0) return 0;
+        return (float) ((double) sums[slot] / counts[slot] / scale);
+    }
+
+    public int getValueCount(int handle) {
+        int slot = resolve(handle);
+        if (slot == -1) return 0;
+        return Math.min(window, counts[slot] + pendingCounts[slot]);
+    }
+
+    public void clear(int handle) {
+        int slot = resolve(handle);
+        if (slot != -1) clearSlot(slot);
+    }
+
+    /**
+     * Gives the slot back, stale handles are ignored
+     */
+    public void free(int handle) {
+        int slot = resolve(handle);
+        if (slot == -1) return;
+        clearSlot(slot);
+        freeSlots.add(slot);
+    }
+
+    /**
+     * Drops all slots at once, when all owners are thrown away together
+     */
+    public void reset() {
+        for (int i = 0; i < size; i++)
+            clearSlot(i);
+        size = 0;
+        freeSlots.clear();
+        generation = (generation + 1) & ((1 << (31 - SLOT_BITS)) - 1);
+    }
+
+    private int resolve(int handle) {
+        if (handle < 0 || handle >>> SLOT_BITS != generation) return -1;
+        int slot = handle & SLOT_MASK;
+        return slot < size ? slot : -1;
+    }
+
+    private int allocate() {
+        int slot;
+        if (freeSlots.size > 0) slot = freeSlots.pop();
+        else {
+            if (size == heads.length) grow(size * 2);
+            slot = size++;
+        }
+        return generation << SLOT_BITS | slot;
+    }
+
+    private void flush(int slot) {
+        int n = pendingCounts[slot];
+        if (n == 0) return;
+
+        long v = pendingValues[slot];
+        int base = slot * window;
+        int head = heads[slot];
+        long sum = sums[slot];
+        for (int i = 0; i < n; i++) {
+            if (counts[slot] == window) sum -= values[base + head];
+            else counts[slot]++;
+            values[base + head] = v;
+            sum += v;
+            head = (head + 1) % window;
+        }
+        heads[slot] = head;
+        sums[slot] = sum;
+        pendingCounts[slot] = 0;
+    }
+
+    private void clearSlot(int slot) {
+        sums[slot] = 0;
+        heads[slot] = 0;
+        counts[slot] = 0;
+        pendingValues[slot] = 0;
+        pendingCounts[slot] = 0;
+    }
+
+    private void grow(int slots) {
+        long[] v = new long[slots * window];
+        long[] s = new long[slots];
+        int[] h = new int[slots];
+        int[] c = new int[slots];
+        long[] pv = new long[slots];
+        int[] pc = new int[slots];
+        if (values != null) {
+            System.arraycopy(values, 0, v, 0, values.length);
+            System.arraycopy(sums, 0, s, 0, sums.length);
+            System.arraycopy(heads, 0, h, 0, heads.length);
+            System.arraycopy(counts, 0, c, 0, counts.length);
+            System.arraycopy(pendingValues, 0, pv, 0, pendingValues.length);
+            System.arraycopy(pendingCounts, 0, pc, 0, pendingCounts.length);
+        }
+        values = v;
+        sums = s;
+        heads = h;
+        counts = c;
+        pendingValues = pv;
+        pendingCounts = pc;
+    }
+}
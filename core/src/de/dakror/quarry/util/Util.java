@@ -24,6 +24,7 @@ import java.util.Map;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Bits;
 
 import de.dakror.common.libgdx.io.NBT.Builder;
 import de.dakror.common.libgdx.io.NBT.CompoundTag;
@@ -90,6 +91,76 @@ public class Util {
                 .IntArray("Amounts", amounts);
     }
 
+    /**
+     * Same format as {@link #NBTwriteInventory(Builder, Map)} for amounts indexed by item type ordinal
+     */
+    public static void NBTwriteInventory(Builder builder, int[] amounts, Bits nonZero) {
+        int size = 0;
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1))
+            size++;
+
+        short[] types = new short[size];
+        int[] values = new int[size];
+        int j = 0;
+        for (int i = nonZero.nextSetBit(0); i != -1; i = nonZero.nextSetBit(i + 1)) {
+            types[j] = ItemType.values[i].value;
+            values[j] = amounts[i];
+            j++;
+        }
+
+        builder
+                .ShortArray("Types", types)
+                .IntArray("Amounts", values);
+    }
+
+    /**
+     * Same format as {@link #NBTwriteInventory(Builder, Map)} for the positive amounts indexed by item type ordinal
+     */
+    public static void NBTwriteInventory(Builder builder, int[] amounts) {
+        int size = 0;
+        for (int i = 0; i < amounts.length; i++)
+            if (amounts[i] > 0) size++;
+
+        short[] types = new short[size];
+        int[] values = new int[size];
+        int j = 0;
+        for (int i = 0; i < amounts.length; i++) {
+            if (amounts[i] > 0) {
+                types[j] = ItemType.values[i].value;
+                values[j] = amounts[i];
+                j++;
+            }
+        }
+
+        builder
+                .ShortArray("Types", types)
+                .IntArray("Amounts", values);
+    }
+
+    /**
+     * Same format as {@link #NBTreadInventory(CompoundTag, Map)} for amounts indexed by item type ordinal
+     */
+    public static int NBTreadInventory(CompoundTag tag, int[] amounts) throws NBTException {
+        short[] types = tag.ShortArray("Types");
+        int[] values = tag.IntArray("Amounts");
+
+        if (types.length != values.length)
+            throw new IllegalStateException("Not the same amount of item types and amounts!");
+
+        int sum = 0;
+        for (int i = 0; i < amounts.length; i++)
+            amounts[i] = 0;
+        for (int i = 0; i < types.length; i++) {
+            ItemType t = Item.get(types[i]);
+            if (t != null) {
+                amounts[t.ordinal()] += values[i];
+                sum += values[i];
+            }
+        }
+
+        return sum;
+    }
+
     public static int NBTreadInventory(CompoundTag tag, Map<ItemType, Integer> map) throws NBTException {
         short[] types = tag.ShortArray("Types");
         int[] amounts = tag.IntArray("Amounts");